@@ -0,0 +1,65 @@
+package admin;
+
+import both.BenchmarkRows;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures what Admin does with a table received in the text
+ * protocol: extracting the cells from the line, then loading them into the
+ * model of the JTable.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdminParsingBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rowCount;
+
+    private String oddsLine;
+    private String matchesLine;
+    private TextTable parsedMatches;
+    private final MyTableModel model = new MyTableModel();
+
+    /**
+     * Build the lines as Admin sees them, after the 'SQL_TABLE[' prefix.
+     */
+    @Setup
+    public void setup() {
+        oddsLine = BenchmarkRows.odds(rowCount).toString().substring(1);
+        matchesLine = BenchmarkRows.matches(rowCount).toString().substring(1);
+        parsedMatches = TextTable.parse(matchesLine);
+    }
+
+    /**
+     * @return The 'odds' table extracted from its line.
+     */
+    @Benchmark
+    public TextTable parseOdds() {
+        return TextTable.parse(oddsLine);
+    }
+
+    /**
+     * @return The 'football-match-data' table extracted from its line.
+     */
+    @Benchmark
+    public TextTable parseMatches() {
+        return TextTable.parse(matchesLine);
+    }
+
+    /**
+     * @return The model after loading the 'football-match-data' table.
+     */
+    @Benchmark
+    public MyTableModel loadMatches() {
+        model.loadFromDatabase(parsedMatches.data(), parsedMatches.columnNames());
+        return model;
+    }
+}
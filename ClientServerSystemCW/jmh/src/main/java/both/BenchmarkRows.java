@@ -0,0 +1,70 @@
+package both;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class makes up rows shaped like the ones in the database,
+ * so the benchmarks can be run for any number of rows.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public final class BenchmarkRows {
+
+    private static final String[] TEAMS = {"Arsenal", "Chelsea", "Liverpool", "Everton", "Burnley",
+            "Leeds", "Fulham", "Brighton", "Wolves", "Southampton", "Newcastle", "Aston Villa"};
+    private static final String[] FRACTIONS = {"4/9", "11/4", "6/1", "1/2", "13/5", "5/1", "Evs", "7/4"};
+
+    private BenchmarkRows() {
+    }
+
+    /**
+     * @param count Number of rows.
+     * @return      Rows of the 'odds' table, newest first.
+     */
+    public static List<OddsTable> odds(int count) {
+        List<OddsTable> rows = new ArrayList<>(count);
+        for (int i = count; i > 0; i--) {
+            rows.add(new OddsTable(i, 1 + i % 13, 1 + i % 3861, OddsFormat.fromText(FRACTIONS[i % FRACTIONS.length]),
+                    OddsFormat.fromText(FRACTIONS[(i + 3) % FRACTIONS.length]),
+                    OddsFormat.fromText(FRACTIONS[(i + 5) % FRACTIONS.length])));
+        }
+        return rows;
+    }
+
+    /**
+     * @param count Number of rows.
+     * @return      Rows of the 'football-match-data' table, newest first.
+     */
+    public static List<MatchTable> matches(int count) {
+        List<MatchTable> rows = new ArrayList<>(count);
+        for (int i = count; i > 0; i--) {
+            int home = i % TEAMS.length;
+            int away = (i * 7 + 3) % TEAMS.length;
+            rows.add(new MatchTable(i, String.valueOf(2000 + i % 21),
+                    String.format("%02d/%02d/20%02d 15:00", 1 + i % 28, 1 + i % 12, i % 21),
+                    "E0", "England", "Premier League", "M Dean", TEAMS[home], TEAMS[away],
+                    i % 4, i % 3, i % 4 > i % 3 ? "H" : i % 4 < i % 3 ? "A" : "D", i % 2, i % 2));
+        }
+        return rows;
+    }
+
+    /**
+     * @param count Number of rows.
+     * @return      Rows of the 'football-match-data' table, oldest first, every
+     *              string a copy of its own as when the rows are read from SQLite.
+     */
+    public static List<MatchTable> matchesAsRead(int count) {
+        List<MatchTable> rows = new ArrayList<>(count);
+        List<MatchTable> made = matches(count);
+        for (int i = made.size() - 1; i >= 0; i--) {
+            MatchTable m = made.get(i);
+            rows.add(new MatchTable(m.match_id(), new String(m.season()), new String(m.datetime()),
+                    new String(m.division()), new String(m.country()), new String(m.league()),
+                    new String(m.referee()), new String(m.home_team()), new String(m.away_team()),
+                    m.full_time_home_goals(), m.full_time_away_goals(), new String(m.full_time_result()),
+                    m.half_time_home_goals(), m.half_time_away_goals()));
+        }
+        return rows;
+    }
+}
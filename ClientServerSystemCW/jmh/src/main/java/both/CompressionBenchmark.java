@@ -0,0 +1,94 @@
+package both;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures compressing a TABLE frame as the server does for
+ * an Admin that asked for it, and inflating it again as Admin does.
+ * The size of each frame before and after is printed once per trial.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int rowCount;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private ByteBuffer oddsFrame;
+    private ByteBuffer matchesFrame;
+    private ByteBuffer compressedMatches;
+    private FrameDeflater deflater;
+    private final FrameInflater inflater = new FrameInflater();
+
+    /**
+     * Make up the rows and encode them into frames.
+     */
+    @Setup
+    public void setup() {
+        deflater = new FrameDeflater(level, 0);
+        oddsFrame = encode(TableSchema.ODDS, BenchmarkRows.odds(rowCount));
+        matchesFrame = encode(TableSchema.MATCHES, BenchmarkRows.matches(rowCount));
+        compressedMatches = deflater.deflate(matchesFrame);
+        System.out.printf("%nodds %d B -> %d B, matches %d B -> %d B%n",
+                oddsFrame.remaining(), deflater.deflate(oddsFrame).remaining(),
+                matchesFrame.remaining(), compressedMatches.remaining());
+    }
+
+    /**
+     * @return The 'odds' table as a COMPRESSED frame.
+     */
+    @Benchmark
+    public ByteBuffer deflateOdds() {
+        return deflater.deflate(oddsFrame);
+    }
+
+    /**
+     * @return The 'football-match-data' table as a COMPRESSED frame.
+     */
+    @Benchmark
+    public ByteBuffer deflateMatches() {
+        return deflater.deflate(matchesFrame);
+    }
+
+    /**
+     * @return Type of the inflated 'football-match-data' frame.
+     * @throws IOException If the frame cannot be inflated.
+     */
+    @Benchmark
+    public MessageType inflateMatches() throws IOException {
+        FrameDecoder frame = new FrameDecoder(compressedMatches.duplicate().position(4));
+        return inflater.inflate(frame).getType();
+    }
+
+    /**
+     * @param schema    The table.
+     * @param rows      Rows of the table.
+     * @return          A copy of the TABLE frame, laid out as Server sends it.
+     */
+    private static ByteBuffer encode(TableSchema schema, List<? extends TableRow> rows) {
+        FrameEncoder encoder = new FrameEncoder(256);
+        encoder.begin(MessageType.TABLE)
+                .putByte(schema.getCode())
+                .putLong(1)
+                .putInt(rows.size());
+        for (TableRow row : rows) {
+            row.encode(encoder);
+        }
+        ByteBuffer frame = encoder.finish();
+        return ByteBuffer.allocate(frame.remaining()).put(frame).flip();
+    }
+}
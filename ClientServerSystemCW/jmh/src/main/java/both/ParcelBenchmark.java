@@ -0,0 +1,55 @@
+package both;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures packing and unpacking a parcel in the text protocol,
+ * which Server does for every line an Admin sends.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParcelBenchmark {
+
+    private Parcel edit;
+    private String editLine;
+
+    /**
+     * Prepare an EDIT of a row of the 'football-match-data' table, the widest one.
+     */
+    @Setup
+    public void setup() {
+        edit = new Parcel();
+        edit.setCommand(Commands.EDIT);
+        edit.setTable("football-match-data");
+        edit.setSelect("LAST");
+        edit.setData("'2020','12/09/2020 15:00','E0','England','Premier League','M Dean'," +
+                "'Arsenal','Chelsea',2,1,'H',1,0");
+        editLine = edit.toString();
+    }
+
+    /**
+     * @return The parcel compressed to a line.
+     */
+    @Benchmark
+    public String parcelToString() {
+        return edit.toString();
+    }
+
+    /**
+     * @return The parcel unpacked from a line, split as Server splits it.
+     */
+    @Benchmark
+    public Parcel unpackParcel() {
+        Parcel parcel = new Parcel();
+        parcel.unpackParcel(editLine.split(";"));
+        return parcel;
+    }
+}
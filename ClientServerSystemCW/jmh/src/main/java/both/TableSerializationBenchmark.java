@@ -0,0 +1,87 @@
+package both;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures turning a table into what is sent to Admin:
+ * the string of the list in the text protocol, and a TABLE frame in the
+ * binary protocol for comparison.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableSerializationBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int rowCount;
+
+    private List<OddsTable> odds;
+    private List<MatchTable> matches;
+    private final FrameEncoder encoder = new FrameEncoder(256);
+
+    /**
+     * Make up the rows.
+     */
+    @Setup
+    public void setup() {
+        odds = BenchmarkRows.odds(rowCount);
+        matches = BenchmarkRows.matches(rowCount);
+    }
+
+    /**
+     * @return The 'odds' table as a line of the text protocol.
+     */
+    @Benchmark
+    public String oddsToString() {
+        return "SQL_TABLE" + odds;
+    }
+
+    /**
+     * @return The 'football-match-data' table as a line of the text protocol.
+     */
+    @Benchmark
+    public String matchesToString() {
+        return "SQL_TABLE" + matches;
+    }
+
+    /**
+     * @return The 'odds' table as a TABLE frame.
+     */
+    @Benchmark
+    public ByteBuffer oddsToFrame() {
+        return encode(TableSchema.ODDS, odds);
+    }
+
+    /**
+     * @return The 'football-match-data' table as a TABLE frame.
+     */
+    @Benchmark
+    public ByteBuffer matchesToFrame() {
+        return encode(TableSchema.MATCHES, matches);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param rows      Rows of the table.
+     * @return          The TABLE frame, laid out as Server sends it.
+     */
+    private ByteBuffer encode(TableSchema schema, List<? extends TableRow> rows) {
+        encoder.begin(MessageType.TABLE)
+                .putByte(schema.getCode())
+                .putLong(1)
+                .putInt(rows.size());
+        for (TableRow row : rows) {
+            row.encode(encoder);
+        }
+        return encoder.finish();
+    }
+}
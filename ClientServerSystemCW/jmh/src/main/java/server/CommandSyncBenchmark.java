@@ -0,0 +1,139 @@
+package server;
+
+import both.TableSchema;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures getting a table for a GET, from the snapshot cache
+ * and straight from SQLite.
+ * <p>
+ * It runs against a temporary copy of football-match-data.sqlite, taken from
+ * the {@code bench.db} system property or the copy bundled with the project.
+ * The 'odds' and 'bookies' tables of the copy are filled up to the row count;
+ * a GET of 'football-match-data' always reads its newest 50 rows.
+ * The copy is picked up through {@code db.path}, so every trial needs its own
+ * fork; do not run it with {@code -f 0}.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandSyncBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int rowCount;
+
+    @Param({"odds", "bookies", "football-match-data"})
+    public String table;
+
+    private Path databaseCopy;
+    private SQLiteDatabase database;
+    private TableSchema schema;
+
+    /**
+     * Copy the database, fill it up and point the server at the copy.
+     *
+     * @throws IOException  If the database cannot be copied.
+     * @throws SQLException If the copy cannot be filled up.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        Path source = Paths.get(System.getProperty("bench.db",
+                "FootballBetting-SQL/football-match-data.sqlite"));
+        databaseCopy = Files.createTempFile("football-bench", ".sqlite");
+        Files.copy(source, databaseCopy, StandardCopyOption.REPLACE_EXISTING);
+        fillUp(databaseCopy);
+
+        System.setProperty("db.path", databaseCopy.toString());
+        database = new SQLiteDatabase();
+        schema = TableSchema.fromName(table);
+    }
+
+    /**
+     * Add made up rows to 'odds' and 'bookies' until they hold the row count.
+     *
+     * @param file          The database copy.
+     * @throws SQLException If the rows cannot be added.
+     */
+    private void fillUp(Path file) throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement odds = conn.prepareStatement("INSERT INTO \"odds\" " +
+                    "(bookie_id, match_id, odds_home_to_win, odd_draw, odds_away_to_win) VALUES (?,?,'4/9','11/4','6/1')");
+                 PreparedStatement bookies = conn.prepareStatement("INSERT INTO \"bookies\" " +
+                         "(name, website) VALUES (?,?)");
+                 Statement count = conn.createStatement()) {
+                for (int i = count(count, "odds"); i < rowCount; i++) {
+                    odds.setInt(1, 1 + i % 13);
+                    odds.setInt(2, 1 + i % 3861);
+                    odds.addBatch();
+                }
+                for (int i = count(count, "bookies"); i < rowCount; i++) {
+                    bookies.setString(1, "bookie" + i);
+                    bookies.setString(2, "https://www.bookie" + i + ".com/");
+                    bookies.addBatch();
+                }
+                odds.executeBatch();
+                bookies.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+
+    /**
+     * @param statement     Statement to run the query on.
+     * @param table         The table.
+     * @return              Number of rows in the table.
+     * @throws SQLException If the query fails.
+     */
+    private static int count(Statement statement, String table) throws SQLException {
+        try (var resultSet = statement.executeQuery("SELECT COUNT(*) FROM \"" + table + "\"")) {
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * Delete the database copy.
+     *
+     * @throws IOException If a file cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Paths.get(databaseCopy + suffix));
+        }
+    }
+
+    /**
+     * @return The table as a GET gets it, from the cache once it has been read.
+     */
+    @Benchmark
+    public TableSnapshot commandSync() {
+        return database.commandSync(table);
+    }
+
+    /**
+     * @return The table read from SQLite, as on a cache miss.
+     * @throws SQLException If the query fails.
+     */
+    @Benchmark
+    public TableSnapshot loadTable() throws SQLException {
+        return database.loadTable(schema, 0);
+    }
+}
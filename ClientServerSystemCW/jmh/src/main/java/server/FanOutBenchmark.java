@@ -0,0 +1,99 @@
+package server;
+
+import both.BenchmarkRows;
+import both.Protocol;
+import both.TableRow;
+import both.TableSchema;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures sending a new version of a table to every
+ * connection watching it, as happens after a write to a text protocol
+ * Admin or on a resync.
+ * <p>
+ * The connections throw away what they are given instead of writing it
+ * to a socket, so only the work the server does per connection is measured.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"1", "20", "200"})
+    public int connectionCount;
+
+    @Param({"1000", "10000"})
+    public int rowCount;
+
+    @Param({"true", "false"})
+    public boolean binary;
+
+    private final List<DiscardingConnection> connections = new ArrayList<>();
+    private List<TableRow> rows;
+    private long version = 0;
+
+    /**
+     * A connection that drops its output as soon as it is queued.
+     */
+    private static final class DiscardingConnection extends AdminConnection {
+
+        /**
+         * @param binary True to switch the connection to the binary protocol.
+         */
+        DiscardingConnection(boolean binary) {
+            super(null, Runnable::run);
+            if (binary) {
+                handleLine(Protocol.binaryRequest());
+            }
+        }
+
+        /**
+         * Drop everything queued.
+         */
+        @Override
+        protected void outboundReady() {
+            while (pollOutbound() != null) {
+                // nothing to write to
+            }
+        }
+
+        /**
+         * Nothing to close.
+         */
+        @Override
+        protected void close() {
+        }
+    }
+
+    /**
+     * Make up the rows and open the connections.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        rows = new ArrayList<>(BenchmarkRows.odds(rowCount));
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(new DiscardingConnection(binary));
+        }
+    }
+
+    /**
+     * Send a new version of the table to every connection.
+     */
+    @Benchmark
+    public void sendTable() {
+        TableSnapshot snapshot = TableSnapshot.of(TableSchema.ODDS, ++version, rows);
+        for (DiscardingConnection connection : connections) {
+            connection.sendTable(snapshot);
+        }
+    }
+}
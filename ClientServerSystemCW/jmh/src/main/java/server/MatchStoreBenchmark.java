@@ -0,0 +1,80 @@
+package server;
+
+import both.BenchmarkRows;
+import both.MatchTable;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures filtering all matches, kept as a list of rows and
+ * in the columnar {@link MatchStore}: counting the matches a team played, and
+ * making the rows of the matches of a team in a league.
+ * Run {@link MatchStoreFootprint} for the heap each of them takes.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class MatchStoreBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int rowCount;
+
+    private List<MatchTable> list;
+    private MatchStore store;
+
+    /**
+     * Make up the matches and load them into both.
+     */
+    @Setup
+    public void setup() {
+        list = BenchmarkRows.matchesAsRead(rowCount);
+        store = new MatchStore();
+        list.forEach(store::put);
+    }
+
+    /**
+     * @return Number of matches Arsenal played, counted from the list.
+     */
+    @Benchmark
+    public long countTeamList() {
+        return list.parallelStream()
+                .filter(match -> "Arsenal".equals(match.home_team()) || "Arsenal".equals(match.away_team()))
+                .count();
+    }
+
+    /**
+     * @return Number of matches Arsenal played, counted from the store.
+     */
+    @Benchmark
+    public int countTeamStore() {
+        return store.count(store.playedBy("Arsenal"));
+    }
+
+    /**
+     * @return The home wins of Arsenal in 2010, from the list.
+     */
+    @Benchmark
+    public List<MatchTable> selectList() {
+        return list.parallelStream()
+                .filter(match -> "Arsenal".equals(match.home_team()) && "2010".equals(match.season())
+                        && "H".equals(match.full_time_result()))
+                .toList();
+    }
+
+    /**
+     * @return The home wins of Arsenal in 2010, from the store.
+     */
+    @Benchmark
+    public List<MatchTable> selectStore() {
+        return store.select(store.equalTo(MatchStore.TextColumn.HOME_TEAM, "Arsenal")
+                .and(store.equalTo(MatchStore.TextColumn.SEASON, "2010"))
+                .and(store.equalTo(MatchStore.TextColumn.RESULT, "H")));
+    }
+}
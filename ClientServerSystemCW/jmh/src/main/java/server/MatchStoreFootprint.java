@@ -0,0 +1,63 @@
+package server;
+
+import both.BenchmarkRows;
+import both.MatchTable;
+
+import java.util.List;
+
+/**
+ * This class reports the heap taken by all matches kept as an
+ * {@code ArrayList<MatchTable>} read from SQLite, and kept in a {@link MatchStore}.
+ * <p>
+ * The heap is measured as the memory in use after garbage collection, before
+ * and after the matches are made. Run it with enough heap for the list:
+ * <pre>
+ *     java -Xmx3g -cp jmh/target/benchmarks.jar server.MatchStoreFootprint 100000 1000000
+ * </pre>
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public final class MatchStoreFootprint {
+
+    private MatchStoreFootprint() {
+    }
+
+    /**
+     * @param args Numbers of rows to measure, 100000 and 1000000 if none are given.
+     */
+    public static void main(String[] args) {
+        String[] counts = args.length > 0 ? args : new String[]{"100000", "1000000"};
+        System.out.printf("%10s %14s %14s %10s %12s%n", "rows", "ArrayList B", "MatchStore B", "ratio", "estimate B");
+        for (String count : counts) {
+            int rowCount = Integer.parseInt(count);
+
+            long before = usedHeap();
+            List<MatchTable> list = BenchmarkRows.matchesAsRead(rowCount);
+            long listBytes = usedHeap() - before;
+
+            MatchStore store = new MatchStore();
+            list.forEach(store::put);
+            list = null;
+            long storeBytes = usedHeap() - before;
+
+            System.out.printf("%10d %14d %14d %9.1fx %12d%n", rowCount, listBytes, storeBytes,
+                    (double) listBytes / storeBytes, store.estimateBytes());
+            if (store.size() != rowCount) {
+                throw new IllegalStateException("The store holds " + store.size() + " rows");
+            }
+        }
+    }
+
+    /**
+     * @return Bytes of the heap in use once the garbage has been collected.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import both.BenchmarkRows;
+import both.ChangeType;
+import both.OddsFormat;
+import both.OddsTable;
+import both.TableSchema;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures finding the best prices of every match: by a
+ * sequential pass that parses odds kept as text as it goes, by the fork/join scan
+ * of {@link OddsBook} over odds parsed beforehand, by building a whole book,
+ * and by applying the EDIT of one odds row to a book that has been built.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class OddsBookBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int rowCount;
+
+    private List<OddsTable> rows;
+    private List<String[]> texts;
+    private OddsBook.PricedOdds[] parsed;
+    private OddsBook book;
+    private long version = 0;
+
+    /**
+     * Make up the odds and build a book of them.
+     */
+    @Setup
+    public void setup() {
+        rows = BenchmarkRows.odds(rowCount);
+        texts = rows.stream().map(odds -> new String[]{String.valueOf(odds.match_id()),
+                OddsFormat.toText(odds.odds_home_to_win()), OddsFormat.toText(odds.odd_draw()),
+                OddsFormat.toText(odds.odds_away_to_win())}).toList();
+        parsed = rows.stream().map(OddsBook.PricedOdds::of).toArray(OddsBook.PricedOdds[]::new);
+        book = OddsBook.build(rows, version);
+    }
+
+    /**
+     * @return The best overround of any match, parsing the odds on a single thread.
+     */
+    @Benchmark
+    public double scanText() {
+        Map<Integer, double[]> best = new HashMap<>();
+        for (String[] odds : texts) {
+            double[] prices = best.computeIfAbsent(Integer.valueOf(odds[0]), id -> new double[3]);
+            prices[0] = Math.max(prices[0], OddsFormat.fromText(odds[1]));
+            prices[1] = Math.max(prices[1], OddsFormat.fromText(odds[2]));
+            prices[2] = Math.max(prices[2], OddsFormat.fromText(odds[3]));
+        }
+        double lowest = Double.MAX_VALUE;
+        for (double[] prices : best.values()) {
+            lowest = Math.min(lowest, 1 / prices[0] + 1 / prices[1] + 1 / prices[2]);
+        }
+        return lowest;
+    }
+
+    /**
+     * @return The best prices of every match, scanned by fork/join from the parsed odds.
+     */
+    @Benchmark
+    public Map<Integer, OddsBook.Margin> scanParsed() {
+        return OddsBook.scan(parsed);
+    }
+
+    /**
+     * @return A book of the odds, parsed, scanned and indexed by match.
+     */
+    @Benchmark
+    public OddsBook build() {
+        return OddsBook.build(rows, version);
+    }
+
+    /**
+     * @return The margin of the match whose odds row was edited.
+     */
+    @Benchmark
+    public OddsBook.Margin applyEdit() {
+        OddsTable odds = rows.get((int) (version % rows.size()));
+        double home = version % 2 == 0 ? 10 : odds.odds_home_to_win();
+        version++;
+        book.apply(new TableChange(TableSchema.ODDS, ChangeType.UPDATE, version, odds.odd_id(),
+                new OddsTable(odds.odd_id(), odds.bookie_id(), odds.match_id(), home,
+                        odds.odd_draw(), odds.odds_away_to_win())));
+        return book.get(odds.match_id());
+    }
+}
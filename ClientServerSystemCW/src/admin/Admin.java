@@ -1,5 +1,6 @@
 
-// Before testing the program, please modify the path of the database in ConnectionFactory.java
+// The server opens FootballBetting-SQL/football-match-data.sqlite relative to its working directory,
+// run it with -Ddb.path=<file> to use a different database
 // The database has been slightly modified:
 // In the football-match-data table, a column 'match_id' has been added
 // The database is included in the project directory and in GitHub
@@ -11,8 +12,10 @@ import both.*;
 import javax.swing.*;
 import java.awt.event.*;
 import java.io.*;
-import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,13 +23,15 @@ import java.util.logging.Logger;
  * This is our Admin class with the GUI and all Admin functionalities.
  * Upon launch, Admin connects to a Thread, which is an intermediary
  * between Admin and Server
+ * <p>
+ * Talking to the server is left to an {@link AdminClient}; this class
+ * only turns what the client receives into what the GUI shows.
  *
  * @author Maksymilian Ćwirzeń
  */
-class Admin extends JFrame {
+class Admin extends JFrame implements AdminClient.Listener {
 
     private int adminNumber = 0;
-    private final Object waitObject = new Object();
     private final MyTableModel sqlTableModel = new MyTableModel();
     private Parcel parcel = new Parcel();
 
@@ -41,9 +46,13 @@ class Admin extends JFrame {
     private JTextField textFieldCommand;
     private JComboBox comboBoxTables;
 
-    private BufferedReader bufferedReader;
-    private PrintWriter printWriter;
-    private Socket socket;
+    private volatile AdminClient client;
+    private volatile TableSchema requestedTable = null;
+    private TableSchema displayedTable = null;
+    private long displayedVersion = -1;
+    private String pagedTable = null;
+    private String pageSize = null;
+    private volatile boolean hasNextPage = true;
 
     /**
      * This is our Admin constructor. It consists of all GUI elements.
@@ -66,13 +75,24 @@ class Admin extends JFrame {
         tableData.setVisible(true);
         buttonConnect.addActionListener(e -> reconnectToServer());
         buttonExecute.addActionListener(e -> {
-            if (socket != null) {
+            if (client != null) {
                 switch (textFieldCommand.getText()) {
                     case "ADD" -> sendToServer(Commands.ADD);           // ADD
                     case "DELETE" -> sendToServer(Commands.DELETE);     // DELETE
                     case "EDIT" -> sendToServer(Commands.EDIT);         // EDIT
                     case "GET" -> sendToServer(Commands.GET);           // GET
-                    default -> adminSays("Invalid Command! Commands available: [ADD, DELETE, EDIT, GET].");
+                    case "PAGE" -> sendToServer(Commands.PAGE);         // PAGE
+                    case "NEXT" -> requestNextPage();                   // NEXT
+                    case "BATCH" -> sendBatch();                        // BATCH
+                    case "STATS" -> sendToServer(Commands.STATS);       // STATS
+                    case "SUBSCRIBE" -> sendToServer(Commands.SUBSCRIBE);       // SUBSCRIBE
+                    case "UNSUBSCRIBE" -> sendToServer(Commands.UNSUBSCRIBE);   // UNSUBSCRIBE
+                    case "QUERY" -> sendQuery();                        // QUERY
+                    case "STANDINGS" -> sendStandings();                // STANDINGS
+                    case "MARGINS" -> sendMargins(Commands.MARGINS);    // MARGINS
+                    case "ARBITRAGE" -> sendMargins(Commands.ARBITRAGE);    // ARBITRAGE
+                    default -> adminSays("Invalid Command! Commands available: " +
+                            "[ADD, DELETE, EDIT, GET, PAGE, NEXT, BATCH, STATS, SUBSCRIBE, UNSUBSCRIBE, QUERY, STANDINGS, MARGINS, ARBITRAGE].");
                 }
             } else adminSays("You must first connect to server!");
         });
@@ -89,8 +109,7 @@ class Admin extends JFrame {
      * @param command Command to be executed
      */
     private void sendToServer(Commands command) {
-        if (printWriter != null && bufferedReader != null) {
-
+        if (client != null) {
             parcel.setCommand(command);
             parcel.setTable(Objects.requireNonNull(comboBoxTables.getSelectedItem()).toString());
             boolean flag = true;
@@ -113,11 +132,36 @@ class Admin extends JFrame {
                 flag = verifyTextFields(true);
             }
 
+            // 3. read the page size from data field, it may be left empty
+            if (command == Commands.PAGE) {
+                String pageSize = textFieldData.getText().trim();
+                if (!pageSize.isEmpty()) {
+                    try {
+                        Integer.parseInt(pageSize);
+                        parcel.setData(pageSize);
+                    } catch (NumberFormatException e) {
+                        adminSays("Error. Page size in the data field isn't an integer");
+                        flag = false;
+                    }
+                }
+                pagedTable = parcel.getTable();
+                pageSize = parcel.getData();
+                hasNextPage = true;
+            }
+
+            // 4. read the optional 'column=value' filter of a subscription from select field
+            if (command == Commands.SUBSCRIBE && !textFieldSelect.getText().isBlank()) {
+                parcel.setSelect(textFieldSelect.getText().trim());
+            }
+            if (command == Commands.GET) {
+                requestedTable = TableSchema.fromName(parcel.getTable());
+            }
+
             // if verification is successful, send the data to the server
             if (flag) {
                 adminSays("Sending " + parcel + " to server.");
                 System.out.println(parcel);
-                printWriter.println(parcel);
+                writeParcel(parcel);
             }
 
             // reset the parcel
@@ -128,6 +172,208 @@ class Admin extends JFrame {
         }
     }
 
+    /**
+     * Ask for the page that follows the rows displayed.
+     * Function is executed when the 'NEXT' command is executed on the GUI.
+     */
+    private void requestNextPage() {
+        if (pagedTable == null || sqlTableModel.getRowCount() == 0) {
+            adminSays("Use PAGE first to start browsing a table.");
+            return;
+        }
+        if (!hasNextPage) {
+            adminSays("This is the last page.");
+            return;
+        }
+        Parcel next = new Parcel();
+        next.setCommand(Commands.PAGE);
+        next.setTable(pagedTable);
+        next.setData(pageSize);
+        next.setSelect(sqlTableModel.getValueAt(sqlTableModel.getRowCount() - 1, 0).toString());
+        adminSays("Sending " + next + " to server.");
+        writeParcel(next);
+    }
+
+    /**
+     * Send the query typed in the data field as a QUERY of the selected table, e.g.
+     * {@code Season = '2019/2020' AND HomeTeam|AwayTeam = 'Arsenal' ORDER BY Datetime LIMIT 50}
+     * Function is executed when the 'QUERY' command is executed on the GUI.
+     */
+    private void sendQuery() {
+        if (client == null) {
+            adminSays("You must connect to the server first!");
+            return;
+        }
+        Parcel query = new Parcel();
+        query.setCommand(Commands.QUERY);
+        query.setTable(Objects.requireNonNull(comboBoxTables.getSelectedItem()).toString());
+        try {
+            Query parsed = Query.parse(textFieldData.getText());
+            if (client.isBinary()) {
+                query.setQuery(parsed);
+            } else {
+                query.setData(parsed.toString());
+            }
+        } catch (IllegalArgumentException ex) {
+            adminSays("Error. " + ex.getMessage());
+            return;
+        }
+        pagedTable = null; // the rows of a query cannot be paged with NEXT
+        adminSays("Sending QUERY on '" + query.getTable() + "': " + textFieldData.getText());
+        writeParcel(query);
+    }
+
+    /**
+     * Ask for the standings of the league typed in the data field in the
+     * season typed in the select field, e.g. {@code Premier League} and {@code 2019/2020}.
+     * Function is executed when the 'STANDINGS' command is executed on the GUI.
+     */
+    private void sendStandings() {
+        if (client == null) {
+            adminSays("You must connect to the server first!");
+            return;
+        }
+        if (textFieldData.getText().isBlank() || textFieldSelect.getText().isBlank()) {
+            adminSays("Error. Type the league in the data field and the season in the select field");
+            return;
+        }
+        Parcel standings = new Parcel();
+        standings.setCommand(Commands.STANDINGS);
+        standings.setTable(TableSchema.MATCHES.getTableName());
+        standings.setData(textFieldData.getText().trim());
+        standings.setSelect(textFieldSelect.getText().trim());
+        adminSays("Sending STANDINGS of '" + standings.getData() + "' in " + standings.getSelect());
+        writeParcel(standings);
+    }
+
+    /**
+     * Ask for the best prices of the match whose ID is typed in the select
+     * field, or of every match if it is empty, or for the matches that can be
+     * backed at a profit.
+     * Function is executed when the 'MARGINS' or 'ARBITRAGE' command is executed on the GUI.
+     *
+     * @param command MARGINS or ARBITRAGE.
+     */
+    private void sendMargins(Commands command) {
+        if (client == null) {
+            adminSays("You must connect to the server first!");
+            return;
+        }
+        Parcel margins = new Parcel();
+        margins.setCommand(command);
+        margins.setTable(TableSchema.ODDS.getTableName());
+        margins.setSelect(command == Commands.MARGINS ? textFieldSelect.getText().trim() : "");
+        adminSays("Sending " + command + (margins.getSelect().isEmpty() ? "" : " of match " + margins.getSelect()));
+        writeParcel(margins);
+    }
+
+    /**
+     * Send the operations typed in the data field as one BATCH.
+     * Function is executed when the 'BATCH' command is executed on the GUI.
+     * <p>
+     * Operations are separated by semicolons and name their own table, e.g.
+     * {@code ADD odds 1,2,'1/2','3/1','5/1'; EDIT bookies 3 'Bet',null; DELETE odds LAST}
+     */
+    private void sendBatch() {
+        if (client == null) {
+            adminSays("You must connect to the server first!");
+            return;
+        }
+        if (!client.isBinary()) {
+            adminSays("The server does not support BATCH.");
+            return;
+        }
+        Parcel batch = new Parcel();
+        batch.setCommand(Commands.BATCH);
+        try {
+            batch.setBatch(parseBatch(textFieldData.getText()));
+        } catch (IllegalArgumentException e) {
+            adminSays("Error. " + e.getMessage());
+            return;
+        }
+        adminSays("Sending a BATCH of " + batch.getBatch().size() + " operations to server.");
+        writeParcel(batch);
+    }
+
+    /**
+     * Split the text of a batch into its operations. Semicolons inside quoted
+     * values do not separate operations.
+     *
+     * @param text  Operations separated by semicolons.
+     * @return      A parcel for every operation.
+     * @throws IllegalArgumentException If an operation is not ADD, EDIT or DELETE,
+     *                                  or is missing its table, row or data.
+     */
+    private static List<Parcel> parseBatch(String text) {
+        List<String> lines = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                lines.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        lines.add(text.substring(start));
+
+        List<Parcel> operations = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            String[] words = line.trim().split("\\s+", 3);
+            Parcel operation = new Parcel();
+            try {
+                operation.setCommand(Commands.valueOf(words[0]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown operation '" + words[0] + "' in the batch");
+            }
+            if (words.length < 3 || operation.getCommand() == Commands.DELETE && words.length != 3) {
+                throw new IllegalArgumentException("Operation '" + line.trim() + "' is incomplete");
+            }
+            operation.setTable(words[1]);
+            switch (operation.getCommand()) {
+                case ADD -> operation.setData(words[2]);
+                case DELETE -> operation.setSelect(words[2]);
+                case EDIT -> {
+                    String[] rest = words[2].split("\\s+", 2);
+                    if (rest.length != 2) {
+                        throw new IllegalArgumentException("Operation '" + line.trim() + "' is incomplete");
+                    }
+                    operation.setSelect(rest[0]);
+                    operation.setData(rest[1]);
+                }
+                default -> throw new IllegalArgumentException(
+                        operation.getCommand() + " cannot be part of a batch");
+            }
+            operations.add(operation);
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("The batch is empty");
+        }
+        return operations;
+    }
+
+    /**
+     * Send the parcel to the server. The reply is shown on the GUI once it arrives.
+     *
+     * @param parcel    Parcel to be sent.
+     * @return          A future completed with the reply of the server.
+     */
+    private CompletableFuture<String> writeParcel(Parcel parcel) {
+        AdminClient current = client;
+        if (current == null) {
+            adminSays("You must connect to the server first!");
+            return CompletableFuture.failedFuture(new IOException("Not connected"));
+        }
+        CompletableFuture<String> reply = current.send(parcel);
+        reply.whenComplete((message, ex) -> adminSays(ex == null
+                ? "Received \"" + message + "\" from server."
+                : "IOException " + ex.getCause()));
+        return reply;
+    }
+
     /**
      * Setup connection to the server on the loop back address and the same port
      * number as the Server is expecting.
@@ -136,94 +382,212 @@ class Admin extends JFrame {
         closeConnection();
         adminSays("Attempting connection to server");
         try {
-            socket = new Socket("127.0.0.1", 2000);
-            printWriter = new PrintWriter(socket.getOutputStream(), true);
-            bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            adminSays("Connected to server");
+            displayedTable = null;
+            client = AdminClient.connect("127.0.0.1", 2000, this);
+            adminNumber = client.getAdminNumber();
+            adminSays(client.isBinary() ? "Using the binary protocol" : "Using the text protocol");
         } catch (IOException ex) {
             Logger.getLogger(Admin.class.getName()).log(Level.SEVERE, null, ex);
             adminSays("Server not found"); // connection failed
         }
-        // notify that the connection is back
-        synchronized (waitObject) {
-            waitObject.notify();
+    }
+
+    /**
+     * @param message A message from the server that is not a reply to a request.
+     */
+    @Override
+    public void onMessage(String message) {
+        adminSays("Received \"" + message + "\" from server.");
+    }
+
+    /**
+     * @param datetime The time broadcast by the server.
+     */
+    @Override
+    public void onBroadcast(String datetime) {
+        labelDatetime.setText(datetime);
+    }
+
+    /**
+     * Display a whole table received from the server.
+     *
+     * @param schema    The table.
+     * @param version   Version of the table the rows were read at.
+     * @param rows      Rows of the table.
+     */
+    @Override
+    public void onTable(TableSchema schema, long version, List<TableRow> rows) {
+        if (schema != requestedTable) {
+            // a subscribed table Admin is too far behind on, not the one displayed
+            adminSays("'" + schema.getTableName() + "' has changed, it now has " + rows.size() + " rows.");
+            return;
         }
+        displayedTable = schema;
+        displayedVersion = version;
+        sqlTableModel.loadFromDatabase(toCells(rows), schema.getColumnNames());
+        tableData.setModel(sqlTableModel);
     }
 
     /**
-     * Keep reading for messages from the server and updating the GUI.
+     * @param table Whole table received in the text protocol.
      */
-    private void keepReadingFromServer() {
-        //noinspection InfiniteLoopStatement
-        while (true) {
-
-            // if we have lost connection then just pause this loop until we
-            // receive notification to start running again.
-            if (socket == null) {
-                adminSays("Waiting for connection to be reset...");
-                synchronized (waitObject) {
-                    try {
-                        waitObject.wait();
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(Admin.class.getName()).log(Level.SEVERE, null, ex);
-                    }
-                }
-            }
+    @Override
+    public void onTextTable(String table) {
+        System.out.println("Table: " + table);
+        readTableData(table);
+    }
 
-            String reply = null;
-            try {
-                reply = bufferedReader.readLine();
-            } catch (IOException ex) {
-                adminSays("IOException " + ex);
-            }
-            if (reply != null && reply.startsWith("You are client number")) {
-                adminNumber = Integer.parseInt(reply.substring(21));
-                adminSays(reply);
-            } else if (reply != null && reply.startsWith("SERVER_BROADCAST")) {
-                String datetime = reply.substring(17);
-                labelDatetime.setText(datetime);
-            } else if (reply != null && reply.startsWith("SQL_TABLE")) {
-                System.out.println("Table: " + reply.substring(10));
-                readTableData(reply.substring(10));
-            } else {
-                adminSays("Received \"" + reply + "\" from server.");
-            }
+    /**
+     * Apply a single row change to the displayed table.
+     * Changes are applied in version order; if one was missed the whole table is requested again.
+     *
+     * @param schema    The table.
+     * @param type      The kind of change.
+     * @param version   Version of the table after the change.
+     * @param id        ID of the changed row.
+     * @param row       The new row, null for a delete.
+     */
+    @Override
+    public void onDelta(TableSchema schema, ChangeType type, long version, int id, TableRow row) {
+        if (schema != requestedTable) {
+            adminSays("'" + schema.getTableName() + "' changed: " + type + " of row " + id
+                    + (row != null ? " " + row : "") + ".");
+            return;
         }
+        if (schema != displayedTable || version <= displayedVersion) {
+            return;
+        }
+        if (version > displayedVersion + 1) {
+            adminSays("Missed a change of '" + schema.getTableName() + "', reloading the table.");
+            Parcel reload = new Parcel();
+            reload.setCommand(Commands.GET);
+            reload.setTable(schema.getTableName());
+            writeParcel(reload);
+            displayedTable = null; // ignore further changes until the table arrives
+            return;
+        }
+        if (type == ChangeType.DELETE) {
+            sqlTableModel.deleteRow(String.valueOf(id));
+        } else {
+            sqlTableModel.upsertRow(row.toCells());
+        }
+        displayedVersion = version;
     }
 
     /**
-     * Read and extract the table data from the server.
+     * @param schema    The table.
+     * @param first     True for the first chunk of a page.
+     * @param rows      Rows of the chunk.
+     */
+    @Override
+    public void onPageChunk(TableSchema schema, boolean first, List<TableRow> rows) {
+        if (first) {
+            displayedTable = null; // a page is not kept up to date
+            sqlTableModel.loadFromDatabase(toCells(rows), schema.getColumnNames());
+            tableData.setModel(sqlTableModel);
+        } else {
+            sqlTableModel.appendRows(toCells(rows));
+        }
+    }
+
+    /**
+     * @param schema    The table.
+     * @param lastId    ID of the last row of the page.
+     * @param hasMore   True if there is another page.
+     */
+    @Override
+    public void onPageEnd(TableSchema schema, int lastId, boolean hasMore) {
+        hasNextPage = hasMore;
+    }
+
+    /**
+     * Display the standings of a league in the table.
      *
-     * @param table Whole table compressed to a single string.
+     * @param league    Name of the league.
+     * @param season    The season.
+     * @param rows      Lines of the teams, best first.
      */
-    private void readTableData(String table) {
-        String[] stringRead = table.split("},");
+    @Override
+    public void onStandings(String league, String season, List<StandingsRow> rows) {
+        displayedTable = null; // the standings are not kept up to date
+        pagedTable = null;
+        String[][] cells = new String[rows.size()][];
+        for (int i = 0; i < rows.size(); i++) {
+            cells[i] = rows.get(i).toCells();
+        }
+        sqlTableModel.loadFromDatabase(cells, StandingsRow.getColumnNames());
+        tableData.setModel(sqlTableModel);
+    }
 
-        // extracting columns headers
-        String[] columnTop = stringRead[0].split("\\{")[1].split("=");
-        String[] columnNames = new String[columnTop.length - 1];
-        for (int i = 1; i < columnTop.length - 1; i++) {
-            columnTop[i] = columnTop[i].split(", ")[1];
+    /**
+     * Display the best prices of matches in the table.
+     *
+     * @param total     Number of matches that were asked for.
+     * @param rows      Best prices of the matches sent, the lowest overround first.
+     */
+    @Override
+    public void onMargins(int total, List<MarginRow> rows) {
+        displayedTable = null; // the margins are not kept up to date
+        pagedTable = null;
+        String[][] cells = new String[rows.size()][];
+        for (int i = 0; i < rows.size(); i++) {
+            cells[i] = rows.get(i).toCells();
         }
-        System.arraycopy(columnTop, 0, columnNames, 0, columnTop.length - 1);
-
-        // extracting rows
-        String[][] data = new String[stringRead.length][columnNames.length];
-        for (int i = 0; i < stringRead.length; i++) {
-            String[] oneRow = stringRead[i].split("\\{")[1].split("=");
-            for (int j = 1; j < columnNames.length; j++) {
-                oneRow[j] = oneRow[j].split(", ")[0];
+        sqlTableModel.loadFromDatabase(cells, MarginRow.getColumnNames());
+        tableData.setModel(sqlTableModel);
+        adminSays("Received the prices of " + rows.size() + " of " + total + " matches");
+    }
+
+    /**
+     * Report the result of every operation of a batch.
+     *
+     * @param results Result of every operation, in order.
+     */
+    @Override
+    public void onBatchResult(List<AdminClient.OperationResult> results) {
+        StringBuilder failures = new StringBuilder();
+        int changed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            AdminClient.OperationResult result = results.get(i);
+            if (result.status() == OperationStatus.CHANGED) {
+                changed++;
+            } else if (result.status() == OperationStatus.FAILED) {
+                failures.append("\n#").append(i + 1).append(": ").append(result.error());
             }
-            System.arraycopy(oneRow, 1, data[i], 0, columnNames.length);
         }
+        adminSays("BATCH changed " + changed + " of " + results.size() + " rows" + failures);
+    }
+
+    /**
+     * Called once the connection to the server has been lost.
+     */
+    @Override
+    public void onClosed() {
+        adminSays("Server closed the connection");
+    }
+
+    /**
+     * @param rows  Rows received from the server.
+     * @return      Their cells, as the table model keeps them.
+     */
+    private static String[][] toCells(List<TableRow> rows) {
+        String[][] data = new String[rows.size()][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = rows.get(i).toCells();
+        }
+        return data;
+    }
 
-        // fixing the last element of the table
-        data[stringRead.length - 1][columnNames.length - 1] =
-                data[stringRead.length - 1][columnNames.length - 1].split("}")[0];
+    /**
+     * Read and extract the table data from the server.
+     *
+     * @param table Whole table compressed to a single string.
+     */
+    private void readTableData(String table) {
+        TextTable parsed = TextTable.parse(table);
 
         // updating the table
-        sqlTableModel.loadFromDatabase(data, columnNames);
+        sqlTableModel.loadFromDatabase(parsed.data(), parsed.columnNames());
         tableData.setModel(sqlTableModel);
     }
 
@@ -302,14 +666,13 @@ class Admin extends JFrame {
      * Close the connection to server.
      */
     private void closeConnection() {
-        if (socket != null) {
+        AdminClient current = client;
+        if (current != null) {
             adminSays("Closing connection");
             try {
-                socket.close();
-            } catch (IOException ex) {
-                Logger.getLogger(Admin.class.getName()).log(Level.SEVERE, null, ex);
+                current.close();
             } finally {
-                socket = null;
+                client = null;
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException ex) {
@@ -330,10 +693,10 @@ class Admin extends JFrame {
     }
 
     /**
-     * Our main method that initialises the Admin constructor and listens for information from the server.
+     * Our main method that initialises the Admin constructor.
+     * Messages from the server are read by the {@link AdminClient} once connected.
      */
     public static void main(String[] args) {
-        Admin admin = new Admin();
-        admin.keepReadingFromServer();
+        new Admin();
     }
 }
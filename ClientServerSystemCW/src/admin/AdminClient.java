@@ -0,0 +1,509 @@
+package admin;
+
+import both.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is a connection to the server without any GUI. It negotiates the
+ * protocol, sends parcels and reads everything the server sends on a thread
+ * of its own, handing it to a {@link Listener}.
+ * <p>
+ * In the binary protocol every parcel gets a request ID and a future that is
+ * completed by the reply carrying the same ID, so any number of requests can
+ * be in flight at once and their replies may arrive in any order. In the text
+ * protocol the replies arrive in order and complete the futures in turn.
+ * <p>
+ * The server may compress large frames if asked to in the handshake; they are
+ * inflated by the reading thread with one reused inflater.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class AdminClient implements Closeable {
+
+    /**
+     * Receives what the server sends besides the replies to requests.
+     * Every method is called on the reading thread of the client.
+     */
+    interface Listener {
+        /**
+         * @param message A message that is not a reply to a request of this client.
+         */
+        default void onMessage(String message) {
+        }
+
+        /**
+         * @param datetime The time broadcast by the server.
+         */
+        default void onBroadcast(String datetime) {
+        }
+
+        /**
+         * @param schema    The table.
+         * @param version   Version of the table the rows were read at.
+         * @param rows      Rows of the table.
+         */
+        default void onTable(TableSchema schema, long version, List<TableRow> rows) {
+        }
+
+        /**
+         * @param table Whole table received in the text protocol, compressed to a single string.
+         */
+        default void onTextTable(String table) {
+        }
+
+        /**
+         * @param schema    The table.
+         * @param type      The kind of change.
+         * @param version   Version of the table after the change.
+         * @param id        ID of the changed row.
+         * @param row       The new row, null for a delete.
+         */
+        default void onDelta(TableSchema schema, ChangeType type, long version, int id, TableRow row) {
+        }
+
+        /**
+         * @param schema    The table.
+         * @param first     True for the first chunk of a page.
+         * @param rows      Rows of the chunk.
+         */
+        default void onPageChunk(TableSchema schema, boolean first, List<TableRow> rows) {
+        }
+
+        /**
+         * @param schema    The table.
+         * @param lastId    ID of the last row of the page, -1 if it was empty.
+         * @param hasMore   True if there is another page.
+         */
+        default void onPageEnd(TableSchema schema, int lastId, boolean hasMore) {
+        }
+
+        /**
+         * @param results Result of every operation of a batch, in order.
+         */
+        default void onBatchResult(List<OperationResult> results) {
+        }
+
+        /**
+         * @param league    Name of the league.
+         * @param season    The season.
+         * @param rows      Lines of the teams, best first.
+         */
+        default void onStandings(String league, String season, List<StandingsRow> rows) {
+        }
+
+        /**
+         * @param total     Number of matches that were asked for.
+         * @param rows      Best prices of the matches sent, the lowest overround first.
+         */
+        default void onMargins(int total, List<MarginRow> rows) {
+        }
+
+        /**
+         * Called when an exported file starts to arrive. The file is written
+         * to the stream returned, which is closed once the file has arrived.
+         *
+         * @param schema    The table exported.
+         * @param format    Format of the file.
+         * @param length    Size of the file.
+         * @return          Where to write the file, or null to skip it.
+         * @throws IOException If the stream cannot be opened.
+         */
+        default OutputStream onExport(TableSchema schema, ExportFormat format, long length) throws IOException {
+            return null;
+        }
+
+        /**
+         * Called once the connection has been closed or lost.
+         */
+        default void onClosed() {
+        }
+    }
+
+    /**
+     * The result of a single operation of a batch.
+     *
+     * @param status    What the operation did.
+     * @param id        ID of the changed row, -1 if none.
+     * @param error     Why the operation failed, null if it did not.
+     */
+    record OperationResult(OperationStatus status, int id, String error) {
+    }
+
+    private final Socket socket;
+    private final FrameInputStream inputStream;
+    private final OutputStream outputStream;
+    private final Listener listener;
+    private final FrameEncoder encoder = new FrameEncoder(256);
+    private final int adminNumber;
+    private final boolean binaryProtocol;
+    private final FrameInflater inflater; // null unless the server compresses frames
+
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<String>> pendingRequests = new ConcurrentHashMap<>();
+    private final Queue<CompletableFuture<String>> pendingTextReplies = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    /**
+     * Connect to the server and ask for the binary protocol, with compressed
+     * frames unless the {@code admin.compression} property is false.
+     * Returns once the protocol has been agreed on, with the reading thread started.
+     *
+     * @param host          Host of the server.
+     * @param port          Port of the server.
+     * @param listener      Receiver of what the server sends.
+     * @return              The connected client.
+     * @throws IOException  If the server cannot be reached or closes the connection.
+     */
+    static AdminClient connect(String host, int port, Listener listener) throws IOException {
+        return connect(host, port, listener, Boolean.parseBoolean(System.getProperty("admin.compression", "true")));
+    }
+
+    /**
+     * Connect to the server and ask for the binary protocol.
+     * Returns once the protocol has been agreed on, with the reading thread started.
+     *
+     * @param host          Host of the server.
+     * @param port          Port of the server.
+     * @param listener      Receiver of what the server sends.
+     * @param compression   True to ask the server to compress large frames.
+     * @return              The connected client.
+     * @throws IOException  If the server cannot be reached or closes the connection.
+     */
+    static AdminClient connect(String host, int port, Listener listener, boolean compression) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            return new AdminClient(socket, listener, compression);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param socket        The connected socket.
+     * @param listener      Receiver of what the server sends.
+     * @param compression   True to ask the server to compress large frames.
+     * @throws IOException  If the handshake fails.
+     */
+    private AdminClient(Socket socket, Listener listener, boolean compression) throws IOException {
+        this.socket = socket;
+        this.listener = listener;
+        this.inputStream = new FrameInputStream(socket.getInputStream());
+        this.outputStream = socket.getOutputStream();
+
+        // ask for the binary protocol, the server answers before anything else is sent
+        String request = compression ? Protocol.compressedRequest() : Protocol.binaryRequest();
+        outputStream.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+
+        int number = 0;
+        String line;
+        while ((line = inputStream.readTextLine()) != null && !line.startsWith(Protocol.HANDSHAKE_PREFIX)) {
+            if (line.startsWith("You are client number")) {
+                number = Integer.parseInt(line.substring(21));
+            }
+            readLine(line);
+        }
+        if (line == null) {
+            throw new IOException("Server closed the connection during the handshake");
+        }
+        this.adminNumber = number;
+        this.binaryProtocol = line.equals(Protocol.binaryRequest()) || line.equals(Protocol.compressedRequest());
+        this.inflater = line.equals(Protocol.compressedRequest()) ? new FrameInflater() : null;
+
+        Thread reader = new Thread(this::keepReadingFromServer, "admin-reader-" + adminNumber);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return The number the server gave this client.
+     */
+    int getAdminNumber() {
+        return adminNumber;
+    }
+
+    /**
+     * @return True if the server agreed to the binary protocol.
+     */
+    boolean isBinary() {
+        return binaryProtocol;
+    }
+
+    /**
+     * @return True if the server agreed to compress large frames.
+     */
+    boolean isCompressed() {
+        return inflater != null;
+    }
+
+    /**
+     * @return Number of compressed bytes received, 0 if the server does not compress.
+     */
+    long getCompressedBytes() {
+        return inflater == null ? 0 : inflater.getBytesIn();
+    }
+
+    /**
+     * @return Number of bytes the compressed frames took once inflated.
+     */
+    long getInflatedBytes() {
+        return inflater == null ? 0 : inflater.getBytesOut();
+    }
+
+    /**
+     * @return Time spent inflating frames, in nanoseconds.
+     */
+    long getInflateNanos() {
+        return inflater == null ? 0 : inflater.getNanos();
+    }
+
+    /**
+     * Send a parcel to the server in the negotiated protocol.
+     *
+     * @param parcel    Parcel to be sent. In the binary protocol its request ID is set here.
+     * @return          A future completed with the reply of the server, or
+     *                  completed exceptionally if the connection is lost first.
+     */
+    CompletableFuture<String> send(Parcel parcel) {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        try {
+            synchronized (encoder) {
+                if (closed) {
+                    throw new IOException("Connection to server closed");
+                }
+                if (binaryProtocol) {
+                    int requestId;
+                    do {
+                        requestId = nextRequestId.incrementAndGet() & Integer.MAX_VALUE;
+                    } while (requestId == 0);
+                    parcel.setRequestId(requestId);
+                    pendingRequests.put(requestId, reply);
+                    ByteBuffer frame = parcel.packFrame(encoder);
+                    outputStream.write(frame.array(), frame.arrayOffset(), frame.limit());
+                } else {
+                    pendingTextReplies.add(reply);
+                    outputStream.write((parcel + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                outputStream.flush();
+            }
+        } catch (IOException ex) {
+            pendingRequests.remove(parcel.getRequestId());
+            pendingTextReplies.remove(reply);
+            reply.completeExceptionally(ex);
+        }
+        return reply;
+    }
+
+    /**
+     * Close the connection. Requests still waiting for a reply fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Logger.getLogger(AdminClient.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Keep reading for messages from the server until the connection is closed.
+     */
+    private void keepReadingFromServer() {
+        try {
+            while (true) {
+                if (binaryProtocol) {
+                    FrameDecoder frame = inputStream.readFrame();
+                    if (frame == null) break;
+                    if (frame.getType() == MessageType.COMPRESSED && inflater != null) {
+                        frame = inflater.inflate(frame);
+                    }
+                    readFrame(frame);
+                } else {
+                    String line = inputStream.readTextLine();
+                    if (line == null) break;
+                    readLine(line);
+                }
+            }
+        } catch (IOException ex) {
+            if (!closed) {
+                Logger.getLogger(AdminClient.class.getName()).log(Level.INFO, "Connection to server lost", ex);
+            }
+        } finally {
+            closed = true;
+            if (inflater != null) {
+                inflater.end();
+            }
+            failPendingRequests();
+            listener.onClosed();
+        }
+    }
+
+    /**
+     * Handle a single line of the text protocol received from the server.
+     *
+     * @param line The line.
+     */
+    private void readLine(String line) {
+        if (line.startsWith("SERVER_BROADCAST")) {
+            listener.onBroadcast(line.substring(18));
+        } else if (line.startsWith("SQL_TABLE")) {
+            listener.onTextTable(line.substring(10));
+        } else if (line.startsWith("You are client number") || line.startsWith(Protocol.HANDSHAKE_PREFIX)) {
+            listener.onMessage(line);
+        } else {
+            CompletableFuture<String> reply = pendingTextReplies.poll();
+            if (reply != null) {
+                reply.complete(line);
+            } else {
+                listener.onMessage(line);
+            }
+        }
+    }
+
+    /**
+     * Handle a single frame of the binary protocol received from the server.
+     *
+     * @param frame Decoder of the frame.
+     * @throws IOException If an exported file following the frame cannot be read or written.
+     */
+    private void readFrame(FrameDecoder frame) throws IOException {
+        switch (frame.getType()) {
+            case REPLY -> completeRequest(frame.getInt(), frame.getString());
+            case BROADCAST -> listener.onBroadcast(new Date(frame.getLong()).toString());
+            case TABLE -> {
+                TableSchema schema = TableSchema.fromCode(frame.getByte());
+                long version = frame.getLong();
+                listener.onTable(schema, version, readRows(schema, frame));
+            }
+            case DELTA -> {
+                TableSchema schema = TableSchema.fromCode(frame.getByte());
+                ChangeType type = ChangeType.values()[frame.getByte()];
+                long version = frame.getLong();
+                int id = frame.getInt();
+                TableRow row = type == ChangeType.DELETE ? null : schema.readRow(frame);
+                listener.onDelta(schema, type, version, id, row);
+            }
+            case PAGE_CHUNK -> {
+                TableSchema schema = TableSchema.fromCode(frame.getByte());
+                boolean first = frame.getByte() == 1;
+                listener.onPageChunk(schema, first, readRows(schema, frame));
+            }
+            case PAGE_END -> {
+                frame.getInt();
+                TableSchema schema = TableSchema.fromCode(frame.getByte());
+                int lastId = frame.getInt();
+                listener.onPageEnd(schema, lastId, frame.getByte() == 1);
+            }
+            case BATCH_RESULT -> {
+                frame.getInt();
+                int count = frame.getInt();
+                List<OperationResult> results = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    results.add(new OperationResult(OperationStatus.values()[frame.getByte()],
+                            frame.getInt(), frame.getString()));
+                }
+                listener.onBatchResult(results);
+            }
+            case STANDINGS -> {
+                frame.getInt();
+                String league = frame.getString();
+                String season = frame.getString();
+                frame.getLong();
+                int count = frame.getInt();
+                List<StandingsRow> rows = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    rows.add(StandingsRow.newFromFrame(frame));
+                }
+                listener.onStandings(league, season, rows);
+            }
+            case MARGINS -> {
+                frame.getInt();
+                frame.getLong();
+                int total = frame.getInt();
+                int count = frame.getInt();
+                List<MarginRow> rows = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    rows.add(MarginRow.newFromFrame(frame));
+                }
+                listener.onMargins(total, rows);
+            }
+            case EXPORT -> {
+                frame.getInt();
+                TableSchema schema = TableSchema.fromCode(frame.getByte());
+                ExportFormat format = ExportFormat.fromCode(frame.getByte());
+                long length = frame.getLong();
+                // the file follows the frame as it is, and has to be read off even if unwanted
+                OutputStream target = listener.onExport(schema, format, length);
+                try (OutputStream out = target != null ? target : OutputStream.nullOutputStream()) {
+                    inputStream.copyBytes(out, length);
+                }
+            }
+            default -> listener.onMessage("Received an unexpected " + frame.getType() + " frame from server.");
+        }
+    }
+
+    /**
+     * @param schema    The table.
+     * @param frame     Decoder positioned at the number of rows.
+     * @return          The rows that follow.
+     */
+    private static List<TableRow> readRows(TableSchema schema, FrameDecoder frame) {
+        int rowCount = frame.getInt();
+        List<TableRow> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(schema.readRow(frame));
+        }
+        return rows;
+    }
+
+    /**
+     * Complete the future of the request a reply belongs to.
+     *
+     * @param requestId ID of the request, 0 for a reply that is not tagged.
+     * @param message   The reply.
+     */
+    private void completeRequest(int requestId, String message) {
+        CompletableFuture<String> reply = requestId == 0 ? null : pendingRequests.remove(requestId);
+        if (reply != null) {
+            reply.complete(message);
+        } else {
+            listener.onMessage(message);
+        }
+    }
+
+    /**
+     * Fail the futures of all requests still waiting for a reply.
+     */
+    private void failPendingRequests() {
+        IOException lost = new IOException("Connection to server lost");
+        for (Integer requestId : pendingRequests.keySet()) {
+            CompletableFuture<String> reply = pendingRequests.remove(requestId);
+            if (reply != null) reply.completeExceptionally(lost);
+        }
+        CompletableFuture<String> reply;
+        while ((reply = pendingTextReplies.poll()) != null) {
+            reply.completeExceptionally(lost);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package admin;
+
+import both.Commands;
+import both.Parcel;
+import both.TableSchema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is a command line tool that asks the server to IMPORT CSV files,
+ * one after another, and prints what every import did.
+ * <p>
+ * The files are read by the server, from its import directory
+ * ({@code import.dir}), so they are named relative to it. The settings give
+ * the value of a column for every row of the files, like the season and the
+ * league a football-data file does not name.
+ * <p>
+ * Usage: {@code CsvImport [--host 127.0.0.1] [--port 2000] [--table football-match-data]
+ * [--set "Season=2019/2020, Country=England, League=Premier League"] E0.csv [more files]}
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class CsvImport {
+
+    private CsvImport() {
+    }
+
+    /**
+     * @param args Options, then the names of the files.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        String table = options.getOrDefault("table", TableSchema.MATCHES.getTableName());
+        if (files.isEmpty() || TableSchema.fromName(table) == null) {
+            System.err.println("Usage: CsvImport [--host 127.0.0.1] [--port 2000] [--table football-match-data]"
+                    + " [--set \"Season=2019/2020, League=Premier League\"] file.csv [more files]");
+            System.exit(1);
+        }
+
+        boolean failed = false;
+        try (AdminClient client = AdminClient.connect(options.getOrDefault("host", "127.0.0.1"),
+                Integer.parseInt(options.getOrDefault("port", "2000")), new AdminClient.Listener() {
+                })) {
+            for (String file : files) {
+                Parcel parcel = new Parcel();
+                parcel.setCommand(Commands.IMPORT);
+                parcel.setTable(table);
+                parcel.setData(file);
+                parcel.setSelect(options.getOrDefault("set", ""));
+                String reply = client.send(parcel).join();
+                System.out.println(reply);
+                failed |= reply.startsWith("Error");
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(CsvImport.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
@@ -0,0 +1,437 @@
+package admin;
+
+import both.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is a load generator that simulates many admins without any GUI.
+ * <p>
+ * Every connection sends its share of the target rate on a fixed schedule,
+ * without waiting for the replies, and the latency of a request is measured
+ * from the time it was due to be sent, so a slow server is not hidden by the
+ * generator falling behind. Every connection watches one table; a write
+ * carries a token in one of its text columns and the time until another
+ * connection receives the change carrying that token is its visibility latency.
+ * EDIT and DELETE only touch rows added by the generator itself.
+ * <p>
+ * Usage: {@code LoadGenerator [--host 127.0.0.1] [--port 2000] [--connections 8]
+ * [--rate 1000] [--duration 10] [--mix GET=70,ADD=10,EDIT=15,DELETE=5]
+ * [--tables odds,bookies,football-match-data] [--compression true]}
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class LoadGenerator {
+
+    private static final String TOKEN_PREFIX = "lg-";
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final double rate;
+    private final int duration;
+    private final boolean compression;
+    private final Commands[] mixCommands;
+    private final int[] mixWeights;
+    private final TableSchema[] tables;
+
+    private final Map<Commands, LatencyHistogram> latencies = new EnumMap<>(Commands.class);
+    private final LatencyHistogram visibility = new LatencyHistogram();
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final Map<TableSchema, List<Integer>> ownRows = new EnumMap<>(TableSchema.class);
+    private final AtomicLong nextToken = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * A write whose change has not yet been seen by another connection.
+     *
+     * @param sender    Number of the connection that sent it.
+     * @param dueNanos  Time the write was due to be sent.
+     */
+    private record PendingWrite(int sender, long dueNanos) {
+    }
+
+    /**
+     * @param options Options given on the command line.
+     * @throws IllegalArgumentException If an option is not valid.
+     */
+    private LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "127.0.0.1");
+        port = Integer.parseInt(options.getOrDefault("port", "2000"));
+        connections = Integer.parseInt(options.getOrDefault("connections", "8"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+        compression = Boolean.parseBoolean(options.getOrDefault("compression", "true"));
+        if (connections < 1 || rate <= 0 || duration < 1) {
+            throw new IllegalArgumentException("connections, rate and duration must be positive");
+        }
+
+        String[] mix = options.getOrDefault("mix", "GET=70,ADD=10,EDIT=15,DELETE=5").split(",");
+        mixCommands = new Commands[mix.length];
+        mixWeights = new int[mix.length];
+        int totalWeight = 0;
+        for (int i = 0; i < mix.length; i++) {
+            String[] entry = mix[i].split("=");
+            mixCommands[i] = Commands.valueOf(entry[0].trim());
+            if (mixCommands[i] != Commands.GET && mixCommands[i] != Commands.ADD
+                    && mixCommands[i] != Commands.EDIT && mixCommands[i] != Commands.DELETE) {
+                throw new IllegalArgumentException(mixCommands[i] + " cannot be part of the mix");
+            }
+            totalWeight += Integer.parseInt(entry[1].trim());
+            mixWeights[i] = totalWeight;
+        }
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("The mix has no weight");
+        }
+        for (Commands command : new Commands[]{Commands.GET, Commands.ADD, Commands.EDIT, Commands.DELETE}) {
+            latencies.put(command, new LatencyHistogram()); // EDIT and DELETE may turn into ADD
+        }
+
+        String[] names = options.getOrDefault("tables", "odds,bookies,football-match-data").split(",");
+        tables = new TableSchema[names.length];
+        for (int i = 0; i < names.length; i++) {
+            tables[i] = TableSchema.fromName(names[i].trim());
+            if (tables[i] == null) {
+                throw new IllegalArgumentException("Unknown table '" + names[i] + "'");
+            }
+            ownRows.put(tables[i], new ArrayList<>());
+        }
+    }
+
+    /**
+     * Open the connections, send requests for the given duration and print the results.
+     *
+     * @throws IOException          If a connection cannot be opened.
+     * @throws InterruptedException If interrupted while waiting for the connections.
+     */
+    private void run() throws IOException, InterruptedException {
+        List<Connection> opened = new ArrayList<>(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                opened.add(new Connection(i, tables[i % tables.length]));
+            }
+            System.out.printf("Sending %.0f requests/s over %d connections for %d s%n", rate, connections, duration);
+
+            long start = System.nanoTime();
+            List<Thread> senders = new ArrayList<>(connections);
+            for (Connection connection : opened) {
+                Thread sender = new Thread(() -> connection.keepSending(start), "load-" + connection.number);
+                sender.start();
+                senders.add(sender);
+            }
+
+            long lastCompleted = 0;
+            long lastErrors = 0;
+            for (int second = 1; second <= duration; second++) {
+                Thread.sleep(Math.max(0, (start + second * 1_000_000_000L - System.nanoTime()) / 1_000_000));
+                long nowCompleted = completed.get();
+                long nowErrors = errors.get();
+                System.out.printf("%3d s: %6d replies/s, %d errors, %d in flight%n", second,
+                        nowCompleted - lastCompleted, nowErrors - lastErrors, sent.get() - nowCompleted);
+                lastCompleted = nowCompleted;
+                lastErrors = nowErrors;
+            }
+            running = false;
+            for (Thread sender : senders) {
+                sender.join();
+            }
+
+            // give the last replies and changes a moment to arrive
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (completed.get() < sent.get() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            printResults(System.nanoTime() - start);
+            printCompression(opened);
+            System.out.println("\nServer metrics:\n" + opened.get(0).client.send(stats())
+                    .completeOnTimeout("no reply", 5, TimeUnit.SECONDS).join());
+        } finally {
+            for (Connection connection : opened) {
+                connection.client.close();
+            }
+        }
+    }
+
+    /**
+     * Print the throughput and the latency of every command and of the visibility of writes.
+     *
+     * @param elapsedNanos Time since the first request was due.
+     */
+    private void printResults(long elapsedNanos) {
+        System.out.printf("%nSent %d, completed %d, errors %d, throughput %.0f replies/s%n",
+                sent.get(), completed.get(), errors.get(), completed.get() * 1e9 / elapsedNanos);
+        for (Map.Entry<Commands, LatencyHistogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() == 0) continue;
+            System.out.printf("%-10s %s%n", entry.getKey(), entry.getValue().summary(1000, "us"));
+        }
+        System.out.printf("%-10s %s%n", "VISIBLE", visibility.summary(1000, "us"));
+        if (!pendingWrites.isEmpty()) {
+            System.out.println(pendingWrites.size() + " writes were not seen by another connection");
+        }
+    }
+
+    /**
+     * Print how much the compressed frames received by all connections saved.
+     *
+     * @param opened The connections.
+     */
+    private static void printCompression(List<Connection> opened) {
+        long compressed = 0;
+        long inflated = 0;
+        long nanos = 0;
+        for (Connection connection : opened) {
+            compressed += connection.client.getCompressedBytes();
+            inflated += connection.client.getInflatedBytes();
+            nanos += connection.client.getInflateNanos();
+        }
+        if (compressed > 0) {
+            System.out.printf("%-10s received %d B compressed for %d B of frames, ratio %.2f, inflating took %.1f ms%n",
+                    "COMPRESSED", compressed, inflated, (double) inflated / compressed, nanos / 1e6);
+        }
+    }
+
+    /**
+     * @return A parcel asking the server for its metrics.
+     */
+    private static Parcel stats() {
+        Parcel parcel = new Parcel();
+        parcel.setCommand(Commands.STATS);
+        return parcel;
+    }
+
+    /**
+     * @return A command picked at random according to the mix.
+     */
+    private Commands pickCommand() {
+        int pick = ThreadLocalRandom.current().nextInt(mixWeights[mixWeights.length - 1]);
+        int i = 0;
+        while (pick >= mixWeights[i]) i++;
+        return mixCommands[i];
+    }
+
+    /**
+     * @param schema    The table.
+     * @param remove    True if the row is about to be deleted, so no one else picks it.
+     * @return          ID of a row added by the generator, null if there is none.
+     */
+    private Integer pickOwnRow(TableSchema schema, boolean remove) {
+        List<Integer> rows = ownRows.get(schema);
+        synchronized (rows) {
+            if (rows.isEmpty()) return null;
+            int i = ThreadLocalRandom.current().nextInt(rows.size());
+            return remove ? rows.remove(i) : rows.get(i);
+        }
+    }
+
+    /**
+     * @param schema    The table.
+     * @param token     Token identifying the write.
+     * @return          Values of a row of the table carrying the token.
+     */
+    private static String rowData(TableSchema schema, String token) {
+        return switch (schema) {
+            case ODDS -> "1,1,'" + token + "','2/1','3/1'";
+            case BOOKIES -> "'" + token + "','www.example.com'";
+            case MATCHES -> "'2023/2024','2024-01-01 15:00:00','E0','England','Premier League','" + token
+                    + "','Arsenal','Chelsea',1,0,'H',0,0";
+        };
+    }
+
+    /**
+     * @param schema    The table.
+     * @param row       A row of the table.
+     * @return          The text column the generator puts its tokens in.
+     */
+    private static String tokenOf(TableSchema schema, TableRow row) {
+        String[] cells = row.toCells();
+        return switch (schema) {
+            case ODDS -> cells[3];
+            case BOOKIES -> cells[1];
+            case MATCHES -> cells[6];
+        };
+    }
+
+    /**
+     * A single simulated admin.
+     */
+    private class Connection implements AdminClient.Listener {
+
+        private final int number;
+        private final TableSchema watchedTable;
+        private final AdminClient client;
+
+        /**
+         * Connect and start watching a table.
+         *
+         * @param number        Number of the connection.
+         * @param watchedTable  Table to watch.
+         * @throws IOException  If the server cannot be reached.
+         */
+        Connection(int number, TableSchema watchedTable) throws IOException {
+            this.number = number;
+            this.watchedTable = watchedTable;
+            this.client = AdminClient.connect(host, port, this, compression);
+            if (!client.isBinary()) {
+                client.close();
+                throw new IOException("The server does not support the binary protocol");
+            }
+            client.send(get()).join();
+        }
+
+        /**
+         * Send this connection's share of the requests until the generator stops.
+         *
+         * @param start Time the first request is due.
+         */
+        void keepSending(long start) {
+            long interval = (long) (connections * 1e9 / rate);
+            long due = start + interval * number / connections; // spread the connections over an interval
+            while (running) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                send(pickCommand(), due);
+                due += interval;
+            }
+        }
+
+        /**
+         * Send a single request without waiting for the reply.
+         *
+         * @param command   The command.
+         * @param dueNanos  Time the request was due to be sent.
+         */
+        private void send(Commands command, long dueNanos) {
+            TableSchema schema = tables[ThreadLocalRandom.current().nextInt(tables.length)];
+            Parcel parcel = new Parcel();
+            parcel.setCommand(command);
+            parcel.setTable(schema.getTableName());
+            String token = null;
+
+            switch (command) {
+                case GET -> parcel = get();
+                case ADD -> {
+                    token = TOKEN_PREFIX + nextToken.incrementAndGet();
+                    parcel.setData(rowData(schema, token));
+                }
+                case EDIT, DELETE -> {
+                    Integer id = pickOwnRow(schema, command == Commands.DELETE);
+                    if (id == null) { // nothing of ours to change yet
+                        parcel.setCommand(Commands.ADD);
+                    } else {
+                        parcel.setSelect(String.valueOf(id));
+                    }
+                    if (parcel.getCommand() != Commands.DELETE) {
+                        token = TOKEN_PREFIX + nextToken.incrementAndGet();
+                        parcel.setData(rowData(schema, token));
+                    }
+                }
+                default -> throw new IllegalStateException(command + " cannot be part of the mix");
+            }
+            if (token != null) {
+                pendingWrites.put(token, new PendingWrite(number, dueNanos));
+            }
+
+            LatencyHistogram latency = latencies.get(parcel.getCommand());
+            sent.incrementAndGet();
+            client.send(parcel).whenComplete((reply, ex) -> {
+                latency.record(System.nanoTime() - dueNanos);
+                if (ex != null || reply.startsWith("Error")) {
+                    errors.incrementAndGet();
+                }
+                completed.incrementAndGet();
+            });
+        }
+
+        /**
+         * @return A GET of the watched table; asking for another table would stop watching this one.
+         */
+        private Parcel get() {
+            Parcel parcel = new Parcel();
+            parcel.setCommand(Commands.GET);
+            parcel.setTable(watchedTable.getTableName());
+            return parcel;
+        }
+
+        /**
+         * Remember the rows added by the generator and time writes seen by another connection.
+         */
+        @Override
+        public void onDelta(TableSchema schema, ChangeType type, long version, int id, TableRow row) {
+            if (type == ChangeType.DELETE) {
+                return;
+            }
+            String token = tokenOf(schema, row);
+            if (token == null || !token.startsWith(TOKEN_PREFIX)) {
+                return;
+            }
+            if (type == ChangeType.INSERT && number < tables.length) {
+                // the first connection watching a table keeps track of the rows added to it
+                List<Integer> rows = ownRows.get(schema);
+                synchronized (rows) {
+                    rows.add(id);
+                }
+            }
+            PendingWrite write = pendingWrites.get(token);
+            if (write != null && write.sender() != number && pendingWrites.remove(token, write)) {
+                visibility.record(System.nanoTime() - write.dueNanos());
+            }
+        }
+
+        /**
+         * Report a lost connection unless the generator is done.
+         */
+        @Override
+        public void onClosed() {
+            if (running) {
+                Logger.getLogger(LoadGenerator.class.getName()).log(Level.WARNING,
+                        "Connection {0} closed by the server", number);
+            }
+        }
+    }
+
+    /**
+     * Our main method that reads the options and runs the generator.
+     *
+     * @param args Options as pairs of '--name value'.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Unexpected argument '" + args[i] + "'");
+                System.exit(1);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        try {
+            new LoadGenerator(options).run();
+        } catch (IllegalArgumentException ex) {
+            System.err.println("Error. " + ex.getMessage());
+            System.exit(1);
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(LoadGenerator.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -29,6 +29,59 @@ class MyTableModel extends AbstractTableModel {
         fireTableDataChanged();
     }
 
+    /**
+     * Add rows below the ones already displayed.
+     *
+     * @param data Rows to be added.
+     */
+    protected void appendRows(String[][] data) {
+        if (data.length == 0) return;
+        int firstRow = fData.size();
+        this.fData.addAll(Arrays.asList(data));
+        fireTableRowsInserted(firstRow, fData.size() - 1);
+    }
+
+    /**
+     * Insert a row, or replace the row with the same ID.
+     * New rows go to the top, as the tables are sorted by descending ID.
+     *
+     * @param row Values of the row, the ID first.
+     */
+    protected void upsertRow(String[] row) {
+        int index = indexOf(row[0]);
+        if (index >= 0) {
+            fData.set(index, row);
+            fireTableRowsUpdated(index, index);
+        } else {
+            fData.add(0, row);
+            fireTableRowsInserted(0, 0);
+        }
+    }
+
+    /**
+     * Remove the row with the given ID, if it is displayed.
+     *
+     * @param id ID of the row.
+     */
+    protected void deleteRow(String id) {
+        int index = indexOf(id);
+        if (index >= 0) {
+            fData.remove(index);
+            fireTableRowsDeleted(index, index);
+        }
+    }
+
+    /**
+     * @param id    ID of a row.
+     * @return      Index of the row with the ID, or -1 if it is not displayed.
+     */
+    private int indexOf(String id) {
+        for (int i = 0; i < fData.size(); i++) {
+            if (fData.get(i)[0].equals(id)) return i;
+        }
+        return -1;
+    }
+
     /**
      * @return Number of rows in the table.
      */
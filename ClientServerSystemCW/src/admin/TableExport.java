@@ -0,0 +1,84 @@
+package admin;
+
+import both.Commands;
+import both.ExportFormat;
+import both.Parcel;
+import both.TableSchema;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is a command line tool that asks the server to EXPORT tables and
+ * downloads the files, one after another, printing what every export did.
+ * <p>
+ * Every table is written to {@code <table>.csv} or {@code <table>.bin} in the
+ * directory given. A CSV file can be given back to {@link CsvImport}.
+ * <p>
+ * Usage: {@code TableExport [--host 127.0.0.1] [--port 2000] [--format csv|binary] [--dir .]
+ * football-match-data [more tables]}
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class TableExport {
+
+    private TableExport() {
+    }
+
+    /**
+     * @param args Options, then the names of the tables.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        List<String> tables = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                tables.add(args[i]);
+            }
+        }
+        if (tables.isEmpty() || tables.stream().anyMatch(table -> TableSchema.fromName(table) == null)) {
+            System.err.println("Usage: TableExport [--host 127.0.0.1] [--port 2000] [--format csv|binary] [--dir .]"
+                    + " football-match-data [more tables]");
+            System.exit(1);
+        }
+        Path dir = Path.of(options.getOrDefault("dir", "."));
+
+        boolean failed = false;
+        try (AdminClient client = AdminClient.connect(options.getOrDefault("host", "127.0.0.1"),
+                Integer.parseInt(options.getOrDefault("port", "2000")), new AdminClient.Listener() {
+                    @Override
+                    public OutputStream onExport(TableSchema schema, ExportFormat format, long length)
+                            throws IOException {
+                        Files.createDirectories(dir);
+                        return new BufferedOutputStream(Files.newOutputStream(
+                                dir.resolve(schema.getTableName() + "." + format.getExtension())), 64 * 1024);
+                    }
+                })) {
+            for (String table : tables) {
+                Parcel parcel = new Parcel();
+                parcel.setCommand(Commands.EXPORT);
+                parcel.setTable(table);
+                parcel.setData(options.getOrDefault("format", "csv"));
+                parcel.setSelect("download");
+                String reply = client.send(parcel).join();
+                System.out.println(reply);
+                failed |= reply.startsWith("Error");
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TableExport.class.getName()).log(Level.SEVERE, null, ex);
+            System.exit(1);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
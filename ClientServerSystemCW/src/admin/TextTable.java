@@ -0,0 +1,44 @@
+package admin;
+
+/**
+ * This class holds a table received in the text protocol, split into
+ * its column names and rows ready for {@link MyTableModel}.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+record TextTable(String[] columnNames, String[][] data) {
+
+    /**
+     * Extract the column names and the rows from a table sent by the server.
+     *
+     * @param table Whole table compressed to a single string.
+     * @return      The extracted table.
+     */
+    static TextTable parse(String table) {
+        String[] stringRead = table.split("},");
+
+        // extracting columns headers
+        String[] columnTop = stringRead[0].split("\\{")[1].split("=");
+        String[] columnNames = new String[columnTop.length - 1];
+        for (int i = 1; i < columnTop.length - 1; i++) {
+            columnTop[i] = columnTop[i].split(", ")[1];
+        }
+        System.arraycopy(columnTop, 0, columnNames, 0, columnTop.length - 1);
+
+        // extracting rows
+        String[][] data = new String[stringRead.length][columnNames.length];
+        for (int i = 0; i < stringRead.length; i++) {
+            String[] oneRow = stringRead[i].split("\\{")[1].split("=");
+            for (int j = 1; j < columnNames.length; j++) {
+                oneRow[j] = oneRow[j].split(", ")[0];
+            }
+            System.arraycopy(oneRow, 1, data[i], 0, columnNames.length);
+        }
+
+        // fixing the last element of the table
+        data[stringRead.length - 1][columnNames.length - 1] =
+                data[stringRead.length - 1][columnNames.length - 1].split("}")[0];
+
+        return new TextTable(columnNames, data);
+    }
+}
@@ -9,7 +9,7 @@ import java.sql.SQLException;
  *
  * @author Maksymilian Ćwirzeń
  */
-public record BookiesTable(int bookie_id, String name, String website) implements Serializable {
+public record BookiesTable(int bookie_id, String name, String website) implements Serializable, TableRow {
 
     /**
      * This function updates the current table data with the results
@@ -26,6 +26,19 @@ public record BookiesTable(int bookie_id, String name, String website) implement
                 resultSet.getString(3));
     }
 
+    /**
+     * This function reads a row sent in a frame of the binary protocol.
+     *
+     * @param decoder   Decoder positioned at the row.
+     * @return          The decoded row.
+     */
+    public static BookiesTable newBookiesFromFrame(FrameDecoder decoder) {
+        return new BookiesTable(
+                decoder.getInt(),
+                decoder.getString(),
+                decoder.getString());
+    }
+
     /**
      * @return Headers of the editable columns.
      */
@@ -47,6 +60,34 @@ public record BookiesTable(int bookie_id, String name, String website) implement
         return "bookie_id";
     }
 
+    /**
+     * @return The ID of the row.
+     */
+    @Override
+    public int id() {
+        return bookie_id;
+    }
+
+    /**
+     * Write the row into a frame of the binary protocol.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    @Override
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(bookie_id)
+                .putString(name)
+                .putString(website);
+    }
+
+    /**
+     * @return All values of the row as they are displayed in a table.
+     */
+    @Override
+    public String[] toCells() {
+        return new String[]{String.valueOf(bookie_id), name, website};
+    }
+
     /**
      * This is an overridden method from the Serializable interface.
      * It compresses the table to a single string.
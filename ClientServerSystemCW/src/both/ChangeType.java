@@ -0,0 +1,13 @@
+package both;
+
+/**
+ * This enum contains the kinds of row changes the server
+ * broadcasts after a write.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum ChangeType {
+    INSERT,
+    UPDATE,
+    DELETE
+}
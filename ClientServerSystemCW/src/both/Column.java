@@ -0,0 +1,11 @@
+package both;
+
+/**
+ * This class describes a single editable column of a database table.
+ *
+ * @param name  Name of the column in the database.
+ * @param type  SQLite type of the column.
+ * @author Maksymilian Ćwirzeń
+ */
+public record Column(String name, ColumnType type) {
+}
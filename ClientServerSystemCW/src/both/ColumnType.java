@@ -0,0 +1,12 @@
+package both;
+
+/**
+ * This enum contains the SQLite types of the editable columns.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum ColumnType {
+    INTEGER,
+    TEXT,
+    REAL
+}
@@ -10,5 +10,16 @@ public enum Commands {
     ADD,
     DELETE,
     EDIT,
-    GET
+    GET,
+    PAGE,
+    BATCH,
+    STATS,
+    SUBSCRIBE,
+    UNSUBSCRIBE,
+    QUERY,
+    STANDINGS,
+    MARGINS,
+    ARBITRAGE,
+    IMPORT,
+    EXPORT
 }
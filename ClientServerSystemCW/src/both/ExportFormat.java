@@ -0,0 +1,66 @@
+package both;
+
+import java.util.Locale;
+
+/**
+ * This enum lists the formats a table can be exported in, see the EXPORT command.
+ * <p>
+ * CSV has a first line naming the columns as the database does, so an export
+ * can be imported again. BINARY is the table as a PAGE of the binary protocol
+ * sends it: PAGE_CHUNK frames of rows ended by a PAGE_END frame, which
+ * {@link FrameInputStream} reads back.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum ExportFormat {
+    CSV("csv"),
+    BINARY("bin");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return Extension of the files written in this format.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return The byte identifying the format on the wire.
+     */
+    public byte getCode() {
+        return (byte) ordinal();
+    }
+
+    /**
+     * @param code  The byte read from the wire.
+     * @return      The matching format.
+     * @throws IllegalArgumentException If the code is unknown.
+     */
+    public static ExportFormat fromCode(byte code) {
+        if (code < 0 || code >= values().length) {
+            throw new IllegalArgumentException("Unknown export format " + code);
+        }
+        return values()[code];
+    }
+
+    /**
+     * @param name  Name of the format in any case, null or empty for CSV.
+     * @return      The matching format.
+     * @throws IllegalArgumentException If there is none.
+     */
+    public static ExportFormat fromName(String name) {
+        if (name == null || name.isBlank()) {
+            return CSV;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("no export format '" + name.trim() + "', use csv or binary");
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package both;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads the fields of a single frame of the binary protocol.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class FrameDecoder {
+
+    private final ByteBuffer buffer;
+    private final MessageType type;
+
+    /**
+     * @param frame Frame without its length prefix, starting at the message type.
+     */
+    public FrameDecoder(ByteBuffer frame) {
+        this.buffer = frame;
+        this.type = MessageType.fromCode(frame.get());
+    }
+
+    /**
+     * @return Type of the message in the frame.
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * @return The next byte of the frame.
+     */
+    public byte getByte() {
+        return buffer.get();
+    }
+
+    /**
+     * @return The next integer of the frame.
+     */
+    public int getInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * @return The next long of the frame.
+     */
+    public long getLong() {
+        return buffer.getLong();
+    }
+
+    /**
+     * @return The rest of the frame, which is skipped.
+     */
+    public ByteBuffer getRemaining() {
+        ByteBuffer rest = buffer.slice();
+        buffer.position(buffer.limit());
+        return rest;
+    }
+
+    /**
+     * @return The next string of the frame, or null if a null was written.
+     * @throws BufferUnderflowException If the string is longer than what is left of the frame.
+     */
+    public String getString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            // the array behind the frame may be longer than the frame
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,86 @@
+package both;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses frames of the binary protocol into COMPRESSED frames:
+ * <pre>
+ *     int  length of everything that follows
+ *     byte {@link MessageType#COMPRESSED} code
+ *     int  length of the original frame, without its length prefix
+ *     ...  the original frame, from its message type on, deflated
+ * </pre>
+ * Frames shorter than the threshold, or that do not get any smaller, are
+ * left as they are. One deflater is reused for every frame; it is only used
+ * by one thread at a time, so the threads writing to a connection can share it.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class FrameDeflater {
+
+    private final Deflater deflater;
+    private final int threshold;
+    private byte[] output = new byte[1024];
+    private boolean ended = false;
+
+    /**
+     * @param level     Compression level of {@link Deflater}, 0 to 9.
+     * @param threshold Frames shorter than this number of bytes are not compressed.
+     */
+    public FrameDeflater(int level, int threshold) {
+        this.deflater = new Deflater(level);
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param frame A whole frame, with its length prefix.
+     * @return      True if the frame is long enough to be compressed.
+     */
+    public boolean isWorthCompressing(ByteBuffer frame) {
+        return frame.remaining() >= threshold;
+    }
+
+    /**
+     * Compress a frame if it is long enough and gets smaller.
+     *
+     * @param frame A whole frame, with its length prefix. Its position is not changed.
+     * @return      A new COMPRESSED frame, or the frame itself if it is not compressed.
+     */
+    public synchronized ByteBuffer deflate(ByteBuffer frame) {
+        if (ended || !isWorthCompressing(frame)) {
+            return frame;
+        }
+        ByteBuffer input = frame.duplicate();
+        input.position(input.position() + 4);
+        int originalLength = input.remaining();
+
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        int length = 9; // length prefix, message type and original length
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+            if (length >= originalLength + 4) {
+                // does not get any smaller, send it as it is
+                return frame;
+            }
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(length);
+        compressed.putInt(length - 4).put(MessageType.COMPRESSED.getCode()).putInt(originalLength)
+                .put(output, 9, length - 9).flip();
+        return compressed;
+    }
+
+    /**
+     * Release the native memory of the deflater. Frames are no longer compressed afterwards.
+     */
+    public synchronized void end() {
+        ended = true;
+        deflater.end();
+    }
+}
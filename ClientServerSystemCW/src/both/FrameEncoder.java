@@ -0,0 +1,122 @@
+package both;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class builds frames of the binary protocol in a single reusable buffer.
+ * <p>
+ * The buffer only grows, so once it has reached the size of the largest
+ * frame a connection sends, encoding allocates nothing. An encoder is not
+ * thread safe and the buffer returned by {@link #finish()} is only valid
+ * until the next frame is started.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class FrameEncoder {
+
+    private final CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer buffer;
+
+    /**
+     * @param initialCapacity Size of the buffer before it has to grow.
+     */
+    public FrameEncoder(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * Start a new frame, discarding the previous one.
+     *
+     * @param type  Type of the message.
+     * @return      This encoder.
+     */
+    public FrameEncoder begin(MessageType type) {
+        buffer.clear();
+        buffer.putInt(0); // length, filled in by finish()
+        buffer.put(type.getCode());
+        return this;
+    }
+
+    /**
+     * @param value Byte to append.
+     * @return      This encoder.
+     */
+    public FrameEncoder putByte(byte value) {
+        ensureCapacity(1);
+        buffer.put(value);
+        return this;
+    }
+
+    /**
+     * @param value Integer to append.
+     * @return      This encoder.
+     */
+    public FrameEncoder putInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    /**
+     * @param value Long to append.
+     * @return      This encoder.
+     */
+    public FrameEncoder putLong(long value) {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    /**
+     * Append a string as its UTF-8 length followed by the UTF-8 bytes.
+     * A null string is written as the length -1.
+     *
+     * @param value String to append, may be null.
+     * @return      This encoder.
+     */
+    public FrameEncoder putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+        ensureCapacity(4 + value.length() * 3);
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        utf8.reset();
+        utf8.encode(CharBuffer.wrap(value), buffer, true);
+        utf8.flush(buffer);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+        return this;
+    }
+
+    /**
+     * Complete the frame by writing its length.
+     *
+     * @return The whole frame, ready to be written. It is backed by the reusable buffer.
+     */
+    public ByteBuffer finish() {
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Make sure the buffer has room for a number of bytes, growing it if needed.
+     *
+     * @param bytes Number of bytes about to be written.
+     */
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
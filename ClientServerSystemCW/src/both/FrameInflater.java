@@ -0,0 +1,92 @@
+package both;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * This class restores the frames compressed by a {@link FrameDeflater}.
+ * <p>
+ * One inflater and one buffer are reused for every frame, so the decoder
+ * returned is only valid until the next frame is inflated and a
+ * FrameInflater is not thread safe.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class FrameInflater {
+
+    private final Inflater inflater = new Inflater();
+    private byte[] output = new byte[1024];
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long nanos = 0;
+
+    /**
+     * @param frame         Decoder of a COMPRESSED frame, positioned right after its message type.
+     * @return              Decoder of the original frame.
+     * @throws IOException  If the frame is too long or not valid deflated data.
+     */
+    public FrameDecoder inflate(FrameDecoder frame) throws IOException {
+        long start = System.nanoTime();
+        int length = frame.getInt();
+        if (length <= 0 || length > Protocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid compressed frame length " + length);
+        }
+        if (output.length < length) {
+            output = new byte[Math.max(length, output.length * 2)];
+        }
+        ByteBuffer input = frame.getRemaining();
+        int compressedLength = input.remaining();
+        inflater.reset();
+        inflater.setInput(input);
+        int inflated = 0;
+        try {
+            while (inflated < length && !inflater.finished()) {
+                int n = inflater.inflate(output, inflated, length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Invalid compressed frame", ex);
+        }
+        if (inflated != length || !inflater.finished()) {
+            throw new IOException("Compressed frame inflated to " + inflated + " bytes instead of " + length);
+        }
+        bytesIn += compressedLength + 9;
+        bytesOut += length + 4;
+        nanos += System.nanoTime() - start;
+        return new FrameDecoder(ByteBuffer.wrap(output, 0, length));
+    }
+
+    /**
+     * @return Number of bytes of the compressed frames received so far.
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return Number of bytes the frames took once inflated.
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return Time spent inflating, in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Release the native memory of the inflater. It cannot be used afterwards.
+     */
+    public void end() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,89 @@
+package both;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This is a blocking input stream that understands both protocols:
+ * it can read lines of the text protocol and frames of the binary one
+ * from the same connection, so the switch after the handshake is safe.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class FrameInputStream extends DataInputStream {
+
+    private byte[] frame = new byte[1024];
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+    /**
+     * @param in The raw input stream of the socket.
+     */
+    public FrameInputStream(InputStream in) {
+        super(new BufferedInputStream(in));
+    }
+
+    /**
+     * Read a single line of the text protocol.
+     *
+     * @return              The line without its terminator, or null at the end of the stream.
+     * @throws IOException  If the connection is broken.
+     */
+    public String readTextLine() throws IOException {
+        line.reset();
+        int b;
+        while ((b = read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Read a single frame of the binary protocol.
+     * The bytes are read into a reused array, so the decoder is
+     * only valid until the next frame is read.
+     *
+     * @return              Decoder of the frame, or null at the end of the stream.
+     * @throws IOException  If the connection is broken or the frame is too long.
+     */
+    public FrameDecoder readFrame() throws IOException {
+        int length;
+        try {
+            length = readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        if (length <= 0 || length > Protocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        if (frame.length < length) {
+            frame = new byte[Math.max(length, frame.length * 2)];
+        }
+        readFully(frame, 0, length);
+        return new FrameDecoder(ByteBuffer.wrap(frame, 0, length));
+    }
+
+    /**
+     * Copy bytes that follow a frame as they are, like the file sent after
+     * an EXPORT frame, through the reused array of the frames.
+     *
+     * @param target        Receiver of the bytes.
+     * @param count         Number of bytes to copy.
+     * @throws IOException  If the connection is broken or ends first, or the target cannot be written.
+     */
+    public void copyBytes(OutputStream target, long count) throws IOException {
+        long left = count;
+        while (left > 0) {
+            int read = read(frame, 0, (int) Math.min(frame.length, left));
+            if (read < 0) {
+                throw new EOFException(left + " of " + count + " bytes missing");
+            }
+            target.write(frame, 0, read);
+            left -= read;
+        }
+    }
+}
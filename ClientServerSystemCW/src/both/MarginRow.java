@@ -0,0 +1,111 @@
+package both;
+
+import java.util.Locale;
+
+/**
+ * This class represents the best prices of one match across all bookies
+ * that price it, with the overround of a book made of those prices.
+ * <p>
+ * Prices are decimal odds, the stake included, so fractional odds of 4/9
+ * are a price of 1.44. The overround is the sum of the chances the best
+ * prices imply, 1 / price for each outcome; below 1 a stake split across the
+ * three outcomes wins whatever the result, which is an arbitrage.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public record MarginRow(int matchId, String fixture, int bookies, double homePrice, String homeBookie,
+                        double drawPrice, String drawBookie, double awayPrice, String awayBookie,
+                        double overround) {
+
+    private static final String[] COLUMN_NAMES = {"Match", "Fixture", "Books", "Home", "Bookie", "Draw", "Bookie",
+            "Away", "Bookie", "Overround %", "Arbitrage %"};
+
+    /**
+     * This function reads a row sent in a MARGINS frame of the binary protocol.
+     *
+     * @param decoder   Decoder positioned at the row.
+     * @return          The decoded row.
+     */
+    public static MarginRow newFromFrame(FrameDecoder decoder) {
+        return new MarginRow(
+                decoder.getInt(),
+                decoder.getString(),
+                decoder.getInt(),
+                Double.longBitsToDouble(decoder.getLong()),
+                decoder.getString(),
+                Double.longBitsToDouble(decoder.getLong()),
+                decoder.getString(),
+                Double.longBitsToDouble(decoder.getLong()),
+                decoder.getString(),
+                Double.longBitsToDouble(decoder.getLong()));
+    }
+
+    /**
+     * @return Names of the columns of the margins, as displayed in a table.
+     */
+    public static String[] getColumnNames() {
+        return COLUMN_NAMES.clone();
+    }
+
+    /**
+     * @return True if backing every outcome at its best price wins whatever the result.
+     */
+    public boolean isArbitrage() {
+        return overround < 1;
+    }
+
+    /**
+     * @return Profit on the total stake of an arbitrage, negative if there is none.
+     */
+    public double profit() {
+        return 1 / overround - 1;
+    }
+
+    /**
+     * Write the row into a MARGINS frame of the binary protocol.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(matchId)
+                .putString(fixture)
+                .putInt(bookies)
+                .putLong(Double.doubleToLongBits(homePrice))
+                .putString(homeBookie)
+                .putLong(Double.doubleToLongBits(drawPrice))
+                .putString(drawBookie)
+                .putLong(Double.doubleToLongBits(awayPrice))
+                .putString(awayBookie)
+                .putLong(Double.doubleToLongBits(overround));
+    }
+
+    /**
+     * @return All values of the row as they are displayed in a table.
+     */
+    public String[] toCells() {
+        return new String[]{String.valueOf(matchId), fixture, String.valueOf(bookies), format(homePrice), homeBookie,
+                format(drawPrice), drawBookie, format(awayPrice), awayBookie, format(overround * 100),
+                isArbitrage() ? format(profit() * 100) : ""};
+    }
+
+    /**
+     * @return The row as it is sent in the text protocol.
+     */
+    @Override
+    public String toString() {
+        return "Match " + matchId + (fixture.isEmpty() ? "" : " " + fixture)
+                + ": home " + format(homePrice) + " (" + homeBookie + ")"
+                + " draw " + format(drawPrice) + " (" + drawBookie + ")"
+                + " away " + format(awayPrice) + " (" + awayBookie + ")"
+                + ", " + bookies + " books, overround " + format(overround * 100) + "%"
+                + (isArbitrage() ? ", arbitrage " + format(profit() * 100) + "%" : "");
+    }
+
+    /**
+     * @param value A price or a percentage.
+     * @return      The value with two decimals.
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -13,7 +13,7 @@ public record MatchTable(int match_id, String season, String datetime, String di
                          String country, String league, String referee,
                          String home_team, String away_team, int full_time_home_goals,
                          int full_time_away_goals, String full_time_result, int half_time_home_goals,
-                         int half_time_away_goals) implements Serializable {
+                         int half_time_away_goals) implements Serializable, TableRow {
 
     /**
      * This function updates the current table data with the results
@@ -41,6 +41,30 @@ public record MatchTable(int match_id, String season, String datetime, String di
                 resultSet.getInt(14));
     }
 
+    /**
+     * This function reads a row sent in a frame of the binary protocol.
+     *
+     * @param decoder   Decoder positioned at the row.
+     * @return          The decoded row.
+     */
+    public static MatchTable newMatchFromFrame(FrameDecoder decoder) {
+        return new MatchTable(
+                decoder.getInt(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getString(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getString(),
+                decoder.getInt(),
+                decoder.getInt());
+    }
+
     /**
      * @return Headers of the editable columns.
      */
@@ -62,6 +86,48 @@ public record MatchTable(int match_id, String season, String datetime, String di
         return "match_id";
     }
 
+    /**
+     * @return The ID of the row.
+     */
+    @Override
+    public int id() {
+        return match_id;
+    }
+
+    /**
+     * Write the row into a frame of the binary protocol.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    @Override
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(match_id)
+                .putString(season)
+                .putString(datetime)
+                .putString(division)
+                .putString(country)
+                .putString(league)
+                .putString(referee)
+                .putString(home_team)
+                .putString(away_team)
+                .putInt(full_time_home_goals)
+                .putInt(full_time_away_goals)
+                .putString(full_time_result)
+                .putInt(half_time_home_goals)
+                .putInt(half_time_away_goals);
+    }
+
+    /**
+     * @return All values of the row as they are displayed in a table.
+     */
+    @Override
+    public String[] toCells() {
+        return new String[]{String.valueOf(match_id), season, datetime, division, country, league, referee,
+                home_team, away_team, String.valueOf(full_time_home_goals),
+                String.valueOf(full_time_away_goals), full_time_result,
+                String.valueOf(half_time_home_goals), String.valueOf(half_time_away_goals)};
+    }
+
     /**
      * This is an overridden method from the Serializable interface.
      * It compresses the table to a single string.
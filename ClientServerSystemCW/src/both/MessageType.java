@@ -0,0 +1,46 @@
+package both;
+
+/**
+ * This enum contains the types of the frames of the binary protocol.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum MessageType {
+    PARCEL(1),
+    REPLY(2),
+    TABLE(3),
+    BROADCAST(4),
+    DELTA(5),
+    PAGE_CHUNK(6),
+    PAGE_END(7),
+    BATCH_RESULT(8),
+    COMPRESSED(9),
+    STANDINGS(10),
+    MARGINS(11),
+    EXPORT(12);
+
+    private final byte code;
+
+    MessageType(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * @return The byte identifying the type on the wire.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code  The byte read from the wire.
+     * @return      The matching message type.
+     * @throws IllegalArgumentException If the code is unknown.
+     */
+    public static MessageType fromCode(byte code) {
+        for (MessageType type : values()) {
+            if (type.code == code) return type;
+        }
+        throw new IllegalArgumentException("Unknown message type " + code);
+    }
+}
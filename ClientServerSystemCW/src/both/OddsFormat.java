@@ -0,0 +1,136 @@
+package both;
+
+import java.math.BigDecimal;
+
+/**
+ * This class converts the prices of the 'odds' table between their numeric
+ * form and the text they used to be kept and typed in.
+ * <p>
+ * A price is in decimal odds, the stake included: fractional odds of 4/9 are
+ * a price of 1.444..., "Evs" a price of 2. The table used to keep fractional
+ * odds as text, where SQLite turned "4/1" typed in as 4 into the number 4, so
+ * a bare number kept as text means that fraction over 1. Typed in by Admin a
+ * whole number keeps that meaning, so an older Admin is still understood,
+ * and a decimal price is written with a decimal point, "5.0" rather than "5".
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public final class OddsFormat {
+
+    private OddsFormat() {
+    }
+
+    /**
+     * This function reads a price typed in by Admin: a decimal price of at
+     * least 1 with a decimal point, fractional odds like "4/9", "Evs", or a
+     * whole number, which is fractional odds over 1 as it always was.
+     *
+     * @param text  The price as typed.
+     * @return      The decimal price.
+     * @throws IllegalArgumentException If the text is no price.
+     */
+    public static double parse(String text) {
+        String value = text == null ? "" : text.trim();
+        double price;
+        if (value.contains("/") || isEvens(value) || isWholeNumber(value)) {
+            price = fromText(value);
+        } else {
+            try {
+                price = Double.parseDouble(value);
+            } catch (NumberFormatException ex) {
+                price = Double.NaN;
+            }
+        }
+        if (!(price >= 1) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("'" + text + "' is not a price, write it like 1.5, 1/2, 4 (for 4/1) or Evs");
+        }
+        return price;
+    }
+
+    /**
+     * This function reads a price as it was kept as text in the 'odds' table.
+     *
+     * @param value The value of a price column: fractional odds, "Evs" or a bare number as text or a number.
+     * @return      The decimal price, or NaN if the value is null or cannot be read.
+     */
+    public static double fromText(Object value) {
+        if (value instanceof Number number) {
+            return fromFraction(number.doubleValue());
+        }
+        if (value == null || value.toString().isBlank()) {
+            return Double.NaN;
+        }
+        String text = value.toString().trim();
+        if (isEvens(text)) {
+            return 2;
+        }
+        try {
+            int slash = text.indexOf('/');
+            return fromFraction(slash < 0
+                    ? Double.parseDouble(text)
+                    : Double.parseDouble(text.substring(0, slash)) / Double.parseDouble(text.substring(slash + 1)));
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * This function writes a price as fractional odds over 1, which
+     * {@link #fromText(Object)} reads back as the same price.
+     *
+     * @param price A decimal price, NaN for none.
+     * @return      The price as text, or null for none.
+     */
+    public static String toText(double price) {
+        if (Double.isNaN(price)) {
+            return null;
+        }
+        // price - 1 is exact for every price of at least 1, so 1 + it is the price again
+        return BigDecimal.valueOf(price - 1).stripTrailingZeros().toPlainString() + "/1";
+    }
+
+    /**
+     * @param price A decimal price, NaN for none.
+     * @return      The shortest text that {@link #parse(String)} reads back as the price,
+     *              always with a decimal point, empty for none.
+     */
+    public static String format(double price) {
+        if (Double.isNaN(price)) {
+            return "";
+        }
+        String text = BigDecimal.valueOf(price).stripTrailingZeros().toPlainString();
+        return text.indexOf('.') < 0 ? text + ".0" : text;
+    }
+
+    /**
+     * @param fraction  Fractional odds as a number, winnings per unit staked.
+     * @return          The decimal price, or NaN if the odds are not positive.
+     */
+    private static double fromFraction(double fraction) {
+        return fraction > 0 && Double.isFinite(fraction) ? 1 + fraction : Double.NaN;
+    }
+
+    /**
+     * @param text A trimmed price.
+     * @return     True if it is a whole number without a decimal point, like "4".
+     */
+    private static boolean isWholeNumber(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isDigit(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param text A trimmed price.
+     * @return     True if it stands for even money.
+     */
+    private static boolean isEvens(String text) {
+        return text.equalsIgnoreCase("evs") || text.equalsIgnoreCase("evens");
+    }
+}
@@ -6,11 +6,15 @@ import java.sql.SQLException;
 
 /**
  * This class represents a single row of data in the database table.
+ * <p>
+ * The odds are decimal prices, see {@link OddsFormat}, NaN where the table
+ * holds none. They are read both from the typed REAL columns and from the
+ * text columns the table had before it was migrated.
  *
  * @author Maksymilian Ćwirzeń
  */
-public record OddsTable(int odd_id, int bookie_id, int match_id, String odds_home_to_win,
-                        String odd_draw, String odds_away_to_win) implements Serializable {
+public record OddsTable(int odd_id, int bookie_id, int match_id, double odds_home_to_win,
+                        double odd_draw, double odds_away_to_win) implements Serializable, TableRow {
 
     /**
      * This function updates the current table data with the results
@@ -21,13 +25,45 @@ public record OddsTable(int odd_id, int bookie_id, int match_id, String odds_hom
      * @throws SQLException If the table is not compatible.
      */
     public static OddsTable newOddsFromResultSet(ResultSet resultSet) throws SQLException {
+        boolean typed = "REAL".equalsIgnoreCase(resultSet.getMetaData().getColumnTypeName(4));
         return new OddsTable(
                 resultSet.getInt(1),
                 resultSet.getInt(2),
                 resultSet.getInt(3),
-                resultSet.getString(4),
-                resultSet.getString(5),
-                resultSet.getString(6));
+                readPrice(resultSet, 4, typed),
+                readPrice(resultSet, 5, typed),
+                readPrice(resultSet, 6, typed));
+    }
+
+    /**
+     * @param resultSet     The results of a query, at a row.
+     * @param column        Index of a price column.
+     * @param typed         True if the column is REAL, false if it keeps the odds as text.
+     * @return              The decimal price, NaN if there is none.
+     * @throws SQLException If the column cannot be read.
+     */
+    private static double readPrice(ResultSet resultSet, int column, boolean typed) throws SQLException {
+        Object value = resultSet.getObject(column);
+        if (!typed) {
+            return OddsFormat.fromText(value);
+        }
+        return value instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+
+    /**
+     * This function reads a row sent in a frame of the binary protocol.
+     *
+     * @param decoder   Decoder positioned at the row.
+     * @return          The decoded row.
+     */
+    public static OddsTable newOddsFromFrame(FrameDecoder decoder) {
+        return new OddsTable(
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                Double.longBitsToDouble(decoder.getLong()),
+                Double.longBitsToDouble(decoder.getLong()),
+                Double.longBitsToDouble(decoder.getLong()));
     }
 
     /**
@@ -51,6 +87,39 @@ public record OddsTable(int odd_id, int bookie_id, int match_id, String odds_hom
         return "odd_id";
     }
 
+    /**
+     * @return The ID of the row.
+     */
+    @Override
+    public int id() {
+        return odd_id;
+    }
+
+    /**
+     * Write the row into a frame of the binary protocol.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    @Override
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(odd_id)
+                .putInt(bookie_id)
+                .putInt(match_id)
+                .putLong(Double.doubleToLongBits(odds_home_to_win))
+                .putLong(Double.doubleToLongBits(odd_draw))
+                .putLong(Double.doubleToLongBits(odds_away_to_win));
+    }
+
+    /**
+     * @return All values of the row as they are displayed in a table.
+     */
+    @Override
+    public String[] toCells() {
+        return new String[]{String.valueOf(odd_id), String.valueOf(bookie_id), String.valueOf(match_id),
+                OddsFormat.format(odds_home_to_win), OddsFormat.format(odd_draw),
+                OddsFormat.format(odds_away_to_win)};
+    }
+
     /**
      * This is an overridden method from the Serializable interface.
      * It compresses the table to a single string.
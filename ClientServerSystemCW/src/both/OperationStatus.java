@@ -0,0 +1,13 @@
+package both;
+
+/**
+ * This enum contains the outcomes of a single operation
+ * of a BATCH, as reported back to Admin.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum OperationStatus {
+    CHANGED,
+    UNCHANGED,
+    FAILED
+}
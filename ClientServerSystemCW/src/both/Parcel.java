@@ -1,6 +1,10 @@
 package both;
 
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This is a parcel class. It stores all information
@@ -13,6 +17,9 @@ public class Parcel implements Serializable {
     public String Select = null;
     public Commands Command = null;
     public String Table = null;
+    public List<Parcel> Batch = null;
+    public Query Query = null;
+    public int RequestId = 0;
 
     /**
      * @return          Insert data from Admin
@@ -68,22 +75,154 @@ public class Parcel implements Serializable {
         this.Table = Table;
     }
 
+    /**
+     * @return          Operations of a BATCH, or null for other commands
+     */
+    public List<Parcel> getBatch() {
+        return Batch;
+    }
+
+    /**
+     * @param Batch     Operations of a BATCH to set
+     */
+    public void setBatch(List<Parcel> Batch) {
+        this.Batch = Batch;
+    }
+
+    /**
+     * @return          Filter of a QUERY sent in the binary protocol, or null
+     */
+    public Query getQuery() {
+        return Query;
+    }
+
+    /**
+     * @param Query     Filter of a QUERY to set
+     */
+    public void setQuery(Query Query) {
+        this.Query = Query;
+    }
+
+    /**
+     * @return          ID given to the request by Admin, 0 if it has none
+     */
+    public int getRequestId() {
+        return RequestId;
+    }
+
+    /**
+     * @param RequestId ID of the request to set
+     */
+    public void setRequestId(int RequestId) {
+        this.RequestId = RequestId;
+    }
+
     /**
      * This method unpacks the compressed parcel.
      *
      * @param arrayRead Compressed parcel in a String array
+     * @throws IllegalArgumentException If the parcel has too few fields or an unknown command.
      */
     public void unpackParcel(String[] arrayRead) {
+        if (arrayRead.length < 4) {
+            throw new IllegalArgumentException("A request is written as data;select;COMMAND;table");
+        }
         if (arrayRead[0].equals("null")) { this.setData(null); }
         else { this.setData(arrayRead[0]); }
 
         if (arrayRead[1].equals("null")) { this.setSelect(null); }
         else { this.setSelect(arrayRead[1]); }
 
-        this.setCommand(Commands.valueOf(arrayRead[2]));
+        try {
+            this.setCommand(Commands.valueOf(arrayRead[2]));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown command " + arrayRead[2]);
+        }
         this.setTable(arrayRead[3]);
     }
 
+    /**
+     * This method unpacks a parcel sent in a frame of the binary protocol.
+     * A BATCH is followed by the number of its operations and the operations,
+     * each laid out like a parcel of its own. A QUERY is followed by a byte
+     * telling if a structured {@link Query} follows, and the query.
+     *
+     * @param decoder Decoder positioned after the message type.
+     * @throws IllegalArgumentException If the frame ends before the parcel does or names an unknown command;
+     *                                  the request ID is set if the frame holds one.
+     */
+    public void unpackFrame(FrameDecoder decoder) {
+        try {
+            this.setRequestId(decoder.getInt());
+            this.setCommand(command(decoder.getByte()));
+            this.setTable(decoder.getString());
+            this.setData(decoder.getString());
+            this.setSelect(decoder.getString());
+            if (Command == Commands.BATCH) {
+                int count = decoder.getInt();
+                List<Parcel> operations = new ArrayList<>(Math.min(Math.max(count, 0), 1024));
+                for (int i = 0; i < count; i++) {
+                    Parcel operation = new Parcel();
+                    operation.setCommand(command(decoder.getByte()));
+                    operation.setTable(decoder.getString());
+                    operation.setData(decoder.getString());
+                    operation.setSelect(decoder.getString());
+                    operations.add(operation);
+                }
+                this.setBatch(operations);
+            }
+            if (Command == Commands.QUERY && decoder.getByte() == 1) {
+                this.setQuery(both.Query.decode(decoder));
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("The frame ends in the middle of its parcel");
+        }
+    }
+
+    /**
+     * @param code  Ordinal of a command, as sent in a frame.
+     * @return      The command.
+     * @throws IllegalArgumentException If there is no such command.
+     */
+    private static Commands command(byte code) {
+        Commands[] commands = Commands.values();
+        if (code < 0 || code >= commands.length) {
+            throw new IllegalArgumentException("Unknown command " + code);
+        }
+        return commands[code];
+    }
+
+    /**
+     * This method packs the parcel into a frame of the binary protocol.
+     *
+     * @param encoder   Encoder the frame is built in.
+     * @return          The complete frame, backed by the buffer of the encoder.
+     */
+    public ByteBuffer packFrame(FrameEncoder encoder) {
+        encoder.begin(MessageType.PARCEL)
+                .putInt(RequestId)
+                .putByte((byte) Command.ordinal())
+                .putString(Table)
+                .putString(Data)
+                .putString(Select);
+        if (Command == Commands.BATCH) {
+            encoder.putInt(Batch.size());
+            for (Parcel operation : Batch) {
+                encoder.putByte((byte) operation.Command.ordinal())
+                        .putString(operation.Table)
+                        .putString(operation.Data)
+                        .putString(operation.Select);
+            }
+        }
+        if (Command == Commands.QUERY) {
+            encoder.putByte((byte) (Query != null ? 1 : 0));
+            if (Query != null) {
+                Query.encode(encoder);
+            }
+        }
+        return encoder.finish();
+    }
+
     /**
      * This is an overridden method from the Serializable interface.
      * It compresses the parcel to a single string.
@@ -0,0 +1,52 @@
+package both;
+
+/**
+ * This class holds the constants of the binary protocol shared by Admin and Server.
+ * <p>
+ * A connection always starts in the text protocol. Admin may then send the
+ * {@link #binaryRequest()} line; if the server supports the version it answers
+ * with the same line and both sides switch to length-prefixed frames:
+ * <pre>
+ *     int  length of everything that follows
+ *     byte {@link MessageType} code
+ *     ...  payload of the message type
+ * </pre>
+ * Admins that never ask for it keep using the text protocol.
+ * <p>
+ * Admin may add {@link #DEFLATE} to the request. If the server agrees it
+ * echoes the whole line, and from then on it may send any frame as a
+ * COMPRESSED one, see {@link FrameDeflater}. A server that does not compress
+ * answers with the plain {@link #binaryRequest()}.
+ * <p>
+ * Every parcel starts with a request ID chosen by Admin, which the server
+ * puts first in the REPLY, BATCH_RESULT and PAGE_END frames answering it.
+ * Parcels with a non-zero ID may be executed at the same time and answered
+ * in any order; parcels with ID 0 are answered in the order they were sent.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public final class Protocol {
+
+    public static final int VERSION = 5;
+    public static final String HANDSHAKE_PREFIX = "PROTOCOL ";
+    public static final String TEXT_ACCEPTED = "PROTOCOL TEXT";
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    public static final String DEFLATE = "DEFLATE";
+
+    private Protocol() {
+    }
+
+    /**
+     * @return The handshake line that asks for the binary protocol of this version.
+     */
+    public static String binaryRequest() {
+        return HANDSHAKE_PREFIX + "BINARY " + VERSION;
+    }
+
+    /**
+     * @return The handshake line that asks for the binary protocol of this version with compressed frames.
+     */
+    public static String compressedRequest() {
+        return binaryRequest() + " " + DEFLATE;
+    }
+}
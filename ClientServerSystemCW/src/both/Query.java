@@ -0,0 +1,424 @@
+package both;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the filter of a QUERY: predicates on the columns of a table
+ * that must all hold, the column to order the rows by and how many rows to send.
+ * <p>
+ * A predicate may name several columns separated by '|', it then holds if it
+ * holds for any of them. In the binary protocol a query travels as a structure
+ * after the fields of its parcel; in the text protocol, and when typed into
+ * Admin, it is written like the end of a SELECT:
+ * <pre>
+ *     Season = '2019/2020' AND League = 'Premier League' AND HomeTeam|AwayTeam = 'Arsenal'
+ *     FTHG BETWEEN 2 AND 5 AND Div IN ('E0', 'E1') ORDER BY Datetime DESC LIMIT 50
+ * </pre>
+ * Strings are put in single quotes, a quote inside a string is written twice.
+ * Every part is optional, an empty query selects the whole table.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public class Query {
+
+    /**
+     * The comparisons a predicate can make.
+     */
+    public enum Operator {
+        EQ("="),
+        NE("<>"),
+        LT("<"),
+        LE("<="),
+        GT(">"),
+        GE(">="),
+        BETWEEN("BETWEEN"),
+        IN("IN");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        /**
+         * @return The operator as written in SQL.
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @param symbol    An operator as typed by Admin.
+         * @return          The operator, or null if there is none such.
+         */
+        public static Operator fromSymbol(String symbol) {
+            if (symbol.equals("!=")) return NE;
+            for (Operator operator : values()) {
+                if (operator.symbol.equalsIgnoreCase(symbol)) return operator;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A single condition of a query.
+     *
+     * @param columns   Columns compared, the predicate holds if it holds for any of them.
+     * @param operator  The comparison.
+     * @param values    One value, two for BETWEEN, any number for IN. A null value stands for SQL NULL.
+     */
+    public record Predicate(List<String> columns, Operator operator, List<String> values) {
+    }
+
+    private final List<Predicate> predicates = new ArrayList<>();
+    private String orderBy = null;
+    private boolean descending = false;
+    private int limit = 0;
+
+    /**
+     * @return The predicates that must all hold.
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * @param predicate A predicate to add.
+     */
+    public void addPredicate(Predicate predicate) {
+        predicates.add(predicate);
+    }
+
+    /**
+     * @return The column to order the rows by, null for the order of the server.
+     */
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * @param orderBy       The column to order the rows by.
+     * @param descending    True to start with the highest value.
+     */
+    public void setOrderBy(String orderBy, boolean descending) {
+        this.orderBy = orderBy;
+        this.descending = descending;
+    }
+
+    /**
+     * @return True if the rows are ordered starting with the highest value.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return The highest number of rows to send, 0 for the limit of the server.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit The highest number of rows to send, 0 for the limit of the server.
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * This method packs the query after the fields of its parcel.
+     *
+     * @param encoder Encoder of the frame of the parcel.
+     */
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(predicates.size());
+        for (Predicate predicate : predicates) {
+            encoder.putInt(predicate.columns().size());
+            for (String column : predicate.columns()) {
+                encoder.putString(column);
+            }
+            encoder.putByte((byte) predicate.operator().ordinal())
+                    .putInt(predicate.values().size());
+            for (String value : predicate.values()) {
+                encoder.putString(value);
+            }
+        }
+        encoder.putString(orderBy)
+                .putByte((byte) (descending ? 1 : 0))
+                .putInt(limit);
+    }
+
+    /**
+     * This method unpacks a query sent after the fields of its parcel.
+     *
+     * @param decoder   Decoder positioned at the query.
+     * @return          The query.
+     * @throws IllegalArgumentException If a predicate has an unknown operator.
+     */
+    public static Query decode(FrameDecoder decoder) {
+        Query query = new Query();
+        int predicateCount = decoder.getInt();
+        for (int i = 0; i < predicateCount; i++) {
+            int columnCount = decoder.getInt();
+            List<String> columns = new ArrayList<>(Math.min(Math.max(columnCount, 0), 16));
+            for (int j = 0; j < columnCount; j++) {
+                columns.add(decoder.getString());
+            }
+            byte code = decoder.getByte();
+            if (code < 0 || code >= Operator.values().length) {
+                throw new IllegalArgumentException("Unknown operator " + code);
+            }
+            Operator operator = Operator.values()[code];
+            int valueCount = decoder.getInt();
+            List<String> values = new ArrayList<>(Math.min(Math.max(valueCount, 0), 1024));
+            for (int j = 0; j < valueCount; j++) {
+                values.add(decoder.getString());
+            }
+            query.addPredicate(new Predicate(columns, operator, values));
+        }
+        String orderBy = decoder.getString();
+        query.setOrderBy(orderBy, decoder.getByte() == 1);
+        query.setLimit(decoder.getInt());
+        return query;
+    }
+
+    /**
+     * This method reads a query written as in the description of this class.
+     *
+     * @param text  The query, null or blank for the whole table.
+     * @return      The query.
+     * @throws IllegalArgumentException If the text is not a valid query.
+     */
+    public static Query parse(String text) {
+        Query query = new Query();
+        if (text == null || text.isBlank()) {
+            return query;
+        }
+        List<String> tokens = tokenize(text);
+        int[] at = {0};
+
+        if (!isKeyword(tokens, at[0], "ORDER") && !isKeyword(tokens, at[0], "LIMIT")) {
+            query.addPredicate(parsePredicate(tokens, at));
+            while (isKeyword(tokens, at[0], "AND")) {
+                at[0]++;
+                query.addPredicate(parsePredicate(tokens, at));
+            }
+        }
+        if (isKeyword(tokens, at[0], "ORDER")) {
+            at[0]++;
+            expectKeyword(tokens, at, "BY");
+            String column = next(tokens, at, "a column after ORDER BY");
+            boolean descending = false;
+            if (isKeyword(tokens, at[0], "DESC") || isKeyword(tokens, at[0], "ASC")) {
+                descending = tokens.get(at[0]++).equalsIgnoreCase("DESC");
+            }
+            query.setOrderBy(column, descending);
+        }
+        if (isKeyword(tokens, at[0], "LIMIT")) {
+            at[0]++;
+            String limit = next(tokens, at, "a number after LIMIT");
+            try {
+                query.setLimit(Integer.parseInt(limit));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("LIMIT needs a number, got " + limit);
+            }
+            if (query.getLimit() < 1) {
+                throw new IllegalArgumentException("LIMIT must be positive");
+            }
+        }
+        if (at[0] < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(at[0]) + "' in the query");
+        }
+        return query;
+    }
+
+    /**
+     * @param tokens    Tokens of the query.
+     * @param at        Index of the first token of the predicate, moved past it.
+     * @return          The predicate.
+     */
+    private static Predicate parsePredicate(List<String> tokens, int[] at) {
+        List<String> columns = new ArrayList<>();
+        columns.add(next(tokens, at, "a column"));
+        while (at[0] < tokens.size() && tokens.get(at[0]).equals("|")) {
+            at[0]++;
+            columns.add(next(tokens, at, "a column after '|'"));
+        }
+        String symbol = next(tokens, at, "an operator after " + String.join("|", columns));
+        Operator operator = Operator.fromSymbol(symbol);
+        if (operator == null) {
+            throw new IllegalArgumentException("Unknown operator '" + symbol + "'");
+        }
+        List<String> values = new ArrayList<>();
+        switch (operator) {
+            case BETWEEN -> {
+                values.add(value(next(tokens, at, "a value after BETWEEN")));
+                expectKeyword(tokens, at, "AND");
+                values.add(value(next(tokens, at, "a value after AND")));
+            }
+            case IN -> {
+                if (!next(tokens, at, "'(' after IN").equals("(")) {
+                    throw new IllegalArgumentException("IN needs a list of values in brackets");
+                }
+                do {
+                    values.add(value(next(tokens, at, "a value in the IN list")));
+                } while (next(tokens, at, "')' after the IN list").equals(","));
+                if (!tokens.get(at[0] - 1).equals(")")) {
+                    throw new IllegalArgumentException("The IN list must end with ')'");
+                }
+            }
+            default -> values.add(value(next(tokens, at, "a value after " + symbol)));
+        }
+        return new Predicate(columns, operator, values);
+    }
+
+    /**
+     * @param token A token standing for a value.
+     * @return      The value without its quotes, null for an unquoted null.
+     */
+    private static String value(String token) {
+        if (token.startsWith("'")) {
+            return token.substring(1);
+        }
+        if (token.equals("(") || token.equals(")") || token.equals(",") || token.equals("|")) {
+            throw new IllegalArgumentException("Expected a value, got '" + token + "'");
+        }
+        return token.equalsIgnoreCase("null") ? null : token;
+    }
+
+    /**
+     * Split a query into words, operators and punctuation. A string becomes
+     * a single token starting with a quote, so it is never taken for a keyword.
+     *
+     * @param text  The query.
+     * @return      The tokens.
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                StringBuilder value = new StringBuilder("'");
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("Unclosed string in the query");
+                    }
+                    char s = text.charAt(i++);
+                    if (s == '\'') {
+                        if (i < length && text.charAt(i) == '\'') {
+                            value.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(s);
+                    }
+                }
+                tokens.add(value.toString());
+            } else if (c == '(' || c == ')' || c == ',' || c == '|') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                int end = i + 1;
+                if (end < length && (text.charAt(end) == '=' || c == '<' && text.charAt(end) == '>')) end++;
+                tokens.add(text.substring(i, end));
+                i = end;
+            } else {
+                int end = i;
+                while (end < length && !Character.isWhitespace(text.charAt(end))
+                        && "'(),|<>=!".indexOf(text.charAt(end)) < 0) {
+                    end++;
+                }
+                tokens.add(text.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param tokens    Tokens of the query.
+     * @param at        Index of the token, moved past it.
+     * @param expected  What is expected, for the error.
+     * @return          The token.
+     */
+    private static String next(List<String> tokens, int[] at, String expected) {
+        if (at[0] >= tokens.size()) {
+            throw new IllegalArgumentException("Expected " + expected + " at the end of the query");
+        }
+        return tokens.get(at[0]++);
+    }
+
+    /**
+     * @param tokens    Tokens of the query.
+     * @param at        Index of a token.
+     * @param keyword   A keyword.
+     * @return          True if the token is the keyword, in any case.
+     */
+    private static boolean isKeyword(List<String> tokens, int at, String keyword) {
+        return at < tokens.size() && tokens.get(at).equalsIgnoreCase(keyword);
+    }
+
+    /**
+     * @param tokens    Tokens of the query.
+     * @param at        Index of the token, moved past it.
+     * @param keyword   The keyword that must come next.
+     */
+    private static void expectKeyword(List<String> tokens, int[] at, String keyword) {
+        if (!isKeyword(tokens, at[0], keyword)) {
+            throw new IllegalArgumentException("Expected " + keyword + " in the query");
+        }
+        at[0]++;
+    }
+
+    /**
+     * @return The query written as Admin would type it.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Predicate predicate : predicates) {
+            if (text.length() > 0) text.append(" AND ");
+            text.append(String.join("|", predicate.columns())).append(' ')
+                    .append(predicate.operator().getSymbol()).append(' ');
+            switch (predicate.operator()) {
+                case BETWEEN -> text.append(quote(predicate.values().get(0))).append(" AND ")
+                        .append(quote(predicate.values().get(1)));
+                case IN -> {
+                    text.append('(');
+                    for (int i = 0; i < predicate.values().size(); i++) {
+                        if (i > 0) text.append(", ");
+                        text.append(quote(predicate.values().get(i)));
+                    }
+                    text.append(')');
+                }
+                default -> text.append(quote(predicate.values().get(0)));
+            }
+        }
+        if (orderBy != null) {
+            if (text.length() > 0) text.append(' ');
+            text.append("ORDER BY ").append(orderBy).append(descending ? " DESC" : " ASC");
+        }
+        if (limit > 0) {
+            if (text.length() > 0) text.append(' ');
+            text.append("LIMIT ").append(limit);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param value A value of a predicate.
+     * @return      The value as typed in a query.
+     */
+    private static String quote(String value) {
+        return value == null ? "null" : "'" + value.replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,86 @@
+package both;
+
+/**
+ * This class represents the line of one team in the standings of a league in
+ * a season, as they follow from the full time results of its matches.
+ * <p>
+ * A win is worth 3 points and a draw 1. The form holds the results of the
+ * last five matches of the team, the most recent last, as 'W', 'D' and 'L'.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public record StandingsRow(int position, String team, int played, int won, int drawn, int lost,
+                           int goalsFor, int goalsAgainst, int points, String form) {
+
+    private static final String[] COLUMN_NAMES = {"#", "Team", "P", "W", "D", "L", "GF", "GA", "GD", "Pts", "Form"};
+
+    /**
+     * This function reads a line sent in a STANDINGS frame of the binary protocol.
+     *
+     * @param decoder   Decoder positioned at the line.
+     * @return          The decoded line.
+     */
+    public static StandingsRow newFromFrame(FrameDecoder decoder) {
+        return new StandingsRow(
+                decoder.getInt(),
+                decoder.getString(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getInt(),
+                decoder.getString());
+    }
+
+    /**
+     * @return Names of the columns of the standings, as displayed in a table.
+     */
+    public static String[] getColumnNames() {
+        return COLUMN_NAMES.clone();
+    }
+
+    /**
+     * @return Goals scored minus goals conceded.
+     */
+    public int goalDifference() {
+        return goalsFor - goalsAgainst;
+    }
+
+    /**
+     * Write the line into a STANDINGS frame of the binary protocol.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    public void encode(FrameEncoder encoder) {
+        encoder.putInt(position)
+                .putString(team)
+                .putInt(played)
+                .putInt(won)
+                .putInt(drawn)
+                .putInt(lost)
+                .putInt(goalsFor)
+                .putInt(goalsAgainst)
+                .putInt(points)
+                .putString(form);
+    }
+
+    /**
+     * @return All values of the line as they are displayed in a table.
+     */
+    public String[] toCells() {
+        return new String[]{String.valueOf(position), team, String.valueOf(played), String.valueOf(won),
+                String.valueOf(drawn), String.valueOf(lost), String.valueOf(goalsFor),
+                String.valueOf(goalsAgainst), String.valueOf(goalDifference()), String.valueOf(points), form};
+    }
+
+    /**
+     * @return The line as it is sent in the text protocol.
+     */
+    @Override
+    public String toString() {
+        return position + ". " + team + " P" + played + " W" + won + " D" + drawn + " L" + lost
+                + " " + goalsFor + ":" + goalsAgainst + " " + points + "pts " + form;
+    }
+}
@@ -0,0 +1,27 @@
+package both;
+
+/**
+ * This interface is implemented by every record representing
+ * a single row of a database table.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public interface TableRow {
+
+    /**
+     * @return Value of the ID column of the row.
+     */
+    int id();
+
+    /**
+     * Write the typed fields of the row into a frame.
+     *
+     * @param encoder Encoder of the frame being built.
+     */
+    void encode(FrameEncoder encoder);
+
+    /**
+     * @return All values of the row as they are displayed in a table.
+     */
+    String[] toCells();
+}
@@ -0,0 +1,160 @@
+package both;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This enum lists the database tables known to Admin and Server,
+ * together with their names on the wire.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public enum TableSchema {
+    ODDS(1, "odds", "odd_id",
+            new Column[]{
+                    new Column("bookie_id", ColumnType.INTEGER),
+                    new Column("match_id", ColumnType.INTEGER),
+                    new Column("odds_home_to_win", ColumnType.REAL),
+                    new Column("odd_draw", ColumnType.REAL),
+                    new Column("odds_away_to_win", ColumnType.REAL)},
+            "odd_id", "bookie_id", "match_id", "odds_home_to_win", "odd_draw", "odds_away_to_win"),
+    BOOKIES(2, "bookies", "bookie_id",
+            new Column[]{
+                    new Column("name", ColumnType.TEXT),
+                    new Column("website", ColumnType.TEXT)},
+            "bookie_id", "Name", "Website"),
+    MATCHES(3, "football-match-data", "match_id",
+            new Column[]{
+                    new Column("Season", ColumnType.TEXT),
+                    new Column("Datetime", ColumnType.TEXT),
+                    new Column("Div", ColumnType.TEXT),
+                    new Column("Country", ColumnType.TEXT),
+                    new Column("League", ColumnType.TEXT),
+                    new Column("Referee", ColumnType.TEXT),
+                    new Column("HomeTeam", ColumnType.TEXT),
+                    new Column("AwayTeam", ColumnType.TEXT),
+                    new Column("FTHG", ColumnType.INTEGER),
+                    new Column("FTAG", ColumnType.INTEGER),
+                    new Column("FTR", ColumnType.TEXT),
+                    new Column("HTHG", ColumnType.INTEGER),
+                    new Column("HTAG", ColumnType.INTEGER)},
+            "match_id", "Season", "Datetime", "Division", "Country", "League", "Referee",
+            "Home Team", "Away Team", "FTHG", "FTAG", "FTR", "HTHG", "HTAG");
+
+    private final byte code;
+    private final String tableName;
+    private final String idColumn;
+    private final Column[] editableColumns;
+    private final String[] columnNames;
+
+    TableSchema(int code, String tableName, String idColumn, Column[] editableColumns, String... columnNames) {
+        this.code = (byte) code;
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+        this.editableColumns = editableColumns;
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * @return The byte identifying the table on the wire.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @return Name of the table in the database.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return Name of the ID column in the database.
+     */
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    /**
+     * @return The columns Admin fills in on ADD and EDIT, in order.
+     */
+    public Column[] getEditableColumns() {
+        return editableColumns.clone();
+    }
+
+    /**
+     * @param name  Name of a column in the database, in any case.
+     * @return      The column, the ID one included, or null if the table has no such column.
+     */
+    public Column getColumn(String name) {
+        if (idColumn.equalsIgnoreCase(name)) {
+            return new Column(idColumn, ColumnType.INTEGER);
+        }
+        for (Column column : editableColumns) {
+            if (column.name().equalsIgnoreCase(name)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Names of all columns, as displayed by Admin.
+     */
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Read a single row of this table from a frame.
+     *
+     * @param decoder   Decoder positioned at the row.
+     * @return          The decoded row.
+     */
+    public TableRow readRow(FrameDecoder decoder) {
+        return switch (this) {
+            case ODDS -> OddsTable.newOddsFromFrame(decoder);
+            case BOOKIES -> BookiesTable.newBookiesFromFrame(decoder);
+            case MATCHES -> MatchTable.newMatchFromFrame(decoder);
+        };
+    }
+
+    /**
+     * Read the current row of a result set of this table.
+     *
+     * @param resultSet     The set of results acquired from the SQL query.
+     * @return              The row.
+     * @throws SQLException If the result set is not compatible.
+     */
+    public TableRow readRow(ResultSet resultSet) throws SQLException {
+        return switch (this) {
+            case ODDS -> OddsTable.newOddsFromResultSet(resultSet);
+            case BOOKIES -> BookiesTable.newBookiesFromResultSet(resultSet);
+            case MATCHES -> MatchTable.newMatchFromResultSet(resultSet);
+        };
+    }
+
+    /**
+     * @param tableName Name of the table in the database.
+     * @return          The matching table, or null if there is none.
+     */
+    public static TableSchema fromName(String tableName) {
+        for (TableSchema schema : values()) {
+            if (schema.tableName.equals(tableName)) return schema;
+        }
+        return null;
+    }
+
+    /**
+     * @param code  The byte read from the wire.
+     * @return      The matching table.
+     * @throws IllegalArgumentException If the code is unknown.
+     */
+    public static TableSchema fromCode(byte code) {
+        for (TableSchema schema : values()) {
+            if (schema.code == code) return schema;
+        }
+        throw new IllegalArgumentException("Unknown table " + code);
+    }
+}
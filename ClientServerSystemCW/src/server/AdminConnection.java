@@ -0,0 +1,1220 @@
+package server;
+
+import both.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * This is the base class of every connection between the server and an Admin.
+ * It holds the protocol logic that does not depend on how the bytes travel:
+ * unpacking parcels, executing the commands and sending the tables back.
+ * <p>
+ * The blocking {@link AdminHandlerThread} and the selector based
+ * {@link NioAdminConnection} only differ in how they read and write bytes.
+ * <p>
+ * Every connection starts in the text protocol and switches to the binary
+ * one if Admin asks for it, see {@link Protocol}.
+ * <p>
+ * In the binary protocol a parcel with a request ID is handed to the request
+ * executor, so several requests of one Admin run at the same time and their
+ * replies, tagged with the request ID, may come back in any order. Once too
+ * many requests are in flight the next one is executed by the reading thread,
+ * which stops reading until it is done.
+ * <p>
+ * Every request is timed into the {@link ServerMetrics}. Logging each request
+ * would hold up the server under load, so requests are only logged at the
+ * FINE level, or one in {@code server.requestLogSample} at INFO.
+ * <p>
+ * Nothing is written to Admin on the calling thread. Every connection queues
+ * its output in a bounded {@link OutboundQueue} drained by its own writer, so
+ * an Admin that reads slowly holds up no one else; once its queue is full it
+ * gets snapshots instead of changes, misses datetime broadcasts or is
+ * disconnected, depending on the policy.
+ * <p>
+ * Changes only reach the connections subscribed to their table, see
+ * {@link SubscriptionIndex}. The table displayed after a GET is watched
+ * whole; in the binary protocol Admin can also SUBSCRIBE to other tables,
+ * optionally only to the rows whose column has a value.
+ * <p>
+ * An Admin that asks for it in the handshake gets frames of at least
+ * {@code server.compressThreshold} bytes deflated, see {@link FrameDeflater}.
+ * Snapshots and changes are compressed once and shared, like their frames.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+abstract class AdminConnection {
+
+    private static final AtomicInteger connectionCount = new AtomicInteger();
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 10000;
+    private static final int PAGE_CHUNK_ROWS = 256;
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("server.maxInFlight", 64);
+    private static final int REQUEST_LOG_SAMPLE = Integer.getInteger("server.requestLogSample", 1000);
+    private static final AtomicLong requestsLogged = new AtomicLong();
+    private static final Logger REQUEST_LOG = Logger.getLogger(AdminConnection.class.getName());
+    private static final ServerMetrics metrics = ServerMetrics.INSTANCE;
+    private static final boolean COMPRESSION = Boolean.parseBoolean(System.getProperty("server.compression", "true"));
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("server.compressionLevel", Deflater.DEFAULT_COMPRESSION);
+    private static final int COMPRESS_THRESHOLD = Integer.getInteger("server.compressThreshold", 1024);
+
+    protected final SQLiteDatabase database;
+    protected final int connectionNumber;
+    private final Executor requestExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final OutboundQueue outbound = new OutboundQueue();
+    protected volatile String tableDisplayed = null;
+    // explicit subscriptions and the version of each watched table Admin has, guarded by outputLock
+    private final Map<TableSchema, Subscription> subscriptions = new EnumMap<>(TableSchema.class);
+    private final Map<TableSchema, Long> sentVersions = new EnumMap<>(TableSchema.class);
+
+    private final Object outputLock = new Object();
+    private final FrameEncoder encoder = new FrameEncoder(256);
+    private volatile boolean binary = false;
+    private FrameDeflater deflater = null; // set if Admin asked for compressed frames, guarded by outputLock
+
+    /**
+     * Constructor assigns the next connection number.
+     *
+     * @param database          The link to the SQLiteDatabase class.
+     * @param requestExecutor   The pool executing the requests Admin sends with a request ID.
+     */
+    protected AdminConnection(SQLiteDatabase database, Executor requestExecutor) {
+        this.database = database;
+        this.requestExecutor = requestExecutor;
+        this.connectionNumber = connectionCount.incrementAndGet();
+    }
+
+    /**
+     * Called after bytes have been queued, to let the writer of the connection know.
+     */
+    protected abstract void outboundReady();
+
+    /**
+     * Queue bytes that must reach Admin.
+     *
+     * @param bytes Bytes to be written, the buffer may be reused once this method returns.
+     */
+    protected final void write(ByteBuffer bytes) {
+        write(bytes, OutboundQueue.Kind.DATA, null);
+    }
+
+    /**
+     * Queue bytes for Admin and count them. If they do not fit, Admin is
+     * disconnected, unless they are a change that can be replaced by a snapshot.
+     *
+     * @param bytes Bytes to be written, the buffer may be reused once this method returns.
+     * @param kind  What the bytes are.
+     * @param table The table of a snapshot or change, null otherwise.
+     * @return      What became of the bytes.
+     */
+    protected final OutboundQueue.Result write(ByteBuffer bytes, OutboundQueue.Kind kind, TableSchema table) {
+        synchronized (outputLock) {
+            // the deflater is ended under the lock when the connection closes
+            if (deflater != null && deflater.isWorthCompressing(bytes)) {
+                ByteBuffer compressed = SharedBytes.deflate(deflater, bytes);
+                if (compressed != bytes) {
+                    return writeShared(compressed, kind, table);
+                }
+            }
+        }
+        ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+        copy.put(bytes.duplicate()).flip();
+        return writeShared(copy, kind, table);
+    }
+
+    /**
+     * Queue bytes for Admin without copying them, as {@link #write(ByteBuffer, OutboundQueue.Kind, TableSchema)}.
+     *
+     * @param bytes A view of bytes nobody changes, owned by the connection from now on.
+     * @param kind  What the bytes are.
+     * @param table The table of a snapshot or change, null otherwise.
+     * @return      What became of the bytes.
+     */
+    protected final OutboundQueue.Result writeShared(ByteBuffer bytes, OutboundQueue.Kind kind, TableSchema table) {
+        int length = bytes.remaining();
+        OutboundQueue.Result result = outbound.offer(bytes, kind, table);
+        if (result == OutboundQueue.Result.QUEUED) {
+            bytesWritten.addAndGet(length);
+            metrics.addBytesSent(length);
+            outboundReady();
+        } else if (result == OutboundQueue.Result.FULL
+                && (kind != OutboundQueue.Kind.DELTA || outbound.getPolicy() != OutboundQueue.Policy.COALESCE)) {
+            disconnectSlowConsumer();
+        }
+        return result;
+    }
+
+    /**
+     * Queue a file to be sent to Admin from the disk, see {@link FileRegion}.
+     *
+     * @param file  The file, owned by the connection from now on.
+     */
+    protected final void writeFile(FileRegion file) {
+        if (outbound.offerFile(file) == OutboundQueue.Result.QUEUED) {
+            bytesWritten.addAndGet(file.size());
+            metrics.addBytesSent(file.size());
+            outboundReady();
+        }
+    }
+
+    /**
+     * @return The next bytes or file to be written to Admin, or null if there are none.
+     */
+    protected OutboundQueue.Message pollOutbound() {
+        return outbound.poll();
+    }
+
+    /**
+     * @return                      The next bytes or file to be written to Admin, or null once the connection is closed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    protected OutboundQueue.Message takeOutbound() throws InterruptedException {
+        return outbound.take();
+    }
+
+    /**
+     * @return True if nothing is waiting to be written to Admin.
+     */
+    protected boolean isOutboundEmpty() {
+        return outbound.isEmpty();
+    }
+
+    /**
+     * @return Number of bytes waiting to be written to Admin.
+     */
+    protected long getOutboundBytes() {
+        return outbound.getQueuedBytes();
+    }
+
+    /**
+     * Drop the output not yet written and stop the writer. Called when the connection is closed.
+     */
+    protected void closeOutbound() {
+        outbound.close();
+        synchronized (outputLock) {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    }
+
+    /**
+     * Close the connection of an Admin whose output does not fit into its queue.
+     */
+    private void disconnectSlowConsumer() {
+        metrics.slowConsumerDisconnected();
+        threadSays("Admin does not read fast enough, closing the connection.");
+        ThreadedServer.removeThread(this);
+        close();
+    }
+
+    /**
+     * Close the underlying connection to Admin.
+     */
+    protected abstract void close();
+
+    /**
+     * Greet the newly connected Admin with its number.
+     */
+    protected void greet() {
+        sendText("You are client number" + connectionNumber);
+        threadSays("Connection " + connectionNumber + " established.");
+    }
+
+    /**
+     * @param line  A line read from Admin.
+     * @return      True if the line asks for the binary protocol this server speaks, compressed or not.
+     */
+    protected static boolean isBinaryRequest(String line) {
+        return line.equals(Protocol.binaryRequest()) || line.equals(Protocol.compressedRequest());
+    }
+
+    /**
+     * @return True once the connection has switched to the binary protocol.
+     */
+    protected boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * This method handles a single line received from Admin, which is either
+     * the protocol handshake or a compressed parcel.
+     *
+     * @param lineRead Line read from the connection.
+     */
+    protected void handleLine(String lineRead) {
+        if (lineRead.startsWith(Protocol.HANDSHAKE_PREFIX)) {
+            negotiate(lineRead);
+            return;
+        }
+        Parcel parcel = new Parcel();
+        try {
+            parcel.unpackParcel(lineRead.split(";"));
+        } catch (IllegalArgumentException ex) {
+            threadSays("Malformed request \"" + lineRead + "\": " + ex.getMessage());
+            sendReply(0, "Error: " + ex.getMessage());
+            return;
+        }
+        requestSays("Read data from client: \"" + lineRead + "\".");
+        metrics.requestReceived();
+        handleParcel(parcel);
+    }
+
+    /**
+     * This method handles a single frame received from Admin.
+     *
+     * @param decoder Decoder of the frame.
+     */
+    protected void handleFrame(FrameDecoder decoder) {
+        if (decoder.getType() != MessageType.PARCEL) {
+            threadSays("Unexpected frame " + decoder.getType());
+            return;
+        }
+        Parcel parcel = new Parcel();
+        try {
+            parcel.unpackFrame(decoder);
+        } catch (IllegalArgumentException ex) {
+            threadSays("Malformed frame: " + ex.getMessage());
+            sendReply(parcel.getRequestId(), "Error: " + ex.getMessage());
+            return;
+        }
+        requestSays("Read data from client: \"" + parcel + "\".");
+        metrics.requestReceived();
+
+        if (parcel.getRequestId() == 0) {
+            handleParcel(parcel);
+            return;
+        }
+        if (inFlight.incrementAndGet() > MAX_IN_FLIGHT) {
+            // too many requests in flight, stop reading until this one is done
+            try {
+                handleParcel(parcel);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return;
+        }
+        requestExecutor.execute(() -> {
+            try {
+                handleParcel(parcel);
+            } catch (RuntimeException ex) {
+                requestFailed(parcel.getRequestId(), ex);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * This method tells Admin a request failed in a way nothing else caught,
+     * so that Admin is not left waiting and the connection carries on.
+     *
+     * @param requestId ID of the request, 0 if it is not known.
+     * @param ex        What the request failed with.
+     */
+    protected void requestFailed(int requestId, RuntimeException ex) {
+        Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+        try {
+            sendReply(requestId, "Error: the request could not be handled");
+        } catch (RuntimeException replyFailed) {
+            Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, replyFailed);
+        }
+    }
+
+    /**
+     * @param queued    Number of parcels read from Admin but not yet handled.
+     * @return          True if Admin has more requests waiting and in flight than are let in, so reading should stop.
+     */
+    protected boolean isBacklogged(int queued) {
+        return queued + inFlight.get() > MAX_IN_FLIGHT;
+    }
+
+    /**
+     * Answer the protocol handshake. The binary protocol is accepted only if
+     * the version matches, otherwise the connection stays in the text protocol.
+     * Compression is accepted unless the server has it turned off.
+     *
+     * @param handshake The handshake line sent by Admin.
+     */
+    private void negotiate(String handshake) {
+        synchronized (outputLock) {
+            if (COMPRESSION && handshake.equals(Protocol.compressedRequest())) {
+                sendText(handshake);
+                deflater = new FrameDeflater(COMPRESSION_LEVEL, COMPRESS_THRESHOLD);
+                binary = true;
+                threadSays("Switched to the binary protocol with compression.");
+            } else if (isBinaryRequest(handshake)) {
+                sendText(Protocol.binaryRequest());
+                binary = true;
+                threadSays("Switched to the binary protocol.");
+            } else {
+                sendText(Protocol.TEXT_ACCEPTED);
+            }
+        }
+    }
+
+    /**
+     * This method executes the command of a parcel and sends the reply back.
+     *
+     * @param parcel Parcel received from Admin.
+     */
+    protected void handleParcel(Parcel parcel) {
+        long start = System.nanoTime();
+        String replyMessage = null;
+
+        switch (parcel.getCommand()) {
+
+            case ADD -> {
+                replyMessage = "Executing ADD on '" + parcel.getTable() + "'";
+
+                // execute sql query on the writer thread, then send the change to all users
+                if (!executeWrite(database.commandAdd(parcel.getTable(), parcel.getData()))) {
+                    replyMessage = "Error: could not execute ADD on '" + parcel.getTable() + "'";
+                }
+            }
+
+            case DELETE -> {
+                replyMessage = "Executing DELETE on the line number " + parcel.getSelect() +
+                        " of the '" + parcel.getTable() + "' table.";
+
+                // execute sql query on the writer thread, then send the change to all users
+                if (!executeWrite(database.commandDelete(parcel.getTable(), parcel.getSelect()))) {
+                    replyMessage = "Error: could not execute DELETE on '" + parcel.getTable() + "'";
+                }
+            }
+            case EDIT -> {
+                replyMessage = "Executing EDIT on the line number " + parcel.getSelect() +
+                        " of the '" + parcel.getTable() + "' table.";
+
+                // execute sql query on the writer thread, then send the change to all users
+                if (!executeWrite(database.commandEdit(parcel.getTable(), parcel.getData(), parcel.getSelect()))) {
+                    replyMessage = "Error: could not execute EDIT on '" + parcel.getTable() + "'";
+                }
+            }
+            case GET -> {
+                replyMessage = "Executing GET on '" + parcel.getTable() + "'";
+                display(parcel.getTable());
+
+                // served from the table cache unless the table has changed
+                getUpdatedTable(parcel.getTable());
+            }
+            case PAGE -> replyMessage = sendPage(parcel);
+            case BATCH -> replyMessage = executeBatch(parcel);
+            case STATS -> replyMessage = metrics.report(binary ? "\n" : " | ");
+            case SUBSCRIBE -> replyMessage = subscribe(parcel);
+            case UNSUBSCRIBE -> replyMessage = unsubscribe(parcel);
+            case QUERY -> replyMessage = sendQuery(parcel);
+            case STANDINGS -> replyMessage = sendStandings(parcel);
+            case MARGINS, ARBITRAGE -> replyMessage = sendMargins(parcel);
+            case IMPORT -> replyMessage = importCsv(parcel);
+            case EXPORT -> replyMessage = exportTable(parcel);
+            default -> System.out.println("Error: Parcel Error");
+        }
+        sendReply(parcel.getRequestId(), replyMessage);
+        metrics.requestDone(parcel.getCommand(), TableSchema.fromName(parcel.getTable()),
+                System.nanoTime() - start, replyMessage == null || replyMessage.startsWith("Error"));
+    }
+
+    /**
+     * Wait for a queued write to be committed and publish its change to all admins.
+     *
+     * @param write Future of the write.
+     * @return      True if the write succeeded.
+     */
+    private boolean executeWrite(CompletableFuture<TableChange> write) {
+        long start = System.nanoTime();
+        try {
+            TableChange change = write.join();
+            metrics.recordDatabase(System.nanoTime() - start);
+            if (change != null) {
+                ThreadedServer.publish(change);
+            }
+            return true;
+        } catch (CompletionException | CancellationException ex) {
+            threadSays("Write failed: " + ex.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Execute the operations of a BATCH in one transaction, publish all changes
+     * at once and send the result of every operation to Admin.
+     * <p>
+     * A batch can only be sent in the binary protocol.
+     *
+     * @param parcel    Parcel of the BATCH command.
+     * @return          The reply, summing up the batch.
+     */
+    private String executeBatch(Parcel parcel) {
+        if (!binary || parcel.getBatch() == null) {
+            return "Error: BATCH needs the binary protocol";
+        }
+        BatchResult result;
+        long start = System.nanoTime();
+        try {
+            result = database.commandBatch(parcel.getBatch()).join();
+            metrics.recordDatabase(System.nanoTime() - start);
+        } catch (CompletionException | CancellationException ex) {
+            threadSays("Batch failed: " + ex.getCause());
+            return "Error: could not execute BATCH of " + parcel.getBatch().size() + " operations";
+        }
+        ThreadedServer.publish(result.changes());
+
+        synchronized (outputLock) {
+            encoder.begin(MessageType.BATCH_RESULT)
+                    .putInt(parcel.getRequestId())
+                    .putInt(result.changes().size());
+            for (int i = 0; i < result.changes().size(); i++) {
+                TableChange change = result.changes().get(i);
+                String error = result.errors().get(i);
+                OperationStatus status = error != null ? OperationStatus.FAILED
+                        : change != null ? OperationStatus.CHANGED : OperationStatus.UNCHANGED;
+                encoder.putByte((byte) status.ordinal())
+                        .putInt(change != null ? change.id() : -1)
+                        .putString(error);
+            }
+            write(encoder.finish());
+        }
+        return "Executing BATCH of " + result.changes().size() + " operations, " +
+                result.failedCount() + " failed";
+    }
+
+    /**
+     * Import a CSV file from the import directory of the server into a table,
+     * see {@link CsvImporter}. The name of the file is taken from the data
+     * field and the values of columns the file does not have from the select
+     * field. The rows are not published one by one; once the import is done,
+     * its last change is published, and every admin catches up on the rows
+     * from the change log, or gets the table.
+     *
+     * @param parcel    Parcel of the IMPORT command.
+     * @return          The reply, telling how many rows were imported and how fast.
+     */
+    private String importCsv(Parcel parcel) {
+        TableSchema schema = TableSchema.fromName(parcel.getTable());
+        if (schema == null) {
+            return "Error: Table Error";
+        }
+        CsvImporter.Result result;
+        try {
+            result = new CsvImporter(database, schema, parcel.getSelect()).importFile(parcel.getData());
+        } catch (IllegalArgumentException ex) {
+            return "Error: " + ex.getMessage();
+        } catch (IOException ex) {
+            Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+            return "Error: could not read '" + parcel.getData().trim() + "'";
+        }
+        metrics.recordDatabase(result.nanos());
+        if (result.lastChange() != null) {
+            ThreadedServer.publish(result.lastChange());
+        }
+
+        StringBuilder reply = new StringBuilder(result.failure() != null ? "Error: IMPORT " : "Executing IMPORT of ")
+                .append('\'').append(parcel.getData().trim()).append("' into '").append(schema.getTableName())
+                .append("', ").append(result.imported()).append(" rows in ")
+                .append(String.format("%.2f s (%.0f rows/s)", result.nanos() / 1e9, result.rowsPerSecond()));
+        if (result.skipped() > 0) {
+            reply.append(", ").append(result.skipped()).append(" lines skipped");
+            for (String error : result.errors()) {
+                reply.append(binary ? "\n" : " | ").append(error);
+            }
+        }
+        if (result.failure() != null) {
+            reply.append(", stopped: ").append(result.failure());
+        }
+        threadSays(reply.toString());
+        return reply.toString();
+    }
+
+    /**
+     * Export a table to a file in the export directory of the server, see
+     * {@link TableExporter}. The format is taken from the data field. If the
+     * select field says "download", the file is sent to Admin in an EXPORT
+     * frame straight from the disk, which only the binary protocol can carry.
+     *
+     * @param parcel    Parcel of the EXPORT command.
+     * @return          The reply, telling how many rows were exported and how fast.
+     */
+    private String exportTable(Parcel parcel) {
+        TableSchema schema = TableSchema.fromName(parcel.getTable());
+        if (schema == null) {
+            return "Error: Table Error";
+        }
+        boolean download = "download".equalsIgnoreCase(parcel.getSelect() == null ? "" : parcel.getSelect().trim());
+        if (download && !binary) {
+            return "Error: EXPORT download needs the binary protocol";
+        }
+        TableExporter.Export export;
+        try {
+            export = TableExporter.export(database, schema, ExportFormat.fromName(parcel.getData()));
+            if (download && !sendFile(parcel.getRequestId(), export)) {
+                return "Error: could not send '" + export.path().getFileName() + "', the connection is closing";
+            }
+        } catch (IllegalArgumentException ex) {
+            return "Error: " + ex.getMessage();
+        } catch (SQLException | IOException ex) {
+            Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+            return "Error: could not export '" + schema.getTableName() + "'";
+        }
+        metrics.recordDatabase(export.nanos());
+
+        String reply = "Executing EXPORT of '" + schema.getTableName() + "' to " + export.path().getFileName()
+                + ", " + export.rows() + " rows, " + export.bytes() + " bytes"
+                + (export.nanos() > 0 ? String.format(" in %.2f s", export.nanos() / 1e9)
+                : ", written before at version " + export.version())
+                + (download ? ", downloaded" : "");
+        threadSays(reply);
+        return reply;
+    }
+
+    /**
+     * Send an exported file to Admin: an EXPORT frame telling its table,
+     * format and length, followed by the bytes of the file.
+     *
+     * @param requestId     ID of the request.
+     * @param export        The file.
+     * @return              True if the file was queued, false if the frame before it was not,
+     *                      and the file is not sent either so that Admin never gets bytes it cannot place.
+     * @throws IOException  If the file cannot be opened.
+     */
+    private boolean sendFile(int requestId, TableExporter.Export export) throws IOException {
+        FileRegion file = new FileRegion(export.path());
+        synchronized (outputLock) {
+            OutboundQueue.Result header = write(encoder.begin(MessageType.EXPORT)
+                    .putInt(requestId)
+                    .putByte(export.schema().getCode())
+                    .putByte(export.format().getCode())
+                    .putLong(file.size())
+                    .finish(), OutboundQueue.Kind.DATA, null);
+            if (header != OutboundQueue.Result.QUEUED) {
+                file.close();
+                return false;
+            }
+            writeFile(file);
+            return true;
+        }
+    }
+
+    /**
+     * Make a table the one displayed by Admin, which subscribes to all its
+     * changes, and drop the subscription of the table displayed before
+     * unless Admin subscribed to it explicitly.
+     *
+     * @param table The table Admin asked for.
+     */
+    private void display(String table) {
+        synchronized (outputLock) {
+            TableSchema before = TableSchema.fromName(tableDisplayed);
+            TableSchema after = TableSchema.fromName(table);
+            tableDisplayed = table;
+            if (before != null && before != after && !subscriptions.containsKey(before)) {
+                ThreadedServer.subscriptions().update(this, before, false);
+                sentVersions.remove(before);
+            }
+            if (after != null) {
+                ThreadedServer.subscriptions().update(this, after, true);
+            }
+        }
+    }
+
+    /**
+     * Subscribe to the changes of the tables named in the table field, separated
+     * by commas. A 'column=value' filter in the select field limits the changes
+     * to the rows whose column has that value.
+     * <p>
+     * Only the changes committed from now on are sent, as DELTA frames; a table
+     * Admin falls too far behind on is sent whole. Subscribing can only be done
+     * in the binary protocol, as the text one does not tell which table a line is.
+     *
+     * @param parcel    Parcel of the SUBSCRIBE command.
+     * @return          The reply.
+     */
+    private String subscribe(Parcel parcel) {
+        if (!binary) {
+            return "Error: SUBSCRIBE needs the binary protocol";
+        }
+        List<Subscription> added = new ArrayList<>();
+        try {
+            for (TableSchema schema : parseTables(parcel.getTable())) {
+                added.add(Subscription.parse(schema, parcel.getSelect()));
+            }
+        } catch (IllegalArgumentException ex) {
+            return "Error: " + ex.getMessage();
+        }
+        if (added.isEmpty()) {
+            return "Error: SUBSCRIBE needs at least one table";
+        }
+        for (Subscription subscription : added) {
+            // registered first, so no change committed after the version below is missed
+            ThreadedServer.subscriptions().update(this, subscription.schema(), true);
+            synchronized (outputLock) {
+                subscriptions.put(subscription.schema(), subscription);
+                sentVersions.putIfAbsent(subscription.schema(), database.getVersion(subscription.schema()));
+            }
+        }
+        return "Executing SUBSCRIBE on " + describe(added);
+    }
+
+    /**
+     * Unsubscribe from the tables named in the table field, or from every table
+     * if it is empty. The table displayed keeps being watched until Admin GETs another.
+     *
+     * @param parcel    Parcel of the UNSUBSCRIBE command.
+     * @return          The reply.
+     */
+    private String unsubscribe(Parcel parcel) {
+        List<TableSchema> tables;
+        try {
+            tables = parcel.getTable() == null || parcel.getTable().isBlank()
+                    ? List.of(TableSchema.values()) : parseTables(parcel.getTable());
+        } catch (IllegalArgumentException ex) {
+            return "Error: " + ex.getMessage();
+        }
+        synchronized (outputLock) {
+            TableSchema displayed = TableSchema.fromName(tableDisplayed);
+            for (TableSchema schema : tables) {
+                subscriptions.remove(schema);
+                if (schema != displayed) {
+                    ThreadedServer.subscriptions().update(this, schema, false);
+                    sentVersions.remove(schema);
+                }
+            }
+            return "Executing UNSUBSCRIBE, subscribed to " + describe(List.copyOf(subscriptions.values()));
+        }
+    }
+
+    /**
+     * @param tables    Names of tables separated by commas.
+     * @return          The tables.
+     * @throws IllegalArgumentException If a name is not a table.
+     */
+    private static List<TableSchema> parseTables(String tables) {
+        List<TableSchema> schemas = new ArrayList<>();
+        if (tables != null) {
+            for (String name : tables.split(",")) {
+                TableSchema schema = TableSchema.fromName(name.trim());
+                if (schema == null) {
+                    throw new IllegalArgumentException("no table '" + name.trim() + "'");
+                }
+                schemas.add(schema);
+            }
+        }
+        return schemas;
+    }
+
+    /**
+     * @param subscriptions Subscriptions of Admin.
+     * @return              A readable list of them, for the replies.
+     */
+    private static String describe(List<Subscription> subscriptions) {
+        if (subscriptions.isEmpty()) {
+            return "no table";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Subscription subscription : subscriptions) {
+            if (text.length() > 0) text.append(", ");
+            text.append('\'').append(subscription.schema().getTableName()).append('\'');
+            if (!subscription.isWholeTable()) {
+                text.append(" where ").append(subscription.cell() == 0
+                        ? subscription.schema().getIdColumn()
+                        : subscription.schema().getEditableColumns()[subscription.cell() - 1].name())
+                        .append('=').append(subscription.value());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param schema    A table.
+     * @return          What Admin wants of its changes, or null if nothing. Guarded by outputLock.
+     */
+    private Subscription interest(TableSchema schema) {
+        if (schema.getTableName().equals(tableDisplayed)) {
+            // the displayed table is kept whole, whatever filter Admin subscribed with
+            return Subscription.all(schema);
+        }
+        return subscriptions.get(schema);
+    }
+
+    /**
+     * This method recognises the table, gets it from the database
+     * and sends it back to Admin.
+     *
+     * @param table Table to be sent to Admin.
+     */
+    protected void getUpdatedTable(String table) {
+        if (table != null) {
+            long start = System.nanoTime();
+            TableSnapshot snapshot = database.commandSync(table);
+            metrics.recordDatabase(System.nanoTime() - start);
+            if (snapshot != null) {
+                sendTable(snapshot);
+            } else {
+                System.out.println("Error: Table Error");
+            }
+        }
+    }
+
+    /**
+     * This method streams one page of a table to Admin in chunks, as the rows
+     * are read from the database. The page size is taken from the data field
+     * and the ID of the last row already seen from the select field.
+     *
+     * @param parcel    Parcel of the PAGE command.
+     * @return          The reply, telling where the next page starts.
+     */
+    private String sendPage(Parcel parcel) {
+        TableSchema schema = TableSchema.fromName(parcel.getTable());
+        if (schema == null) {
+            return "Error: Table Error";
+        }
+        int pageSize;
+        Integer cursor;
+        try {
+            pageSize = parcel.getData() == null ? DEFAULT_PAGE_SIZE
+                    : Math.min(MAX_PAGE_SIZE, Math.max(1, Integer.parseInt(parcel.getData().trim())));
+            cursor = parcel.getSelect() == null ? null : Integer.valueOf(parcel.getSelect().trim());
+        } catch (NumberFormatException ex) {
+            return "Error: PAGE needs a page size in the data field and a row ID in the select field";
+        }
+
+        StreamedRows page;
+        try {
+            page = streamRows(schema, parcel.getRequestId(), Math.min(pageSize, PAGE_CHUNK_ROWS),
+                    rows -> database.streamPage(schema, cursor, pageSize, rows));
+        } catch (SQLException ex) {
+            Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+            return "Error: could not read the page of '" + schema.getTableName() + "'";
+        }
+        return page.hasMore()
+                ? "Executing PAGE on '" + schema.getTableName() + "', next page after " + page.lastId()
+                : "Executing PAGE on '" + schema.getTableName() + "', last page";
+    }
+
+    /**
+     * This method streams the rows of a table that match the query of a QUERY
+     * to Admin, in chunks like a page. The query is taken from the parcel in
+     * the binary protocol, otherwise it is read from the data field.
+     *
+     * @param parcel    Parcel of the QUERY command.
+     * @return          The reply, telling how many rows were sent.
+     */
+    private String sendQuery(Parcel parcel) {
+        TableSchema schema = TableSchema.fromName(parcel.getTable());
+        if (schema == null) {
+            return "Error: Table Error";
+        }
+        QueryCompiler.CompiledQuery query;
+        try {
+            query = QueryCompiler.compile(schema,
+                    parcel.getQuery() != null ? parcel.getQuery() : Query.parse(parcel.getData()), MAX_PAGE_SIZE);
+        } catch (IllegalArgumentException ex) {
+            return "Error: " + ex.getMessage();
+        }
+
+        StreamedRows result;
+        try {
+            result = streamRows(schema, parcel.getRequestId(), Math.min(query.limit(), PAGE_CHUNK_ROWS),
+                    rows -> database.streamQuery(schema, query, rows));
+        } catch (SQLException ex) {
+            Logger.getLogger(AdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+            return "Error: could not read the rows of '" + schema.getTableName() + "' that match the query";
+        }
+        return "Executing QUERY on '" + schema.getTableName() + "', " + result.rowCount() + " rows"
+                + (result.hasMore() ? ", more match beyond the limit" : "");
+    }
+
+    /**
+     * This method sends the standings of a league in a season, which are kept
+     * up to date in memory, so no match is read. The league is taken from the
+     * data field and the season from the select field. In the binary protocol
+     * they are sent in a STANDINGS frame, in the text protocol in the reply.
+     *
+     * @param parcel    Parcel of the STANDINGS command.
+     * @return          The reply.
+     */
+    private String sendStandings(Parcel parcel) {
+        Standings standings = database.getStandings();
+        if (standings == null) {
+            return "Error: the standings are not available";
+        }
+        if (parcel.getData() == null || parcel.getSelect() == null) {
+            return "Error: STANDINGS needs a league in the data field and a season in the select field";
+        }
+        long version = standings.getVersion();
+        List<StandingsRow> rows = standings.get(parcel.getData(), parcel.getSelect());
+        if (rows == null) {
+            return "Error: no results of '" + parcel.getData().trim() + "' in " + parcel.getSelect().trim();
+        }
+        String title = "Standings of '" + parcel.getData().trim() + "' in " + parcel.getSelect().trim();
+        if (!binary) {
+            StringBuilder reply = new StringBuilder(title).append(':');
+            for (StandingsRow row : rows) {
+                reply.append(" | ").append(row);
+            }
+            return reply.toString();
+        }
+        synchronized (outputLock) {
+            long start = System.nanoTime();
+            encoder.begin(MessageType.STANDINGS)
+                    .putInt(parcel.getRequestId())
+                    .putString(parcel.getData().trim())
+                    .putString(parcel.getSelect().trim())
+                    .putLong(version)
+                    .putInt(rows.size());
+            for (StandingsRow row : rows) {
+                row.encode(encoder);
+            }
+            ByteBuffer frame = encoder.finish();
+            metrics.recordSerialization(System.nanoTime() - start);
+            write(frame);
+        }
+        return "Executing STANDINGS, " + title + ", " + rows.size() + " teams";
+    }
+
+    /**
+     * This method sends the best prices of matches across the bookies, with
+     * the overround of each, which are kept up to date in memory, so no odds
+     * are read. MARGINS sends the match whose ID is in the select field, or
+     * every match, the lowest overround first; ARBITRAGE sends only the
+     * matches that can be backed at a profit. In the binary protocol the rows
+     * are sent in a MARGINS frame, in the text protocol in the reply.
+     *
+     * @param parcel    Parcel of the MARGINS or ARBITRAGE command.
+     * @return          The reply.
+     */
+    private String sendMargins(Parcel parcel) {
+        OddsBook book = database.getOddsBook();
+        if (book == null) {
+            return "Error: the margins are not available";
+        }
+        long version = book.getVersion();
+        List<OddsBook.Margin> margins;
+        if (parcel.getCommand() == Commands.ARBITRAGE) {
+            margins = book.arbitrage();
+        } else if (parcel.getSelect() != null && !parcel.getSelect().isBlank()) {
+            OddsBook.Margin margin;
+            try {
+                margin = book.get(Integer.parseInt(parcel.getSelect().trim()));
+            } catch (NumberFormatException ex) {
+                return "Error: MARGINS needs a match_id in the select field, or nothing for all matches";
+            }
+            if (margin == null) {
+                return "Error: match " + parcel.getSelect().trim() + " is not priced for every outcome";
+            }
+            margins = List.of(margin);
+        } else {
+            margins = book.all();
+        }
+        int total = margins.size();
+        margins = margins.subList(0, Math.min(total, MAX_PAGE_SIZE));
+
+        Map<Integer, String> bookieNames = new HashMap<>();
+        TableSnapshot bookies = database.commandSync(TableSchema.BOOKIES.getTableName());
+        if (bookies != null) {
+            for (TableRow row : bookies.rows()) {
+                BookiesTable bookie = (BookiesTable) row;
+                bookieNames.put(bookie.bookie_id(), bookie.name());
+            }
+        }
+        List<MarginRow> rows = new ArrayList<>(margins.size());
+        for (OddsBook.Margin margin : margins) {
+            rows.add(margin.toRow(bookieNames, database.getMatchStore()));
+        }
+
+        String title = parcel.getCommand() + ", " + rows.size() + " of " + total + " matches";
+        if (!binary) {
+            StringBuilder reply = new StringBuilder("Executing ").append(title).append(':');
+            for (MarginRow row : rows) {
+                reply.append(" | ").append(row);
+            }
+            return reply.toString();
+        }
+        synchronized (outputLock) {
+            long start = System.nanoTime();
+            encoder.begin(MessageType.MARGINS)
+                    .putInt(parcel.getRequestId())
+                    .putLong(version)
+                    .putInt(total)
+                    .putInt(rows.size());
+            for (MarginRow row : rows) {
+                row.encode(encoder);
+            }
+            ByteBuffer frame = encoder.finish();
+            metrics.recordSerialization(System.nanoTime() - start);
+            write(frame);
+        }
+        return "Executing " + title;
+    }
+
+    /**
+     * Reads rows from the database, handing each to a receiver.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        /**
+         * @param rows          Receiver of the rows.
+         * @return              True if there are more rows than were read.
+         * @throws SQLException If the rows cannot be read.
+         */
+        boolean read(Consumer<TableRow> rows) throws SQLException;
+    }
+
+    /**
+     * What was streamed to Admin.
+     *
+     * @param rowCount  Number of rows sent.
+     * @param lastId    ID of the last row sent, -1 if none.
+     * @param hasMore   True if there are more rows than were sent.
+     */
+    private record StreamedRows(int rowCount, int lastId, boolean hasMore) {
+    }
+
+    /**
+     * Stream rows to Admin in chunks as they are read from the database,
+     * ending with a PAGE_END frame in the binary protocol.
+     * <p>
+     * The output is only held while a chunk is written, not while the rows
+     * are read, so changes published to Admin meanwhile are not held up by
+     * the database. The text protocol sends all the rows on a single line,
+     * so they are kept until the last one is read and then written at once.
+     * If the rows cannot all be read, no PAGE_END or line is sent, the reply
+     * is to tell Admin.
+     *
+     * @param schema        The table.
+     * @param requestId     ID of the request, put in the PAGE_END frame.
+     * @param chunkSize     Number of rows the first chunk is sized for.
+     * @param source        Reads the rows.
+     * @return              What was sent.
+     * @throws SQLException If the rows cannot be read.
+     */
+    private StreamedRows streamRows(TableSchema schema, int requestId, int chunkSize, RowSource source)
+            throws SQLException {
+        List<TableRow> chunk = new ArrayList<>(chunkSize);
+        StringBuilder line = binary ? null : new StringBuilder("SQL_TABLE[");
+        int[] lastId = {-1};
+        int[] rowCount = {0};
+        boolean[] first = {true};
+        long[] chunkNanos = {0};
+        long start = System.nanoTime();
+        boolean hasMore = source.read(row -> {
+            chunk.add(row);
+            lastId[0] = row.id();
+            rowCount[0]++;
+            if (chunk.size() == PAGE_CHUNK_ROWS) {
+                chunkNanos[0] += sendPageChunk(schema, chunk, first[0], line);
+                first[0] = false;
+                chunk.clear();
+            }
+        });
+        // the time of the rows in the database, without sending the chunks
+        metrics.recordDatabase(System.nanoTime() - start - chunkNanos[0]);
+        if (!chunk.isEmpty() || first[0]) sendPageChunk(schema, chunk, first[0], line);
+        if (binary) {
+            synchronized (outputLock) {
+                write(encoder.begin(MessageType.PAGE_END)
+                        .putInt(requestId)
+                        .putByte(schema.getCode())
+                        .putInt(lastId[0])
+                        .putByte((byte) (hasMore ? 1 : 0))
+                        .finish());
+            }
+        } else {
+            write(ByteBuffer.wrap(line.append("]\n").toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        return new StreamedRows(rowCount[0], lastId[0], hasMore);
+    }
+
+    /**
+     * Send one chunk of a page as a frame, or add it to the text line.
+     *
+     * @param schema    The table.
+     * @param chunk     Rows of the chunk.
+     * @param first     True for the first chunk of the page.
+     * @param line      The text line of the rows, null in the binary protocol.
+     * @return          Time it took to encode and write the chunk.
+     */
+    private long sendPageChunk(TableSchema schema, List<TableRow> chunk, boolean first, StringBuilder line) {
+        long start = System.nanoTime();
+        if (line != null) {
+            for (int i = 0; i < chunk.size(); i++) {
+                if (!first || i > 0) line.append(", ");
+                line.append(chunk.get(i));
+            }
+            metrics.recordSerialization(System.nanoTime() - start);
+            return System.nanoTime() - start;
+        }
+        synchronized (outputLock) {
+            encoder.begin(MessageType.PAGE_CHUNK)
+                    .putByte(schema.getCode())
+                    .putByte((byte) (first ? 1 : 0))
+                    .putInt(chunk.size());
+            for (TableRow row : chunk) {
+                row.encode(encoder);
+            }
+            ByteBuffer frame = encoder.finish();
+            metrics.recordSerialization(System.nanoTime() - start);
+            write(frame);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Send a committed change to Admin if it is subscribed to the changed table.
+     * <p>
+     * In the binary protocol only the changed rows that pass the filter of the
+     * subscription are sent, including any earlier changes Admin has not received
+     * yet; a row edited so that it no longer passes is sent as deleted. If those
+     * are no longer remembered, or Admin uses the text protocol,
+     * the whole table is sent instead.
+     *
+     * @param change  The committed change.
+     * @return          Number of bytes written to Admin.
+     */
+    protected long sendChange(TableChange change) {
+        TableSchema schema = change.schema();
+        synchronized (outputLock) {
+            Subscription subscription = interest(schema);
+            if (subscription == null) {
+                return 0;
+            }
+            long before = bytesWritten.get();
+            if (!binary) {
+                getUpdatedTable(schema.getTableName());
+                return bytesWritten.get() - before;
+            }
+            long sentVersion = sentVersions.getOrDefault(schema, -1L);
+            if (change.version() <= sentVersion) {
+                return 0;
+            }
+            List<TableChange> missing = database.changesBetween(schema, sentVersion, change.version());
+            if (missing == null) {
+                getUpdatedTable(schema.getTableName());
+                return bytesWritten.get() - before;
+            }
+            for (TableChange delta : missing) {
+                // a row edited out of the filter is deleted from the view of Admin
+                SharedBytes frame = subscription.matches(delta) ? delta.frame()
+                        : subscription.leaves(delta) ? delta.leaveFrame() : null;
+                if (frame != null
+                        && writeShared(frame.get(deflater), OutboundQueue.Kind.DELTA, schema)
+                        == OutboundQueue.Result.FULL) {
+                    // Admin is behind, one snapshot replaces all the changes it has not read yet
+                    getUpdatedTable(schema.getTableName());
+                    return bytesWritten.get() - before;
+                }
+            }
+            sentVersions.put(schema, change.version());
+            return bytesWritten.get() - before;
+        }
+    }
+
+    /**
+     * Send a whole table to Admin, as typed rows in the binary protocol
+     * or as the string of the list in the text protocol. The bytes are
+     * encoded once per snapshot and shared with every other connection.
+     *
+     * @param snapshot The table at a version.
+     */
+    protected void sendTable(TableSnapshot snapshot) {
+        synchronized (outputLock) {
+            sentVersions.put(snapshot.schema(), snapshot.version());
+            ByteBuffer bytes = binary ? snapshot.frame().get(deflater) : snapshot.textLine().get();
+            writeShared(bytes, OutboundQueue.Kind.SNAPSHOT, snapshot.schema());
+        }
+    }
+
+    /**
+     * Send the reply to a parcel to Admin.
+     *
+     * @param requestId ID of the request the reply belongs to, 0 if Admin did not give one.
+     * @param message   The reply.
+     */
+    protected void sendReply(int requestId, String message) {
+        synchronized (outputLock) {
+            if (binary) {
+                write(encoder.begin(MessageType.REPLY).putInt(requestId).putString(message).finish());
+            } else {
+                sendText(message);
+            }
+        }
+    }
+
+    /**
+     * This method sends the datetime broadcast to Admin.
+     *
+     * @return Number of bytes written to Admin.
+     */
+    protected long sendBroadcast() {
+        synchronized (outputLock) {
+            long before = bytesWritten.get();
+            ByteBuffer bytes = binary
+                    ? encoder.begin(MessageType.BROADCAST).putLong(System.currentTimeMillis()).finish()
+                    : ByteBuffer.wrap(("SERVER_BROADCAST: " + new Date() + "\n").getBytes(StandardCharsets.UTF_8));
+            write(bytes, OutboundQueue.Kind.BROADCAST, null);
+            return bytesWritten.get() - before;
+        }
+    }
+
+    /**
+     * Send a single line of the text protocol to Admin.
+     *
+     * @param line Line to be sent, without the line terminator.
+     */
+    protected void sendText(String line) {
+        write(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Called once the connection to Admin has been lost.
+     */
+    protected void connectionLost() {
+        threadSays("We have lost connection to client " + connectionNumber + ".");
+        ThreadedServer.removeThread(this);
+    }
+
+    /**
+     * Helper method outputs to standard output stream for debugging.
+     *
+     * @param say the String to write to standard output stream.
+     */
+    protected void threadSays(String say) {
+        System.out.println("ClientHandlerThread " + connectionNumber + ": " + say);
+    }
+
+    /**
+     * Log what happens to a single request. Logged at the FINE level,
+     * otherwise only one in {@code server.requestLogSample} requests is logged at INFO.
+     *
+     * @param say the String to log.
+     */
+    protected void requestSays(String say) {
+        if (REQUEST_LOG.isLoggable(Level.FINE)) {
+            REQUEST_LOG.fine("ClientHandlerThread " + connectionNumber + ": " + say);
+        } else if (REQUEST_LOG_SAMPLE > 0 && requestsLogged.incrementAndGet() % REQUEST_LOG_SAMPLE == 0) {
+            REQUEST_LOG.info("ClientHandlerThread " + connectionNumber + ": " + say
+                    + " (1 in " + REQUEST_LOG_SAMPLE + " requests logged)");
+        }
+    }
+}
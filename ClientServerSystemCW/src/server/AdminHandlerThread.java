@@ -1,13 +1,16 @@
 package server;
 
-import both.*;
+import both.FrameDecoder;
+import both.FrameInputStream;
+
 import java.io.*;
 import java.net.Socket;
-import java.util.Date;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.io.BufferedReader;
-import java.io.PrintWriter;
 
 /**
  * This is our thread class with the responsibility of handling client requests
@@ -16,40 +19,36 @@ import java.io.PrintWriter;
  * There are two ways to make a thread, one is to extend from the Thread class.
  * The other way is to implement the Runnable interface. Implementing Runnable
  * is better because we do not have to waste our inheritance option.
+ * <p>
+ * This is the blocking mode of the server, which uses one platform thread per Admin
+ * to read and another one to write.
  *
  * @author Chris Bass, modified by Maksymilian Ćwirzeń
  */
-class AdminHandlerThread implements Runnable {
+class AdminHandlerThread extends AdminConnection implements Runnable {
 
     private final Socket socket;
-    private final SQLiteDatabase database;
 
-    private final PrintWriter printWriter;
-    private final BufferedReader bufferedReader;
-
-    private static int connectionCount = 0;
-    private final int connectionNumber;
-    protected String tableDisplayed = null;
+    private final OutputStream outputStream;
+    private final FrameInputStream inputStream;
 
     /**
      * Constructor just initialises the connection to client.
      *
      * @param socket        The socket to establish the connection to client.
      * @param database      The link to the SQLiteDatabase class.
+     * @param requests      The pool executing the requests Admin sends with a request ID.
      * @throws IOException  If an I/O error occurs when creating the input and
      *                      output streams, or if the socket is closed, or socket is not connected.
      */
-    protected AdminHandlerThread(Socket socket, SQLiteDatabase database) throws IOException {
+    protected AdminHandlerThread(Socket socket, SQLiteDatabase database, Executor requests) throws IOException {
+        super(database, requests);
         this.socket = socket;
-        this.database = database;
 
-        printWriter = new PrintWriter(socket.getOutputStream(), true);
-        bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        outputStream = socket.getOutputStream();
+        inputStream = new FrameInputStream(socket.getInputStream());
 
-        connectionCount++;
-        connectionNumber = connectionCount;
-        printWriter.println("You are client number" + connectionNumber);
-        threadSays("Connection " + connectionNumber + " established.");
+        greet();
     }
 
     /**
@@ -60,113 +59,84 @@ class AdminHandlerThread implements Runnable {
      */
     @Override
     public void run() {
+        Thread writer = new Thread(this::keepWriting, "admin-writer-" + connectionNumber);
+        writer.setDaemon(true);
+        writer.start();
         try {
             // Read and process names until an exception is thrown.
-            threadSays("Waiting for data from client...");
-            String lineRead;
-            while ((lineRead = bufferedReader.readLine()) != null) {
-                Parcel parcel = new Parcel();
-                parcel.unpackParcel(lineRead.split(";"));
-                threadSays("Read data from client: \"" + lineRead + "\".");
-
-                String replyMessage = null;
-
-                switch (parcel.getCommand()) {
-
-                    case ADD -> {
-                        replyMessage = "Executing ADD on '" + parcel.getTable() + "'";
-
-                        // execute sql query
-                        database.commandAdd(parcel.getTable(), parcel.getData());
-
-                        // update the database for all users
-                        ThreadedServer.synchronise();
+            requestSays("Waiting for data from client...");
+            while (true) {
+                try {
+                    if (isBinary()) {
+                        FrameDecoder frame = inputStream.readFrame();
+                        if (frame == null) break;
+                        handleFrame(frame);
+                    } else {
+                        String lineRead = inputStream.readTextLine();
+                        if (lineRead == null) break;
+                        handleLine(lineRead);
                     }
-
-                    case DELETE -> {
-                        replyMessage = "Executing DELETE on the line number " + parcel.getSelect() +
-                                " of the '" + parcel.getTable() + "' table.";
-
-                        // execute sql query
-                        database.commandDelete(parcel.getTable(), parcel.getSelect());
-
-                        // update the database for all users
-                        ThreadedServer.synchronise();
-                    }
-                    case EDIT -> {
-                        replyMessage = "Executing EDIT on the line number " + parcel.getSelect() +
-                                " of the '" + parcel.getTable() + "' table.";
-
-                        // execute sql query
-                        database.commandEdit(parcel.getTable(), parcel.getData(), parcel.getSelect());
-
-                        // update the database for all users
-                        ThreadedServer.synchronise();
-                    }
-                    case GET -> {
-                        replyMessage = "Executing GET on '" + parcel.getTable() + "'";
-                        this.tableDisplayed = parcel.getTable();
-
-                        // execute sql query
-                        database.commandSync(parcel.getTable());
-                        getUpdatedTable(parcel.getTable());
-                    }
-                    default -> System.out.println("Error: Parcel Error");
+                } catch (RuntimeException ex) {
+                    // a frame of an unknown type, or a request that failed, must not end the connection
+                    requestFailed(0, ex);
                 }
-                printWriter.println(replyMessage);
             }
         } catch (IOException ex) {
             Logger.getLogger(AdminHandlerThread.class.getName()).log(Level.SEVERE, null, ex);
         } finally {
-            try {
-                threadSays("We have lost connection to client " + connectionNumber + ".");
-                ThreadedServer.removeThread(this);
-                socket.close();
-            } catch (IOException ex) {
-                Logger.getLogger(AdminHandlerThread.class.getName()).log(Level.SEVERE, null, ex);
-            }
+            connectionLost();
+            close();
         }
     }
 
     /**
-     * This method recognises the table, gets it from the database
-     * and sends it back to Admin.
-     *
-     * @param table Table to be sent to Admin.
+     * Keep writing the queued output to the socket until the connection is closed.
+     * This runs on the writer thread of the connection.
      */
-    protected void getUpdatedTable(String table) {
-        if (table != null) {
-            switch (table) {
-                case "odds" -> {
-                    database.commandSync(table);
-                    printWriter.println("SQL_TABLE" + database.oddsTableList);
-                }
-                case "bookies" -> {
-                    database.commandSync(table);
-                    printWriter.println("SQL_TABLE" + database.bookiesTableList);
-                }
-                case "football-match-data" -> {
-                    database.commandSync(table);
-                    printWriter.println("SQL_TABLE" + database.matchTableList);
+    private void keepWriting() {
+        // files are sent through the channel of the socket, a socket of its own has none
+        WritableByteChannel channel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(outputStream);
+        try {
+            OutboundQueue.Message message;
+            while ((message = takeOutbound()) != null) {
+                long start = System.nanoTime();
+                if (message.file() != null) {
+                    try (FileRegion file = message.file()) {
+                        while (file.hasRemaining()) {
+                            file.transferTo(channel);
+                        }
+                    }
+                } else {
+                    ByteBuffer bytes = message.bytes();
+                    outputStream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
                 }
-                default -> System.out.println("Error: Table Error");
+                ServerMetrics.INSTANCE.recordSocketWrite(System.nanoTime() - start);
             }
+        } catch (IOException ex) {
+            threadSays("Could not write to client: " + ex.getMessage());
+            close();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * This method sends the datetime broadcast to Admin.
+     * Nothing to do, the writer thread wakes up by itself.
      */
-    protected void sendBroadcast() {
-        printWriter.println("SERVER_BROADCAST: " + new Date());
+    @Override
+    protected void outboundReady() {
     }
 
     /**
-     * Private helper method outputs to standard output stream for debugging.
-     *
-     * @param say the String to write to standard output stream.
+     * Close the socket and stop the writer thread.
      */
-    private void threadSays(String say) {
-        System.out.println("ClientHandlerThread " + connectionNumber + ": " + say);
+    @Override
+    protected void close() {
+        closeOutbound();
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Logger.getLogger(AdminHandlerThread.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
-}
\ No newline at end of file
+}
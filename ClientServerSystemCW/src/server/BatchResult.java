@@ -0,0 +1,26 @@
+package server;
+
+import java.util.List;
+
+/**
+ * This class holds the result of a committed BATCH, one entry per operation
+ * in the order the operations were sent.
+ * <p>
+ * An operation that changed a row has its change; one that found nothing to
+ * change has neither a change nor an error; one that failed has only its error.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+record BatchResult(List<TableChange> changes, List<String> errors) {
+
+    /**
+     * @return Number of operations that failed.
+     */
+    protected int failedCount() {
+        int failed = 0;
+        for (String error : errors) {
+            if (error != null) failed++;
+        }
+        return failed;
+    }
+}
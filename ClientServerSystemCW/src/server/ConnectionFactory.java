@@ -1,26 +1,209 @@
 package server;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The purpose of this class is to encapsulate connecting to the SQLite database.
+ * <p>
+ * Opening a SQLite connection means opening the file, loading the schema and
+ * warming up the page cache, so connections are kept in a small bounded pool
+ * and reused. Every new connection is set up for WAL journaling, which lets
+ * readers run next to a writer, and gets the function reading the prices
+ * 'odds' kept as text, see {@link OddsMigration}. The pool is meant for reading; the single
+ * writer has its own connection from {@link #getWriteConnection()}. The database file is taken from the
+ * {@code db.path} system property, or the {@code FOOTBALL_DB_PATH} environment
+ * variable, and defaults to the copy bundled with the project.
  *
- * @author Chris Bass
+ * @author Chris Bass, modified by Maksymilian Ćwirzeń
  */
 class ConnectionFactory {
 
-    private static final String DB_URL = "jdbc:sqlite:C:\\Users\\Kimberly Ng\\IdeaProjects" +
-            "\\cwirzenmCoursework\\FootballBetting-SQL\\football-match-data.sqlite";
+    private static final String DEFAULT_DB_PATH = "FootballBetting-SQL/football-match-data.sqlite";
+    private static final String DB_URL = "jdbc:sqlite:" + System.getProperty("db.path",
+            System.getenv().getOrDefault("FOOTBALL_DB_PATH", DEFAULT_DB_PATH));
+
+    private static final int POOL_SIZE = Integer.getInteger("db.poolSize",
+            Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+    private static final String[] PRAGMAS = {
+            "PRAGMA journal_mode=WAL",
+            "PRAGMA synchronous=NORMAL",
+            "PRAGMA mmap_size=268435456",
+            "PRAGMA cache_size=-16000",
+            "PRAGMA busy_timeout=5000"
+    };
+
+    private static final BlockingQueue<Connection> IDLE_CONNECTIONS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final AtomicInteger OPEN_CONNECTIONS = new AtomicInteger();
 
     /**
      * Get a connection to our SQLite database.
      *
      * @return Connection object, remember to close this connection object after
-     * using to avoid memory leaks, connection objects are expensive.
+     * using it, closing gives it back to the pool.
+     * @throws SQLException If no connection can be opened, or none is returned to the pool in time.
      */
     protected static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DB_URL);
+        Connection connection = IDLE_CONNECTIONS.poll();
+        while (true) {
+            if (connection == null) {
+                if (OPEN_CONNECTIONS.incrementAndGet() <= POOL_SIZE) {
+                    try {
+                        connection = openConnection();
+                    } catch (SQLException ex) {
+                        OPEN_CONNECTIONS.decrementAndGet();
+                        throw ex;
+                    }
+                } else {
+                    OPEN_CONNECTIONS.decrementAndGet();
+                    connection = borrowIdle();
+                }
+            }
+            if (isHealthy(connection)) {
+                return pooled(connection);
+            }
+            discard(connection);
+            connection = null;
+        }
+    }
+
+    /**
+     * Open a connection for the writer thread of {@link SQLiteDatabase}.
+     * It is not part of the pool, so writing never takes a connection away from the readers.
+     *
+     * @return A new connection, to be closed by the writer when it stops.
+     * @throws SQLException If the database cannot be opened.
+     */
+    protected static Connection getWriteConnection() throws SQLException {
+        return openConnection();
+    }
+
+    /**
+     * Open a new physical connection and apply the pragmas.
+     *
+     * @return The new connection.
+     * @throws SQLException If the database cannot be opened.
+     */
+    private static Connection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(DB_URL);
+        try (Statement statement = connection.createStatement()) {
+            for (String pragma : PRAGMAS) {
+                statement.execute(pragma);
+            }
+            OddsMigration.registerFunction(connection);
+        } catch (SQLException ex) {
+            connection.close();
+            throw ex;
+        }
+        return connection;
+    }
+
+    /**
+     * Wait for another thread to return a connection.
+     *
+     * @return An idle connection.
+     * @throws SQLException If none is returned in time.
+     */
+    private static Connection borrowIdle() throws SQLException {
+        try {
+            Connection connection = IDLE_CONNECTIONS.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (connection == null) {
+                throw new SQLException("No database connection available after " +
+                        BORROW_TIMEOUT_SECONDS + " seconds");
+            }
+            return connection;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ex);
+        }
+    }
+
+    /**
+     * @param connection    Connection taken from the pool.
+     * @return              True if the connection can still be used.
+     */
+    private static boolean isHealthy(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(1);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Give a connection back to the pool, or close it if it is broken.
+     *
+     * @param connection The physical connection.
+     */
+    private static void release(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (!IDLE_CONNECTIONS.offer(connection)) {
+                discard(connection);
+            }
+        } catch (SQLException ex) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Close a connection for good and free its place in the pool.
+     *
+     * @param connection The physical connection.
+     */
+    private static void discard(Connection connection) {
+        OPEN_CONNECTIONS.decrementAndGet();
+        try {
+            connection.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(ConnectionFactory.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Wrap a physical connection so that closing it returns it to the pool.
+     *
+     * @param connection    The physical connection.
+     * @return              The connection handed out to the caller.
+     */
+    private static Connection pooled(Connection connection) {
+        boolean[] closed = {false};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                release(connection);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return closed[0] || connection.isClosed();
+                        }
+                    }
+                    if (closed[0]) {
+                        throw new SQLException("Connection has been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
     }
-}
\ No newline at end of file
+}
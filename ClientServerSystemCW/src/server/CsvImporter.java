@@ -0,0 +1,533 @@
+package server;
+
+import both.Column;
+import both.TableSchema;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class imports a CSV file into a table, as the IMPORT command.
+ * <p>
+ * The file is read from the import directory, {@code import.dir}, a line at
+ * a time. Chunks of lines are parsed on a pool of {@code import.threads}
+ * threads, shared by all imports, while the next ones are read, and the rows are inserted in
+ * transactions of {@code import.batchRows} rows by the writer thread, see
+ * {@link SQLiteDatabase#commandImport(TableSchema, List)}, so a season costs
+ * a handful of commits instead of one per row. Other writes are executed
+ * between the transactions. Only a few chunks and batches are held at once,
+ * however long the file is.
+ * <p>
+ * The first line names the columns. A column of the table is read from the
+ * column of the file with the same name, in any case; the files of
+ * football-data.co.uk are understood as they are, so their Date and Time make
+ * up the Datetime of a match, and the Home, Away, HG, AG and Res of the files
+ * of the extra leagues are the HomeTeam, AwayTeam, FTHG, FTAG and FTR of the
+ * table. Columns of the file the table does not have, like the odds, are
+ * ignored. The settings, like {@code Season=2019/2020, League=Premier League},
+ * give the value of a column for every row, as the files do not say which
+ * season or league they are; a column neither the file nor the settings give
+ * is left NULL. A line that cannot be read is skipped and reported.
+ * <p>
+ * Rows are not sent to the admins one by one: the import is published once,
+ * when it has finished, by its last change.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class CsvImporter {
+
+    private static final Path IMPORT_DIR = Path.of(System.getProperty("import.dir", "import")).toAbsolutePath().normalize();
+    private static final int BATCH_ROWS = Integer.getInteger("import.batchRows", 5000);
+    private static final int PARSE_THREADS = Integer.getInteger("import.threads", Runtime.getRuntime().availableProcessors());
+    private static final int CHUNK_LINES = 1000;
+    private static final int ERRORS_KEPT = 5;
+    private static final AtomicInteger parserCount = new AtomicInteger();
+
+    // one pool for all imports, so imports running at once do not add threads
+    private static final ExecutorService PARSERS = Executors.newFixedThreadPool(Math.max(1, PARSE_THREADS),
+            runnable -> {
+                Thread thread = new Thread(runnable, "csv-parser-" + parserCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // names the files of football-data.co.uk give columns of 'football-match-data'
+    private static final Map<String, String> MATCH_ALIASES = Map.of(
+            "home", "HomeTeam",
+            "away", "AwayTeam",
+            "hg", "FTHG",
+            "ag", "FTAG",
+            "res", "FTR");
+
+    private final SQLiteDatabase database;
+    private final TableSchema schema;
+    private final Column[] columns;
+    private final Map<Column, String> settings = new LinkedHashMap<>();
+
+    /**
+     * Finds the value of one column in the cells of a line.
+     */
+    @FunctionalInterface
+    private interface CellReader {
+        /**
+         * @param cells Cells of a line.
+         * @return      The value as text, null if there is none.
+         * @throws IllegalArgumentException If the cells cannot make up a value.
+         */
+        String read(String[] cells);
+    }
+
+    /**
+     * What an import did.
+     *
+     * @param imported      Number of rows committed.
+     * @param skipped       Number of lines that could not be read.
+     * @param errors        Why the first few of them could not be read.
+     * @param nanos         Time the import took.
+     * @param lastChange    Change of the last row committed, null if none was.
+     * @param failure       Why the import stopped before the end of the file, null if it did not.
+     */
+    record Result(int imported, int skipped, List<String> errors, long nanos, TableChange lastChange,
+                  String failure) {
+
+        /**
+         * @return Number of rows committed in a second.
+         */
+        double rowsPerSecond() {
+            return nanos == 0 ? 0 : imported * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * Rows parsed from a chunk of lines.
+     *
+     * @param rows      Values of every row read.
+     * @param skipped   Number of lines that could not be read.
+     * @param errors    Why the first few of them could not be read.
+     */
+    private record Chunk(List<Object[]> rows, int skipped, List<String> errors) {
+    }
+
+    /**
+     * @param database  The link to the database.
+     * @param schema    Table to import into.
+     * @param settings  Values of columns for every row, as 'column=value' separated by commas, or null.
+     * @throws IllegalArgumentException If a setting is not a column of the table or does not fit it.
+     */
+    CsvImporter(SQLiteDatabase database, TableSchema schema, String settings) {
+        this.database = database;
+        this.schema = schema;
+        this.columns = schema.getEditableColumns();
+        if (settings == null || settings.isBlank()) {
+            return;
+        }
+        for (String setting : settings.split(",")) {
+            int equals = setting.indexOf('=');
+            Column column = equals < 0 ? null : editableColumn(setting.substring(0, equals).trim());
+            if (column == null) {
+                throw new IllegalArgumentException("'" + setting.trim() + "' does not set a column of '"
+                        + schema.getTableName() + "', write it like column=value");
+            }
+            String value = setting.substring(equals + 1).trim();
+            try {
+                ValueParser.convert(column, value);
+            } catch (SQLException ex) {
+                throw new IllegalArgumentException(ex.getMessage());
+            }
+            this.settings.put(column, value);
+        }
+    }
+
+    /**
+     * This method imports a file, streaming it from the disk through the
+     * parsers to the writer thread, and waits for the last row to be committed.
+     * If a transaction fails, the import stops, but the rows committed before
+     * it stay in the table and are counted in the result.
+     *
+     * @param fileName      Name of the file in the import directory.
+     * @return              What the import did.
+     * @throws IOException  If the file cannot be opened.
+     * @throws IllegalArgumentException If there is no such file, or its first line names no column of the table.
+     */
+    Result importFile(String fileName) throws IOException {
+        long start = System.nanoTime();
+        Path path = resolve(fileName);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("'" + fileName.trim() + "' is empty");
+            }
+            CellReader[] readers = mapColumns(splitLine(header.startsWith("\uFEFF") ? header.substring(1) : header));
+            return new Pipeline(readers, start).run(reader);
+        }
+    }
+
+    /**
+     * The state of one import, from the lines read to the rows committed.
+     * Used only by the thread executing the IMPORT.
+     */
+    private final class Pipeline {
+        private final CellReader[] readers;
+        private final long start;
+        private final Deque<Future<Chunk>> parsing = new ArrayDeque<>();
+        private List<Object[]> batch = new ArrayList<>();
+        private CompletableFuture<TableChange> writing = CompletableFuture.completedFuture(null);
+        private int writingRows = 0;
+        private int imported = 0;
+        private int skipped = 0;
+        private final List<String> errors = new ArrayList<>();
+        private TableChange lastChange = null;
+
+        /**
+         * @param readers   How every column is read from a line.
+         * @param start     Time the import started.
+         */
+        private Pipeline(CellReader[] readers, long start) {
+            this.readers = readers;
+            this.start = start;
+        }
+
+        /**
+         * @param reader    Reader positioned after the first line.
+         * @return          What the import did.
+         */
+        private Result run(BufferedReader reader) {
+            String failure = null;
+            try {
+                List<String> lines = new ArrayList<>(CHUNK_LINES);
+                int lineNumber = 1;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() == CHUNK_LINES) {
+                        parse(lines, lineNumber + 1);
+                        lineNumber += lines.size();
+                        lines = new ArrayList<>(CHUNK_LINES);
+                    }
+                }
+                parse(lines, lineNumber + 1);
+                while (!parsing.isEmpty()) {
+                    take(parsing.poll());
+                }
+                write();
+                finishWrite();
+            } catch (IOException | SQLException ex) {
+                failure = ex.getMessage();
+            } catch (ExecutionException ex) {
+                failure = String.valueOf(ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure = "interrupted";
+            }
+            if (failure != null) {
+                // the pool is shared, so the chunks of this import still queued are cancelled here
+                parsing.forEach(chunk -> chunk.cancel(true));
+                parsing.clear();
+                try {
+                    finishWrite(); // the rows in flight are committed or not, either way they are counted right
+                } catch (SQLException ex) {
+                    // the failure is already known
+                }
+            }
+            return new Result(imported, skipped, errors, System.nanoTime() - start, lastChange, failure);
+        }
+
+        /**
+         * Hand a chunk of lines to the parsers. Once enough chunks are being
+         * parsed, wait for the oldest first, so the file is not read faster than
+         * it is written.
+         *
+         * @param lines         The lines.
+         * @param firstLine     Number of the first of them in the file.
+         * @throws ExecutionException   If parsing a chunk failed.
+         * @throws InterruptedException If interrupted while waiting.
+         * @throws SQLException         If a transaction failed.
+         */
+        private void parse(List<String> lines, int firstLine)
+                throws ExecutionException, InterruptedException, SQLException {
+            if (lines.isEmpty()) {
+                return;
+            }
+            parsing.add(PARSERS.submit(() -> parseChunk(readers, lines, firstLine)));
+            while (parsing.size() > 2 * PARSE_THREADS) {
+                take(parsing.poll());
+            }
+        }
+
+        /**
+         * Add the rows of a parsed chunk to the batch, writing the batch once it is full.
+         *
+         * @param chunk The chunk being parsed.
+         * @throws ExecutionException   If parsing the chunk failed.
+         * @throws InterruptedException If interrupted while waiting.
+         * @throws SQLException         If a transaction failed.
+         */
+        private void take(Future<Chunk> chunk) throws ExecutionException, InterruptedException, SQLException {
+            Chunk parsed = chunk.get();
+            skipped += parsed.skipped();
+            for (String error : parsed.errors()) {
+                if (errors.size() < ERRORS_KEPT) errors.add(error);
+            }
+            batch.addAll(parsed.rows());
+            if (batch.size() >= BATCH_ROWS) {
+                write();
+            }
+        }
+
+        /**
+         * Queue the batch for the writer thread once the previous one has been
+         * committed, so one transaction is being written while the next is parsed.
+         *
+         * @throws SQLException If the previous transaction failed.
+         */
+        private void write() throws SQLException {
+            finishWrite();
+            if (!batch.isEmpty()) {
+                writingRows = batch.size();
+                writing = database.commandImport(schema, batch);
+                batch = new ArrayList<>(BATCH_ROWS);
+            }
+        }
+
+        /**
+         * Wait for the transaction being written and count its rows.
+         *
+         * @throws SQLException If it failed.
+         */
+        private void finishWrite() throws SQLException {
+            try {
+                TableChange change = writing.join();
+                imported += writingRows;
+                if (change != null) lastChange = change;
+            } catch (CompletionException ex) {
+                throw new SQLException("stopped after " + imported + " rows: " + ex.getCause().getMessage(), ex.getCause());
+            } finally {
+                writingRows = 0;
+                writing = CompletableFuture.completedFuture(null);
+            }
+        }
+    }
+
+    /**
+     * Parse a chunk of lines into rows. Runs on the parsers.
+     *
+     * @param readers   How every column is read from a line.
+     * @param lines     The lines.
+     * @param firstLine Number of the first of them in the file.
+     * @return          The rows, and why the lines that are not rows could not be read.
+     */
+    private Chunk parseChunk(CellReader[] readers, List<String> lines, int firstLine) {
+        List<Object[]> rows = new ArrayList<>(lines.size());
+        List<String> errors = new ArrayList<>();
+        int skipped = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String[] cells = splitLine(lines.get(i));
+            if (isBlank(cells)) {
+                continue; // the files often end with lines of empty cells
+            }
+            try {
+                Object[] row = new Object[columns.length];
+                for (int c = 0; c < columns.length; c++) {
+                    row[c] = ValueParser.convert(columns[c], readers[c].read(cells));
+                }
+                rows.add(row);
+            } catch (SQLException | IllegalArgumentException ex) {
+                skipped++;
+                if (errors.size() < ERRORS_KEPT) errors.add("line " + (firstLine + i) + ": " + ex.getMessage());
+            }
+        }
+        return new Chunk(rows, skipped, errors);
+    }
+
+    /**
+     * Decide where the value of every column comes from.
+     *
+     * @param header    Cells of the first line.
+     * @return          A reader for every editable column, in order.
+     * @throws IllegalArgumentException If no column of the table can be read from the file.
+     */
+    private CellReader[] mapColumns(String[] header) {
+        Map<String, Integer> positions = new LinkedHashMap<>();
+        for (int i = 0; i < header.length; i++) {
+            String name = header[i].trim().toLowerCase(Locale.ROOT);
+            if (schema == TableSchema.MATCHES) {
+                name = MATCH_ALIASES.getOrDefault(name, name).toLowerCase(Locale.ROOT);
+            }
+            positions.putIfAbsent(name, i);
+        }
+        CellReader[] readers = new CellReader[columns.length];
+        boolean fromFile = false;
+        for (int c = 0; c < columns.length; c++) {
+            String setting = settings.get(columns[c]);
+            Integer position = positions.get(columns[c].name().toLowerCase(Locale.ROOT));
+            if (setting != null) {
+                readers[c] = cells -> setting;
+            } else if (position != null) {
+                readers[c] = cells -> cell(cells, position);
+                fromFile = true;
+            } else if (schema == TableSchema.MATCHES && columns[c].name().equals("Datetime")
+                    && positions.containsKey("date")) {
+                int date = positions.get("date");
+                int time = positions.getOrDefault("time", -1);
+                readers[c] = cells -> datetime(cell(cells, date), time < 0 ? null : cell(cells, time));
+                fromFile = true;
+            } else {
+                readers[c] = cells -> null;
+            }
+        }
+        if (!fromFile) {
+            throw new IllegalArgumentException("the first line of the file names no column of '"
+                    + schema.getTableName() + "'");
+        }
+        return readers;
+    }
+
+    /**
+     * @param name  Name of a column, in any case.
+     * @return      The editable column, or null if the table has none of that name.
+     */
+    private Column editableColumn(String name) {
+        for (Column column : columns) {
+            if (column.name().equalsIgnoreCase(name)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fileName  Name of a file in the import directory.
+     * @return          Its path.
+     * @throws IllegalArgumentException If the name is missing, leads out of the directory or names no file.
+     */
+    private static Path resolve(String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("IMPORT needs the name of a file in " + IMPORT_DIR + " in the data field");
+        }
+        Path path = IMPORT_DIR.resolve(fileName.trim()).normalize();
+        if (!path.startsWith(IMPORT_DIR) || !Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("no file '" + fileName.trim() + "' in " + IMPORT_DIR);
+        }
+        return path;
+    }
+
+    /**
+     * Split a line of CSV into its cells. A cell in double quotes may hold
+     * commas, a double quote inside it is written twice.
+     *
+     * @param line  The line.
+     * @return      Its cells, with the quotes removed.
+     */
+    static String[] splitLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    cell.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells.toArray(new String[0]);
+    }
+
+    /**
+     * @param cells     Cells of a line.
+     * @param position  Position of a cell.
+     * @return          The trimmed cell, or null if it is empty or the line is too short.
+     */
+    private static String cell(String[] cells, int position) {
+        if (position >= cells.length) {
+            return null;
+        }
+        String value = cells[position].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * @param cells Cells of a line.
+     * @return      True if every cell is empty.
+     */
+    private static boolean isBlank(String[] cells) {
+        for (String cell : cells) {
+            if (!cell.isBlank()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Make up the Datetime of a match the way the table keeps it, like
+     * "24/07/2020 20:45", from the Date and Time of a football-data file.
+     * Older files write the year in two digits and have no time.
+     *
+     * @param date  Date of the match, as dd/mm/yy or dd/mm/yyyy.
+     * @param time  Kick-off time as hh:mm, or null.
+     * @return      The Datetime, or null if there is no date.
+     * @throws IllegalArgumentException If the date is not written as expected.
+     */
+    static String datetime(String date, String time) {
+        if (date == null) {
+            return null;
+        }
+        String[] parts = date.split("/");
+        if (parts.length != 3 || !isDigits(parts[0]) || !isDigits(parts[1]) || !isDigits(parts[2])
+                || parts[0].length() > 2 || parts[1].length() > 2
+                || (parts[2].length() != 2 && parts[2].length() != 4)) {
+            throw new IllegalArgumentException("Date '" + date + "' is not written as dd/mm/yyyy");
+        }
+        String year = parts[2];
+        if (year.length() == 2) {
+            year = (Integer.parseInt(year) < 70 ? "20" : "19") + year;
+        }
+        return pad(parts[0]) + "/" + pad(parts[1]) + "/" + year + " " + (time == null ? "00:00" : time);
+    }
+
+    /**
+     * @param text  Some text.
+     * @return      True if it is made of digits only, and not empty.
+     */
+    private static boolean isDigits(String text) {
+        return !text.isEmpty() && text.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * @param number    A day or a month of one or two digits.
+     * @return          The number in two digits.
+     */
+    private static String pad(String number) {
+        return number.length() == 1 ? "0" + number : number;
+    }
+}
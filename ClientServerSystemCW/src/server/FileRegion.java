@@ -0,0 +1,74 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a file queued for Admin, which is sent from the disk with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} and never
+ * read into the heap. Sent to a socket channel, the kernel copies it straight
+ * from the page cache.
+ * <p>
+ * The file is sent as long as it was when it was opened, so it must not be
+ * written to meanwhile; a new version is put in its place instead.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class FileRegion implements Closeable {
+
+    private final FileChannel channel;
+    private final long size;
+    private long position = 0;
+
+    /**
+     * @param path          The file.
+     * @throws IOException  If it cannot be opened.
+     */
+    FileRegion(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+
+    /**
+     * @return Number of bytes of the file.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return True until the whole file has been sent.
+     */
+    boolean hasRemaining() {
+        return position < size;
+    }
+
+    /**
+     * Send as much of the rest of the file as the target takes.
+     *
+     * @param target        The channel to the socket.
+     * @return              Number of bytes sent, 0 if a non-blocking target takes none now.
+     * @throws IOException  If the file cannot be read or the target written.
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        long sent = channel.transferTo(position, size - position, target);
+        position += sent;
+        return sent;
+    }
+
+    /**
+     * Close the file, sent or not.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // nothing was written to it
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package server;
+
+import both.Protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class reassembles frames of the binary protocol from the bytes
+ * read off a non-blocking channel, which may split a frame anywhere.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class FrameReader {
+
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private ByteBuffer body = null;
+
+    /**
+     * This method consumes bytes from the buffer until a frame is completed.
+     * Bytes after the end of the frame are left in the buffer.
+     *
+     * @param bytes Bytes read from the channel, ready to be read.
+     * @return      The completed frame without its length prefix, or null if more bytes are needed.
+     * @throws IllegalStateException If the length prefix is invalid.
+     */
+    protected ByteBuffer readFrame(ByteBuffer bytes) {
+        if (body == null) {
+            while (header.hasRemaining() && bytes.hasRemaining()) {
+                header.put(bytes.get());
+            }
+            if (header.hasRemaining()) {
+                return null;
+            }
+            int length = header.getInt(0);
+            if (length <= 0 || length > Protocol.MAX_FRAME_LENGTH) {
+                throw new IllegalStateException("Invalid frame length " + length);
+            }
+            body = ByteBuffer.allocate(length);
+        }
+        int count = Math.min(body.remaining(), bytes.remaining());
+        body.put(body.position(), bytes, bytes.position(), count);
+        body.position(body.position() + count);
+        bytes.position(bytes.position() + count);
+        if (body.hasRemaining()) {
+            return null;
+        }
+        ByteBuffer frame = body.flip();
+        body = null;
+        header.clear();
+        return frame;
+    }
+}
@@ -0,0 +1,148 @@
+package server;
+
+import both.StandingsRow;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the standings of one league in one season up to date as
+ * its matches are added and removed, so they never have to be counted again
+ * from the matches.
+ * <p>
+ * The sorted lines are only built when they are asked for after a change, so
+ * both a change and a request cost a number of steps that grows with the
+ * number of teams, not of matches. It is thread safe.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class LeagueTable {
+
+    private static final int FORM_LENGTH = 5;
+
+    private static final Comparator<Team> ORDER = Comparator.comparingInt((Team team) -> team.points).reversed()
+            .thenComparing(Comparator.comparingInt((Team team) -> team.goalsFor - team.goalsAgainst).reversed())
+            .thenComparing(Comparator.comparingInt((Team team) -> team.goalsFor).reversed())
+            .thenComparing(team -> team.name);
+
+    private final Map<String, Team> teams = new HashMap<>();
+    private List<StandingsRow> rows = List.of(); // sorted lines, null once a match has changed them
+
+    /**
+     * The running totals of one team.
+     */
+    private static final class Team {
+        private final String name;
+        private final TreeSet<Standings.MatchResult> matches = new TreeSet<>(Standings.MatchResult.KICK_OFF_ORDER);
+        private int won;
+        private int drawn;
+        private int lost;
+        private int goalsFor;
+        private int goalsAgainst;
+        private int points;
+
+        /**
+         * @param name Name of the team.
+         */
+        private Team(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Count a match of the team in or out of its totals.
+         *
+         * @param match     The match.
+         * @param sign      1 to count the match in, -1 to count it out.
+         */
+        private void count(Standings.MatchResult match, int sign) {
+            switch (match.outcomeFor(name)) {
+                case 'W' -> {
+                    won += sign;
+                    points += 3 * sign;
+                }
+                case 'D' -> {
+                    drawn += sign;
+                    points += sign;
+                }
+                default -> lost += sign;
+            }
+            goalsFor += sign * match.goalsFor(name);
+            goalsAgainst += sign * match.goalsAgainst(name);
+        }
+
+        /**
+         * @param position  Position of the team in the standings.
+         * @return          The line of the team.
+         */
+        private StandingsRow toRow(int position) {
+            StringBuilder form = new StringBuilder(FORM_LENGTH);
+            Iterator<Standings.MatchResult> latest = matches.descendingIterator();
+            while (latest.hasNext() && form.length() < FORM_LENGTH) {
+                form.insert(0, latest.next().outcomeFor(name));
+            }
+            return new StandingsRow(position, name, matches.size(), won, drawn, lost,
+                    goalsFor, goalsAgainst, points, form.toString());
+        }
+    }
+
+    /**
+     * This method counts a match in the standings.
+     *
+     * @param match A match of the league and season.
+     */
+    synchronized void add(Standings.MatchResult match) {
+        for (String name : match.teams()) {
+            Team team = teams.computeIfAbsent(name, Team::new);
+            if (team.matches.add(match)) {
+                team.count(match, 1);
+            }
+        }
+        rows = null;
+    }
+
+    /**
+     * This method takes a match counted before out of the standings.
+     *
+     * @param match The match, as it was counted.
+     */
+    synchronized void remove(Standings.MatchResult match) {
+        for (String name : match.teams()) {
+            Team team = teams.get(name);
+            if (team != null && team.matches.remove(match)) {
+                team.count(match, -1);
+                if (team.matches.isEmpty()) {
+                    teams.remove(name);
+                }
+            }
+        }
+        rows = null;
+    }
+
+    /**
+     * @return True if no match of the league is counted.
+     */
+    synchronized boolean isEmpty() {
+        return teams.isEmpty();
+    }
+
+    /**
+     * @return The lines of all teams, best first, by points, goal difference, goals scored and name.
+     */
+    synchronized List<StandingsRow> rows() {
+        if (rows == null) {
+            List<Team> sorted = new ArrayList<>(teams.values());
+            sorted.sort(ORDER);
+            List<StandingsRow> lines = new ArrayList<>(sorted.size());
+            for (Team team : sorted) {
+                lines.add(team.toRow(lines.size() + 1));
+            }
+            rows = List.copyOf(lines);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,63 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class decodes lines incrementally from the bytes read off a non-blocking channel.
+ * <p>
+ * A read may end in the middle of a line, so the unfinished part is kept
+ * until the rest of it arrives. The buffer starts small, so an idle
+ * connection costs almost nothing.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class LineDecoder {
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private final int maxLineLength;
+    private byte[] pending = new byte[0];
+    private int pendingLength = 0;
+
+    /**
+     * @param maxLineLength The longest line accepted before the connection is treated as broken.
+     */
+    protected LineDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * This method consumes bytes from the buffer until a line is completed.
+     * Bytes after the end of the line are left in the buffer.
+     *
+     * @param bytes Bytes read from the channel, ready to be read.
+     * @return      The completed line without the line terminator, or null if more bytes are needed.
+     * @throws IllegalStateException If a line is longer than the allowed maximum.
+     */
+    protected String decodeLine(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b == '\n') {
+                int length = pendingLength;
+                if (length > 0 && pending[length - 1] == '\r') length--;
+                String line = new String(pending, 0, length, StandardCharsets.UTF_8);
+                pendingLength = 0;
+                // give back the memory of a long line so idle connections stay small
+                if (pending.length > INITIAL_CAPACITY) {
+                    pending = new byte[0];
+                }
+                return line;
+            }
+            if (pendingLength == maxLineLength) {
+                throw new IllegalStateException("Line longer than " + maxLineLength + " bytes");
+            }
+            if (pendingLength == pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(INITIAL_CAPACITY, pending.length * 2));
+            }
+            pending[pendingLength++] = b;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,580 @@
+package server;
+
+import both.ChangeType;
+import both.MatchTable;
+import both.TableSchema;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * This class keeps every row of 'football-match-data' in memory, column by
+ * column, instead of as a list of {@link MatchTable} objects.
+ * <p>
+ * A row read from SQLite brings its own copy of every string, so a list of
+ * rows holds the same season, league and team names over and over, plus an
+ * object header for every value. Here:
+ * <ul>
+ *     <li>the text columns are dictionary encoded: each distinct value is kept
+ *     once and the rows hold its code; HomeTeam and AwayTeam share one dictionary,</li>
+ *     <li>codes and goals are kept in arrays of the narrowest primitive type
+ *     their values fit in, bytes at first, widened when a larger value comes,</li>
+ *     <li>Datetime is kept as minutes since the epoch, with the format it was
+ *     written in, so the original text can be given back.</li>
+ * </ul>
+ * Rows are kept in ID order, so a row is found by a binary search of the IDs.
+ * A deleted row is only marked until a quarter of the rows are deleted, then
+ * the live rows are moved together.
+ * <p>
+ * Filters are tested on the columns, in parallel, and a {@link MatchTable} is
+ * only made for the rows that pass. Rows are changed by one thread at a time,
+ * under a lock that scans also take.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class MatchStore {
+
+    /**
+     * The dictionary encoded columns.
+     */
+    enum TextColumn {
+        SEASON,
+        DIVISION,
+        COUNTRY,
+        LEAGUE,
+        REFEREE,
+        HOME_TEAM,
+        AWAY_TEAM,
+        RESULT
+    }
+
+    private static final DateTimeFormatter[] DATETIME_FORMATS = {
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+    };
+    private static final byte NULL_DATETIME = -1;
+    private static final byte RAW_DATETIME = -2; // not in any format, kept as text
+    private static final int UNKNOWN_KICK_OFF = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_DELETED_TO_COMPACT = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<TextColumn, Dictionary> dictionaries = new EnumMap<>(TextColumn.class);
+    private final Map<TextColumn, PackedInts> codes = new EnumMap<>(TextColumn.class);
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] kickOffs = new int[INITIAL_CAPACITY];
+    private byte[] datetimeFormats = new byte[INITIAL_CAPACITY];
+    private final Map<Integer, String> rawDatetimes = new HashMap<>(); // by ID
+    private final PackedInts homeGoals = new PackedInts(INITIAL_CAPACITY);
+    private final PackedInts awayGoals = new PackedInts(INITIAL_CAPACITY);
+    private final PackedInts halfTimeHomeGoals = new PackedInts(INITIAL_CAPACITY);
+    private final PackedInts halfTimeAwayGoals = new PackedInts(INITIAL_CAPACITY);
+    private final BitSet deleted = new BitSet();
+    private int size = 0; // rows, including the deleted ones
+    private int deletedCount = 0;
+
+    /**
+     * The distinct values of a text column, each with a code. Code 0 is null.
+     * Values are never removed, a value no row holds any more keeps its code.
+     */
+    static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] values = new String[16];
+
+        /**
+         * @param value A value.
+         * @return      Its code, given it now if it had none.
+         */
+        int encode(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = codes.size() + 1;
+                if (code == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[code] = value;
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        /**
+         * @param value A value.
+         * @return      Its code, or -1 if no row has ever held it.
+         */
+        int find(String value) {
+            return value == null ? 0 : codes.getOrDefault(value, -1);
+        }
+
+        /**
+         * @param code  A code.
+         * @return      The value with the code.
+         */
+        String decode(int code) {
+            return values[code];
+        }
+
+        /**
+         * @return Number of distinct values.
+         */
+        int size() {
+            return codes.size();
+        }
+    }
+
+    /**
+     * A column of integers, kept in bytes until a value needs shorts, and in
+     * shorts until one needs ints.
+     */
+    static final class PackedInts {
+        private byte[] bytes;
+        private short[] shorts = null;
+        private int[] ints = null;
+
+        /**
+         * @param capacity Number of rows to make room for.
+         */
+        PackedInts(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * @param row   A row.
+         * @return      The value of the row.
+         */
+        int get(int row) {
+            return bytes != null ? bytes[row] : shorts != null ? shorts[row] : ints[row];
+        }
+
+        /**
+         * @param row   A row.
+         * @param value The new value of the row.
+         */
+        void set(int row, int value) {
+            if (bytes != null && value != (byte) value) {
+                shorts = new short[bytes.length];
+                for (int i = 0; i < bytes.length; i++) shorts[i] = bytes[i];
+                bytes = null;
+            }
+            if (shorts != null && value != (short) value) {
+                ints = new int[shorts.length];
+                for (int i = 0; i < shorts.length; i++) ints[i] = shorts[i];
+                shorts = null;
+            }
+            if (bytes != null) bytes[row] = (byte) value;
+            else if (shorts != null) shorts[row] = (short) value;
+            else ints[row] = value;
+        }
+
+        /**
+         * @param capacity The new number of rows there is room for.
+         */
+        void resize(int capacity) {
+            if (bytes != null) bytes = Arrays.copyOf(bytes, capacity);
+            else if (shorts != null) shorts = Arrays.copyOf(shorts, capacity);
+            else ints = Arrays.copyOf(ints, capacity);
+        }
+
+        /**
+         * @return Bytes taken by one row.
+         */
+        int bytesPerRow() {
+            return bytes != null ? Byte.BYTES : shorts != null ? Short.BYTES : Integer.BYTES;
+        }
+    }
+
+    /**
+     * Constructor, with no rows.
+     */
+    MatchStore() {
+        Dictionary teams = new Dictionary();
+        for (TextColumn column : TextColumn.values()) {
+            boolean team = column == TextColumn.HOME_TEAM || column == TextColumn.AWAY_TEAM;
+            dictionaries.put(column, team ? teams : new Dictionary());
+            codes.put(column, new PackedInts(INITIAL_CAPACITY));
+        }
+    }
+
+    /**
+     * This method adds a match, or replaces the match with the same ID.
+     *
+     * @param match The match.
+     * @return      The match it replaced, or null.
+     */
+    MatchTable put(MatchTable match) {
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, size, match.match_id());
+            MatchTable previous = null;
+            if (row < 0) {
+                row = -row - 1;
+                insertRowAt(row);
+            } else if (deleted.get(row)) {
+                deleted.clear(row);
+                deletedCount--;
+            } else {
+                previous = view(row);
+            }
+            write(row, match);
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id    ID of a match.
+     * @return      The match that was removed, or null if there was none.
+     */
+    MatchTable remove(int id) {
+        lock.writeLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, size, id);
+            if (row < 0 || deleted.get(row)) {
+                return null;
+            }
+            MatchTable previous = view(row);
+            deleted.set(row);
+            deletedCount++;
+            rawDatetimes.remove(id);
+            if (deletedCount >= MIN_DELETED_TO_COMPACT && deletedCount > size / 4) {
+                compact();
+            }
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method applies a committed change of 'football-match-data'.
+     * Changes of other tables are ignored.
+     *
+     * @param change    The change.
+     * @return          The match as it was before the change, or null if it is new.
+     */
+    MatchTable apply(TableChange change) {
+        if (change.schema() != TableSchema.MATCHES) {
+            return null;
+        }
+        if (change.type() == ChangeType.DELETE) {
+            return remove(change.id());
+        }
+        return change.row() instanceof MatchTable match ? put(match) : null;
+    }
+
+    /**
+     * @param id    ID of a match.
+     * @return      The match, or null if there is none.
+     */
+    MatchTable get(int id) {
+        lock.readLock().lock();
+        try {
+            int row = Arrays.binarySearch(ids, 0, size, id);
+            return row < 0 || deleted.get(row) ? null : view(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of matches.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param filter    A filter of rows, made by this store.
+     * @return          Number of matches that pass the filter, counted in parallel.
+     */
+    int count(IntPredicate filter) {
+        lock.readLock().lock();
+        try {
+            return (int) liveRows().filter(filter).count();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param filter    A filter of rows, made by this store.
+     * @return          The matches that pass the filter, in ID order, tested and made in parallel.
+     */
+    List<MatchTable> select(IntPredicate filter) {
+        lock.readLock().lock();
+        try {
+            return liveRows().filter(filter).mapToObj(this::view).toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param column    A text column.
+     * @param value     A value, null for rows without one.
+     * @return          A filter passing the rows whose column holds the value.
+     */
+    IntPredicate equalTo(TextColumn column, String value) {
+        lock.readLock().lock();
+        try {
+            int code = dictionaries.get(column).find(value);
+            if (code < 0) {
+                return row -> false;
+            }
+            PackedInts columnCodes = codes.get(column);
+            return row -> columnCodes.get(row) == code;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param team  A team.
+     * @return      A filter passing the matches the team played, at home or away.
+     */
+    IntPredicate playedBy(String team) {
+        return equalTo(TextColumn.HOME_TEAM, team).or(equalTo(TextColumn.AWAY_TEAM, team));
+    }
+
+    /**
+     * @param from  Earliest kick off.
+     * @param to    Latest kick off.
+     * @return      A filter passing the matches played between the two, matches with
+     *              a Datetime in no known format never pass.
+     */
+    IntPredicate kickOffBetween(LocalDateTime from, LocalDateTime to) {
+        long first = Math.floorDiv(from.toEpochSecond(ZoneOffset.UTC), 60);
+        long last = Math.floorDiv(to.toEpochSecond(ZoneOffset.UTC), 60);
+        return row -> {
+            int kickOff = kickOffs[row];
+            return kickOff != UNKNOWN_KICK_OFF && kickOff >= first && kickOff <= last;
+        };
+    }
+
+    /**
+     * @return An estimate of the bytes taken by the columns and the dictionaries.
+     */
+    long estimateBytes() {
+        lock.readLock().lock();
+        try {
+            int capacity = ids.length;
+            long bytes = (long) capacity * (Integer.BYTES * 2 + 1) + deleted.size() / 8;
+            for (PackedInts column : List.of(homeGoals, awayGoals, halfTimeHomeGoals, halfTimeAwayGoals)) {
+                bytes += (long) capacity * column.bytesPerRow();
+            }
+            for (PackedInts column : codes.values()) {
+                bytes += (long) capacity * column.bytesPerRow();
+            }
+            for (Dictionary dictionary : new HashSet<>(dictionaries.values())) {
+                // the value, its key in the map and the entry, about 100 bytes for a short name
+                bytes += dictionary.size() * 100L;
+            }
+            return bytes + rawDatetimes.size() * 100L;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Indexes of the rows not deleted, as a parallel stream. Only used under the lock.
+     */
+    private IntStream liveRows() {
+        IntStream rows = IntStream.range(0, size).parallel();
+        return deletedCount == 0 ? rows : rows.filter(row -> !deleted.get(row));
+    }
+
+    /**
+     * @param row   A row.
+     * @return      The match in the row. Only called under the lock.
+     */
+    private MatchTable view(int row) {
+        return new MatchTable(ids[row], text(TextColumn.SEASON, row), datetime(row),
+                text(TextColumn.DIVISION, row), text(TextColumn.COUNTRY, row), text(TextColumn.LEAGUE, row),
+                text(TextColumn.REFEREE, row), text(TextColumn.HOME_TEAM, row), text(TextColumn.AWAY_TEAM, row),
+                homeGoals.get(row), awayGoals.get(row), text(TextColumn.RESULT, row),
+                halfTimeHomeGoals.get(row), halfTimeAwayGoals.get(row));
+    }
+
+    /**
+     * @param column    A text column.
+     * @param row       A row.
+     * @return          The value of the column in the row.
+     */
+    private String text(TextColumn column, int row) {
+        return dictionaries.get(column).decode(codes.get(column).get(row));
+    }
+
+    /**
+     * @param row   A row.
+     * @return      The Datetime of the row, as it was written.
+     */
+    private String datetime(int row) {
+        byte format = datetimeFormats[row];
+        if (format == NULL_DATETIME) {
+            return null;
+        }
+        if (format == RAW_DATETIME) {
+            return rawDatetimes.get(ids[row]);
+        }
+        return LocalDateTime.ofEpochSecond(kickOffs[row] * 60L, 0, ZoneOffset.UTC).format(DATETIME_FORMATS[format]);
+    }
+
+    /**
+     * Write all values of a match into a row.
+     *
+     * @param row   The row.
+     * @param match The match.
+     */
+    private void write(int row, MatchTable match) {
+        ids[row] = match.match_id();
+        setText(TextColumn.SEASON, row, match.season());
+        setText(TextColumn.DIVISION, row, match.division());
+        setText(TextColumn.COUNTRY, row, match.country());
+        setText(TextColumn.LEAGUE, row, match.league());
+        setText(TextColumn.REFEREE, row, match.referee());
+        setText(TextColumn.HOME_TEAM, row, match.home_team());
+        setText(TextColumn.AWAY_TEAM, row, match.away_team());
+        setText(TextColumn.RESULT, row, match.full_time_result());
+        setDatetime(row, match.match_id(), match.datetime());
+        homeGoals.set(row, match.full_time_home_goals());
+        awayGoals.set(row, match.full_time_away_goals());
+        halfTimeHomeGoals.set(row, match.half_time_home_goals());
+        halfTimeAwayGoals.set(row, match.half_time_away_goals());
+    }
+
+    /**
+     * @param column    A text column.
+     * @param row       A row.
+     * @param value     The new value of the column in the row.
+     */
+    private void setText(TextColumn column, int row, String value) {
+        codes.get(column).set(row, dictionaries.get(column).encode(value));
+    }
+
+    /**
+     * Keep the Datetime of a row as minutes since the epoch if it is in a known
+     * format that gives back the same text, otherwise as the text itself.
+     *
+     * @param row       The row.
+     * @param id        ID of the match in the row.
+     * @param datetime  The Datetime of the match.
+     */
+    private void setDatetime(int row, int id, String datetime) {
+        rawDatetimes.remove(id);
+        kickOffs[row] = UNKNOWN_KICK_OFF;
+        if (datetime == null) {
+            datetimeFormats[row] = NULL_DATETIME;
+            return;
+        }
+        for (byte format = 0; format < DATETIME_FORMATS.length; format++) {
+            try {
+                long seconds = LocalDateTime.parse(datetime, DATETIME_FORMATS[format]).toEpochSecond(ZoneOffset.UTC);
+                long minutes = Math.floorDiv(seconds, 60);
+                if (minutes == (int) minutes && minutes != UNKNOWN_KICK_OFF && LocalDateTime
+                        .ofEpochSecond(minutes * 60, 0, ZoneOffset.UTC).format(DATETIME_FORMATS[format]).equals(datetime)) {
+                    kickOffs[row] = (int) minutes;
+                    datetimeFormats[row] = format;
+                    return;
+                }
+            } catch (DateTimeParseException ignored) {
+                // try the next format
+            }
+        }
+        datetimeFormats[row] = RAW_DATETIME;
+        rawDatetimes.put(id, datetime);
+    }
+
+    /**
+     * Make room for a new row, moving the rows from it on one row down.
+     *
+     * @param row Index of the new row.
+     */
+    private void insertRowAt(int row) {
+        if (size == ids.length) {
+            resize(ids.length * 2);
+        }
+        // IDs nearly always grow, only a row with a lower ID than the last one is moved for
+        for (int i = size; i > row; i--) {
+            copyRow(i - 1, i);
+            deleted.set(i, deleted.get(i - 1));
+        }
+        deleted.clear(row);
+        size++;
+    }
+
+    /**
+     * Move the live rows together, dropping the deleted ones.
+     */
+    private void compact() {
+        int live = 0;
+        for (int row = 0; row < size; row++) {
+            if (!deleted.get(row)) {
+                if (row != live) copyRow(row, live);
+                live++;
+            }
+        }
+        size = live;
+        deleted.clear();
+        deletedCount = 0;
+        if (ids.length > INITIAL_CAPACITY && size < ids.length / 4) {
+            resize(Math.max(INITIAL_CAPACITY, ids.length / 2));
+        }
+    }
+
+    /**
+     * @param from  Row to copy.
+     * @param to    Row to copy it over.
+     */
+    private void copyRow(int from, int to) {
+        ids[to] = ids[from];
+        kickOffs[to] = kickOffs[from];
+        datetimeFormats[to] = datetimeFormats[from];
+        for (PackedInts column : codes.values()) {
+            column.set(to, column.get(from));
+        }
+        homeGoals.set(to, homeGoals.get(from));
+        awayGoals.set(to, awayGoals.get(from));
+        halfTimeHomeGoals.set(to, halfTimeHomeGoals.get(from));
+        halfTimeAwayGoals.set(to, halfTimeAwayGoals.get(from));
+    }
+
+    /**
+     * @param capacity The new number of rows there is room for.
+     */
+    private void resize(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        kickOffs = Arrays.copyOf(kickOffs, capacity);
+        datetimeFormats = Arrays.copyOf(datetimeFormats, capacity);
+        for (PackedInts column : codes.values()) {
+            column.resize(capacity);
+        }
+        homeGoals.resize(capacity);
+        awayGoals.resize(capacity);
+        halfTimeHomeGoals.resize(capacity);
+        halfTimeAwayGoals.resize(capacity);
+    }
+}
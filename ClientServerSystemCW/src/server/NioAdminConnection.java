@@ -0,0 +1,249 @@
+package server;
+
+import both.FrameDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class handles a single Admin in the non-blocking mode of the server.
+ * <p>
+ * Reading and writing happen on the I/O thread of its {@link NioEventLoop},
+ * while the decoded parcels are executed on the worker pool, so a slow
+ * SQL query never stops the I/O thread. Parcels of one connection are
+ * executed one at a time, in the order they arrived, unless they carry a
+ * request ID. Reading stops while more requests are waiting than
+ * {@code server.maxInFlight}, and starts again once they have been handled.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class NioAdminConnection extends AdminConnection {
+
+    private static final int MAX_LINE_LENGTH = 1 << 20;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Executor workers;
+    private final LineDecoder lineDecoder = new LineDecoder(MAX_LINE_LENGTH);
+    private FrameReader frameReader = null;
+    private SelectionKey key;
+
+    private final Queue<Runnable> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger(); // size of requests, without walking it
+    private final AtomicBoolean processing = new AtomicBoolean(false);
+    private volatile boolean readPaused = false; // set by the I/O thread, cleared by it too
+
+    private OutboundQueue.Message writing = null; // bytes or file partly written, only used by the I/O thread
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * @param channel   The accepted channel.
+     * @param loop      The I/O thread serving the channel.
+     * @param workers   The pool executing the parcels.
+     * @param database  The link to the SQLiteDatabase class.
+     */
+    protected NioAdminConnection(SocketChannel channel, NioEventLoop loop, Executor workers,
+                                 SQLiteDatabase database) {
+        super(database, workers);
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+    }
+
+    /**
+     * Called by the I/O thread once the channel has been registered.
+     * Admin is greeted here, before anything it sends can be read, so the
+     * greeting always comes before the answer to the handshake.
+     *
+     * @param key The selection key of the channel.
+     */
+    protected void attach(SelectionKey key) {
+        this.key = key;
+        greet();
+    }
+
+    /**
+     * Read whatever is available and queue the completed lines or frames for the workers.
+     * The input switches to frames right after the handshake line, because Admin
+     * may send its first frame before the answer to the handshake has been processed.
+     *
+     * @param readBuffer    Buffer shared by all connections of the I/O thread.
+     * @throws IOException  If the channel is broken.
+     */
+    protected void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read == -1) {
+            shutdown();
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            if (frameReader != null) {
+                ByteBuffer frame = frameReader.readFrame(readBuffer);
+                if (frame == null) break;
+                requests.add(() -> handleFrame(new FrameDecoder(frame)));
+                queued.incrementAndGet();
+            } else {
+                String lineRead = lineDecoder.decodeLine(readBuffer);
+                if (lineRead == null) break;
+                if (isBinaryRequest(lineRead)) {
+                    frameReader = new FrameReader();
+                }
+                requests.add(() -> handleLine(lineRead));
+                queued.incrementAndGet();
+            }
+        }
+        if (isBacklogged(queued.get())) {
+            // Admin sends faster than its requests are handled, leave the rest in the socket
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            // the worker may have drained the queue before it could see the pause
+            if (!isBacklogged(queued.get())) resumeReading();
+        }
+        scheduleProcessing();
+    }
+
+    /**
+     * Start reading again after the requests waiting have been handled. Runs on the I/O thread.
+     */
+    private void resumeReading() {
+        if (readPaused && key != null && key.isValid()) {
+            readPaused = false;
+            try {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            } catch (CancelledKeyException ex) {
+                shutdown(); // closed by another thread after the check
+            }
+        }
+    }
+
+    /**
+     * Hand the queued parcels to the worker pool unless a worker is already on them.
+     */
+    private void scheduleProcessing() {
+        if (!requests.isEmpty() && processing.compareAndSet(false, true)) {
+            workers.execute(this::processRequests);
+        }
+    }
+
+    /**
+     * Execute the queued parcels one by one on a worker thread.
+     */
+    private void processRequests() {
+        try {
+            Runnable request;
+            while ((request = requests.poll()) != null) {
+                queued.decrementAndGet();
+                try {
+                    request.run();
+                } catch (RuntimeException ex) {
+                    requestFailed(0, ex);
+                }
+            }
+        } finally {
+            processing.set(false);
+            if (readPaused) loop.execute(this::resumeReading);
+            scheduleProcessing();
+        }
+    }
+
+    /**
+     * Ask the I/O thread to write the queued output.
+     */
+    @Override
+    protected void outboundReady() {
+        if (closed.get()) return;
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                try {
+                    onWritable();
+                } catch (IOException | CancelledKeyException ex) {
+                    shutdown();
+                }
+            });
+        }
+    }
+
+    /**
+     * Write as much of the queued output as the channel accepts.
+     * Write interest stays on only while something is left over.
+     *
+     * @throws IOException If the channel is broken.
+     */
+    protected void onWritable() throws IOException {
+        if (key == null || !key.isValid()) return;
+        while (true) {
+            if (writing == null) writing = pollOutbound();
+            while (writing != null) {
+                long start = System.nanoTime();
+                boolean done;
+                if (writing.file() != null) {
+                    writing.file().transferTo(channel);
+                    done = !writing.file().hasRemaining();
+                    if (done) writing.file().close();
+                } else {
+                    channel.write(writing.bytes());
+                    done = !writing.bytes().hasRemaining();
+                }
+                ServerMetrics.INSTANCE.recordSocketWrite(System.nanoTime() - start);
+                if (!done) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writing = pollOutbound();
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            writeScheduled.set(false);
+            // a line may have been queued after the queue was seen empty
+            if (isOutboundEmpty() || !writeScheduled.compareAndSet(false, true)) return;
+        }
+    }
+
+    /**
+     * Unregister the connection and close the channel, only once.
+     */
+    protected void shutdown() {
+        if (closed.compareAndSet(false, true)) {
+            connectionLost();
+            close();
+        }
+    }
+
+    /**
+     * Close the file partly written when the connection was closed. Runs on the I/O thread.
+     */
+    private void dropWriting() {
+        if (writing != null && writing.file() != null) {
+            writing.file().close();
+        }
+        writing = null;
+    }
+
+    /**
+     * Close the channel.
+     */
+    @Override
+    protected void close() {
+        closed.set(true);
+        closeOutbound();
+        loop.execute(this::dropWriting);
+        try {
+            if (key != null) key.cancel();
+            channel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(NioAdminConnection.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
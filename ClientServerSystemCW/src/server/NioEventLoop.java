@@ -0,0 +1,111 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a single I/O thread of the non-blocking server.
+ * <p>
+ * It owns one selector and serves every connection registered with it.
+ * All of its connections read into the same buffer, so an idle connection
+ * holds no buffer of its own.
+ * Other threads never touch the selector directly, they queue a task
+ * and wake the loop up instead.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    private final String name;
+
+    /**
+     * @param name          Name of the I/O thread.
+     * @throws IOException  If the selector cannot be opened.
+     */
+    protected NioEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the loop on its own daemon thread.
+     */
+    protected void start() {
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Register a newly accepted channel with this loop.
+     *
+     * @param channel       The accepted channel, already in non-blocking mode.
+     * @param connection    The connection that will handle the channel.
+     */
+    protected void register(SocketChannel channel, NioAdminConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (ClosedChannelException ex) {
+                connection.shutdown();
+            }
+        });
+    }
+
+    /**
+     * Run a task on the I/O thread.
+     *
+     * @param task Task to run.
+     */
+    protected void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * The run method waits for the ready channels and lets
+     * their connections read or write.
+     */
+    @Override
+    public void run() {
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    // a failing task must not stop the thread every other connection of the loop depends on
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        Logger.getLogger(NioEventLoop.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioAdminConnection connection = (NioAdminConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) connection.onReadable(readBuffer);
+                        if (key.isValid() && key.isWritable()) connection.onWritable();
+                    } catch (IOException | RuntimeException ex) {
+                        connection.shutdown();
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(NioEventLoop.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This is the non-blocking mode of the server.
+ * <p>
+ * Instead of one thread per Admin, a small fixed number of I/O threads
+ * multiplex all the connections with selectors, and the SQL work is done
+ * by a separate pool of worker threads. An idle Admin costs only its
+ * channel and a few small objects, so many thousands of them can stay connected.
+ * Every connection holds a file descriptor, so their number is capped by the
+ * open file limit of the process ({@code ulimit -n}), not by threads or memory.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class NioServer {
+
+    private final int port;
+    private final SQLiteDatabase database;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+
+    /**
+     * @param port          Port to listen on.
+     * @param database      The link to the SQLiteDatabase class.
+     * @param ioThreads     Number of I/O threads.
+     * @param workerThreads Number of threads executing the parcels.
+     * @throws IOException  If a selector cannot be opened.
+     */
+    protected NioServer(int port, SQLiteDatabase database, int ioThreads, int workerThreads) throws IOException {
+        this.port = port;
+        this.database = database;
+        this.loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop("nio-io-" + i);
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "nio-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the I/O threads and keep accepting new Admins,
+     * handing them to the I/O threads in turns.
+     */
+    protected void connectToAdmin() {
+        System.out.println("Server: Non-blocking server starting with " + loops.length + " I/O threads.");
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            int next = 0;
+
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+
+                    NioEventLoop loop = loops[next];
+                    next = (next + 1) % loops.length;
+
+                    NioAdminConnection connection = new NioAdminConnection(channel, loop, workers, database);
+                    ThreadedServer.addThread(connection);
+                    loop.register(channel, connection);
+                } catch (IOException ex) {
+                    System.out.println("Server: Could not start connection to a client.");
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(NioServer.class.getName()).log(Level.SEVERE, null, ex);
+            System.out.println("Server: Closed down");
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package server;
+
+import both.ChangeType;
+import both.MarginRow;
+import both.MatchTable;
+import both.OddsTable;
+import both.TableSchema;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class holds the best price of every outcome of every match across the
+ * bookies that price it, read from the 'odds' table and kept up to date with
+ * every change of the table.
+ * <p>
+ * The prices of every odds row are copied once into a flat array, and the
+ * best prices of all matches are found by a fork/join scan over it. Afterwards every committed ADD, EDIT or DELETE of
+ * an odds row is applied by the writer thread of {@link SQLiteDatabase}: only
+ * the match the row was on and the match it is on now are priced again, from
+ * the few rows of those matches.
+ * <p>
+ * Changes are applied by one thread at a time, the margins can be read by
+ * any thread.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class OddsBook {
+
+    private static final int SCAN_THRESHOLD = 2048;
+
+    private static final Comparator<Margin> OVERROUND_ORDER =
+            Comparator.comparingDouble(Margin::overround).thenComparingInt(Margin::matchId);
+
+    /**
+     * The prices of an odds row.
+     *
+     * @param oddId     ID of the row.
+     * @param matchId   ID of the match priced.
+     * @param bookieId  ID of the bookie.
+     * @param home      Decimal price of a home win, NaN if there is none.
+     * @param draw      Decimal price of a draw, NaN if there is none.
+     * @param away      Decimal price of an away win, NaN if there is none.
+     */
+    record PricedOdds(int oddId, int matchId, int bookieId, double home, double draw, double away) {
+
+        /**
+         * @param odds  A row of 'odds'.
+         * @return      Its prices.
+         */
+        static PricedOdds of(OddsTable odds) {
+            return new PricedOdds(odds.odd_id(), odds.match_id(), odds.bookie_id(),
+                    odds.odds_home_to_win(), odds.odd_draw(), odds.odds_away_to_win());
+        }
+    }
+
+    /**
+     * The best prices of a match with all three outcomes priced.
+     *
+     * @param matchId       ID of the match.
+     * @param bookies       Number of odds rows of the match.
+     * @param home          Best price of a home win.
+     * @param homeBookie    ID of the bookie offering it.
+     * @param draw          Best price of a draw.
+     * @param drawBookie    ID of the bookie offering it.
+     * @param away          Best price of an away win.
+     * @param awayBookie    ID of the bookie offering it.
+     */
+    record Margin(int matchId, int bookies, double home, int homeBookie, double draw, int drawBookie,
+                  double away, int awayBookie) {
+
+        /**
+         * @return The sum of the chances implied by the best prices, below 1 for an arbitrage.
+         */
+        double overround() {
+            return 1 / home + 1 / draw + 1 / away;
+        }
+
+        /**
+         * @return True if backing every outcome at its best price wins whatever the result.
+         */
+        boolean isArbitrage() {
+            return overround() < 1;
+        }
+
+        /**
+         * @param bookieNames   Names of the bookies by ID.
+         * @param matches       All matches, to name the teams, or null.
+         * @return              The margin as it is sent to Admin.
+         */
+        MarginRow toRow(Map<Integer, String> bookieNames, MatchStore matches) {
+            MatchTable match = matches == null ? null : matches.get(matchId);
+            String fixture = match == null || match.home_team() == null || match.away_team() == null
+                    ? "" : match.home_team() + " v " + match.away_team();
+            return new MarginRow(matchId, fixture, bookies,
+                    home, bookieNames.getOrDefault(homeBookie, "bookie " + homeBookie),
+                    draw, bookieNames.getOrDefault(drawBookie, "bookie " + drawBookie),
+                    away, bookieNames.getOrDefault(awayBookie, "bookie " + awayBookie),
+                    overround());
+        }
+    }
+
+    /**
+     * The best prices of a match while they are being found. A price is
+     * beaten only by a higher one, or the same one from a bookie with a lower
+     * ID, so the result does not depend on the order the rows are read in.
+     */
+    private static final class BestPrices {
+        private final int matchId;
+        private int bookies = 0;
+        private double home = Double.NaN, draw = Double.NaN, away = Double.NaN;
+        private int homeBookie, drawBookie, awayBookie;
+
+        /**
+         * @param matchId ID of the match.
+         */
+        BestPrices(int matchId) {
+            this.matchId = matchId;
+        }
+
+        /**
+         * @param odds An odds row of the match.
+         */
+        void add(PricedOdds odds) {
+            bookies++;
+            if (beats(odds.home(), odds.bookieId(), home, homeBookie)) {
+                home = odds.home();
+                homeBookie = odds.bookieId();
+            }
+            if (beats(odds.draw(), odds.bookieId(), draw, drawBookie)) {
+                draw = odds.draw();
+                drawBookie = odds.bookieId();
+            }
+            if (beats(odds.away(), odds.bookieId(), away, awayBookie)) {
+                away = odds.away();
+                awayBookie = odds.bookieId();
+            }
+        }
+
+        /**
+         * @param other The best prices of the same match among other rows.
+         */
+        void merge(BestPrices other) {
+            bookies += other.bookies;
+            if (beats(other.home, other.homeBookie, home, homeBookie)) {
+                home = other.home;
+                homeBookie = other.homeBookie;
+            }
+            if (beats(other.draw, other.drawBookie, draw, drawBookie)) {
+                draw = other.draw;
+                drawBookie = other.drawBookie;
+            }
+            if (beats(other.away, other.awayBookie, away, awayBookie)) {
+                away = other.away;
+                awayBookie = other.awayBookie;
+            }
+        }
+
+        /**
+         * @return The margin of the match, or null if an outcome has no price.
+         */
+        Margin toMargin() {
+            if (Double.isNaN(home) || Double.isNaN(draw) || Double.isNaN(away)) {
+                return null;
+            }
+            return new Margin(matchId, bookies, home, homeBookie, draw, drawBookie, away, awayBookie);
+        }
+
+        /**
+         * @param price         A price, NaN if there is none.
+         * @param bookie        The bookie offering it.
+         * @param best          The best price so far, NaN if there is none.
+         * @param bestBookie    The bookie offering the best price.
+         * @return              True if the price replaces the best one.
+         */
+        private static boolean beats(double price, int bookie, double best, int bestBookie) {
+            if (Double.isNaN(price)) {
+                return false;
+            }
+            return Double.isNaN(best) || price > best || (price == best && bookie < bestBookie);
+        }
+    }
+
+    /**
+     * Finds the best prices of every match among a range of odds rows,
+     * splitting the range in halves until it is small enough to scan.
+     */
+    @SuppressWarnings("serial") // a task is never serialized, ForkJoinTask only happens to be Serializable
+    private static final class ScanTask extends RecursiveTask<Map<Integer, BestPrices>> {
+        private final PricedOdds[] odds;
+        private final int from, to;
+
+        /**
+         * @param odds  Prices of all odds rows.
+         * @param from  First row of the range.
+         * @param to    Row after the last one of the range.
+         */
+        ScanTask(PricedOdds[] odds, int from, int to) {
+            this.odds = odds;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return The best prices of every match priced in the range.
+         */
+        @Override
+        protected Map<Integer, BestPrices> compute() {
+            if (to - from <= SCAN_THRESHOLD) {
+                Map<Integer, BestPrices> best = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    best.computeIfAbsent(odds[i].matchId(), BestPrices::new).add(odds[i]);
+                }
+                return best;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask right = new ScanTask(odds, middle, to);
+            right.fork();
+            Map<Integer, BestPrices> left = new ScanTask(odds, from, middle).compute();
+            Map<Integer, BestPrices> other = right.join();
+            if (left.size() < other.size()) {
+                Map<Integer, BestPrices> swap = left;
+                left = other;
+                other = swap;
+            }
+            for (BestPrices prices : other.values()) {
+                BestPrices existing = left.putIfAbsent(prices.matchId, prices);
+                if (existing != null) {
+                    existing.merge(prices);
+                }
+            }
+            return left;
+        }
+    }
+
+    private final Map<Integer, PricedOdds> oddsById; // only used by the writer thread
+    private final Map<Integer, Map<Integer, PricedOdds>> oddsByMatch; // only used by the writer thread
+    private final Map<Integer, Margin> margins;
+    private final Map<Integer, Margin> arbitrage;
+    private volatile long version;
+
+    /**
+     * @param oddsById      The prices of every odds row by its ID.
+     * @param oddsByMatch   The prices of the odds rows of every match, by their ID.
+     * @param margins       The margin of every match with all outcomes priced.
+     * @param version       Version of 'odds' the margins were found at.
+     */
+    private OddsBook(Map<Integer, PricedOdds> oddsById, Map<Integer, Map<Integer, PricedOdds>> oddsByMatch,
+                     Map<Integer, Margin> margins, long version) {
+        this.oddsById = oddsById;
+        this.oddsByMatch = oddsByMatch;
+        this.margins = margins;
+        this.arbitrage = new ConcurrentHashMap<>();
+        margins.values().stream().filter(Margin::isArbitrage).forEach(margin -> arbitrage.put(margin.matchId(), margin));
+        this.version = version;
+    }
+
+    /**
+     * This method takes the prices of every odds row and finds the best
+     * prices of every match by a fork/join scan over them.
+     *
+     * @param rows      All rows of 'odds'.
+     * @param version   Version of the table the rows were read at.
+     * @return          The book.
+     */
+    static OddsBook build(List<OddsTable> rows, long version) {
+        PricedOdds[] odds = rows.parallelStream().map(PricedOdds::of).toArray(PricedOdds[]::new);
+        Map<Integer, Margin> margins = scan(odds);
+
+        Map<Integer, PricedOdds> oddsById = new HashMap<>();
+        Map<Integer, Map<Integer, PricedOdds>> oddsByMatch = new HashMap<>();
+        for (PricedOdds row : odds) {
+            oddsById.put(row.oddId(), row);
+            oddsByMatch.computeIfAbsent(row.matchId(), id -> new HashMap<>()).put(row.oddId(), row);
+        }
+        return new OddsBook(oddsById, oddsByMatch, margins, version);
+    }
+
+    /**
+     * This method finds the best prices of every match by a fork/join scan
+     * over the prices of odds rows.
+     *
+     * @param odds  Prices of odds rows.
+     * @return      The margin of every match with all outcomes priced, by match ID.
+     */
+    static Map<Integer, Margin> scan(PricedOdds[] odds) {
+        Map<Integer, Margin> margins = new ConcurrentHashMap<>();
+        ForkJoinPool.commonPool().invoke(new ScanTask(odds, 0, odds.length)).values().parallelStream()
+                .map(BestPrices::toMargin)
+                .filter(Objects::nonNull)
+                .forEach(margin -> margins.put(margin.matchId(), margin));
+        return margins;
+    }
+
+    /**
+     * This method applies a committed change of 'odds' to the book. Changes
+     * of other tables are ignored.
+     *
+     * @param change The change, with its version.
+     */
+    void apply(TableChange change) {
+        if (change.schema() != TableSchema.ODDS) {
+            return;
+        }
+        PricedOdds before = oddsById.remove(change.id());
+        if (before != null) {
+            Map<Integer, PricedOdds> matchOdds = oddsByMatch.get(before.matchId());
+            matchOdds.remove(before.oddId());
+            if (matchOdds.isEmpty()) {
+                oddsByMatch.remove(before.matchId());
+            }
+        }
+        PricedOdds after = null;
+        if (change.type() != ChangeType.DELETE && change.row() instanceof OddsTable odds) {
+            after = PricedOdds.of(odds);
+            oddsById.put(after.oddId(), after);
+            oddsByMatch.computeIfAbsent(after.matchId(), id -> new HashMap<>()).put(after.oddId(), after);
+        }
+        if (before != null) {
+            reprice(before.matchId());
+        }
+        if (after != null && (before == null || before.matchId() != after.matchId())) {
+            reprice(after.matchId());
+        }
+        version = change.version();
+    }
+
+    /**
+     * @param matchId   ID of a match.
+     * @return          Its best prices, or null if an outcome of it has no price.
+     */
+    Margin get(int matchId) {
+        return margins.get(matchId);
+    }
+
+    /**
+     * @return The margin of every match with all outcomes priced, the lowest overround first.
+     */
+    List<Margin> all() {
+        return margins.values().stream().sorted(OVERROUND_ORDER).toList();
+    }
+
+    /**
+     * @return The margin of every match that can be backed at a profit, the biggest profit first.
+     */
+    List<Margin> arbitrage() {
+        return arbitrage.values().stream().sorted(OVERROUND_ORDER).toList();
+    }
+
+    /**
+     * @return Version of 'odds' the book is up to date with.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Number of matches with all outcomes priced.
+     */
+    int getMatchCount() {
+        return margins.size();
+    }
+
+    /**
+     * Find the best prices of a match again from its odds rows.
+     *
+     * @param matchId ID of the match.
+     */
+    private void reprice(int matchId) {
+        Map<Integer, PricedOdds> matchOdds = oddsByMatch.get(matchId);
+        Margin margin = null;
+        if (matchOdds != null) {
+            BestPrices best = new BestPrices(matchId);
+            matchOdds.values().forEach(best::add);
+            margin = best.toMargin();
+        }
+        if (margin == null) {
+            margins.remove(matchId);
+            arbitrage.remove(matchId);
+            return;
+        }
+        margins.put(matchId, margin);
+        if (margin.isArbitrage()) {
+            arbitrage.put(matchId, margin);
+        } else {
+            arbitrage.remove(matchId);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package server;
+
+import both.Column;
+import both.ColumnType;
+import both.OddsFormat;
+import both.TableSchema;
+import org.sqlite.Function;
+import org.sqlite.core.Codes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.StringJoiner;
+
+/**
+ * This class holds the steps that convert the prices of the 'odds' table from
+ * the fractional odds text they were kept in to REAL decimal prices, while
+ * the server keeps running.
+ * <p>
+ * A shadow table with the typed columns and the indexes of 'odds' is created
+ * next to it, with triggers that repeat every insert, update and delete of
+ * 'odds' on it. The
+ * rows are then copied in batches of increasing ID, each batch a short
+ * transaction of its own, so writes of Admins go on between them. At the end
+ * both tables swap names in a single short transaction, and the text table is
+ * kept as 'odds_text'.
+ * <p>
+ * The text is converted by the SQL function {@value #FUNCTION}, the same
+ * {@link OddsFormat#fromText(Object)} the server reads the text table with,
+ * so both give the same prices. It has to be registered on every connection
+ * that writes 'odds' while the triggers exist. Every step must run on the
+ * writer connection, see {@link SQLiteDatabase#migrateOdds(int, long)}.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class OddsMigration {
+
+    static final String FUNCTION = "odds_price";
+    static final String SHADOW_TABLE = "odds_typed";
+    static final String BACKUP_TABLE = "odds_text";
+
+    private static final TableSchema SCHEMA = TableSchema.ODDS;
+    private static final String TABLE = SCHEMA.getTableName();
+    private static final String[] TRIGGERS = {"odds_typed_insert", "odds_typed_update", "odds_typed_delete"};
+
+    /**
+     * The result of copying a batch.
+     *
+     * @param lastId    ID of the last row of the batch, or -1 if there were no rows left.
+     * @param copied    Number of rows copied, without those the triggers had copied already.
+     */
+    record Batch(int lastId, int copied) {
+    }
+
+    /**
+     * A step that runs in a transaction.
+     */
+    @FunctionalInterface
+    private interface Step {
+        /**
+         * @param statement     A statement of the connection.
+         * @throws SQLException If the step fails.
+         */
+        void run(Statement statement) throws SQLException;
+    }
+
+    private OddsMigration() {
+    }
+
+    /**
+     * This method registers the function converting a price kept as text.
+     *
+     * @param connection    The connection.
+     * @throws SQLException If the function cannot be registered.
+     */
+    static void registerFunction(Connection connection) throws SQLException {
+        Function.create(connection, FUNCTION, new Function() {
+            @Override
+            protected void xFunc() throws SQLException {
+                double price = switch (value_type(0)) {
+                    case Codes.SQLITE_INTEGER, Codes.SQLITE_FLOAT -> OddsFormat.fromText(value_double(0));
+                    case Codes.SQLITE_TEXT -> OddsFormat.fromText(value_text(0));
+                    default -> Double.NaN;
+                };
+                if (Double.isNaN(price)) {
+                    result();
+                } else {
+                    result(price);
+                }
+            }
+        }, 1, Function.FLAG_DETERMINISTIC);
+    }
+
+    /**
+     * @param connection    A connection to the database.
+     * @return              True if the prices of 'odds' are REAL columns.
+     * @throws SQLException If the table cannot be described.
+     */
+    static boolean isTyped(Connection connection) throws SQLException {
+        String priceColumn = null;
+        for (Column column : SCHEMA.getEditableColumns()) {
+            if (column.type() == ColumnType.REAL) {
+                priceColumn = column.name();
+                break;
+            }
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet columns = statement.executeQuery("PRAGMA table_info(" + SqlTemplates.quote(TABLE) + ")")) {
+            while (columns.next()) {
+                if (priceColumn.equals(columns.getString("name"))) {
+                    return "REAL".equalsIgnoreCase(columns.getString("type"));
+                }
+            }
+        }
+        throw new SQLException("Table " + TABLE + " has no column " + priceColumn);
+    }
+
+    /**
+     * This method creates the shadow table and the triggers that keep it up
+     * to date, dropping what an earlier migration that did not finish left.
+     *
+     * @param connection    The writer connection.
+     * @throws SQLException If the table or the triggers cannot be created.
+     */
+    static void prepare(Connection connection) throws SQLException {
+        if (tableExists(connection, BACKUP_TABLE)) {
+            throw new SQLException("Table " + BACKUP_TABLE + " already exists, the odds cannot be migrated");
+        }
+        inTransaction(connection, statement -> {
+            dropShadow(statement);
+            StringJoiner columns = new StringJoiner(", ");
+            columns.add(SqlTemplates.quote(SCHEMA.getIdColumn()) + " INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT UNIQUE");
+            for (Column column : SCHEMA.getEditableColumns()) {
+                columns.add(SqlTemplates.quote(column.name()) + " " + column.type().name());
+            }
+            statement.execute("CREATE TABLE " + SqlTemplates.quote(SHADOW_TABLE) + " (" + columns + ")");
+            // built while the table is empty and kept up by the batches, so the swap need not build them
+            for (SchemaIndexes.Index index : SchemaIndexes.INDEXES) {
+                if (index.schema() == SCHEMA && !SchemaIndexes.isRowId(connection, index)) {
+                    statement.execute(index.createSql(index.name() + "_typed", SHADOW_TABLE));
+                }
+            }
+
+            String delete = "DELETE FROM " + SqlTemplates.quote(SHADOW_TABLE)
+                    + " WHERE " + SqlTemplates.quote(SCHEMA.getIdColumn()) + " = OLD." + SqlTemplates.quote(SCHEMA.getIdColumn()) + ";";
+            String insert = "INSERT OR REPLACE INTO " + SqlTemplates.quote(SHADOW_TABLE) + " (" + columnList() + ")"
+                    + " VALUES (" + convertedList("NEW.") + ");";
+            statement.execute("CREATE TRIGGER " + TRIGGERS[0] + " AFTER INSERT ON " + SqlTemplates.quote(TABLE)
+                    + " BEGIN " + insert + " END");
+            statement.execute("CREATE TRIGGER " + TRIGGERS[1] + " AFTER UPDATE ON " + SqlTemplates.quote(TABLE)
+                    + " BEGIN " + delete + " " + insert + " END");
+            statement.execute("CREATE TRIGGER " + TRIGGERS[2] + " AFTER DELETE ON " + SqlTemplates.quote(TABLE)
+                    + " BEGIN " + delete + " END");
+        });
+    }
+
+    /**
+     * @return The statement copying the next batch of rows, after an ID, into the shadow table.
+     */
+    static String copyBatchSql() {
+        return "INSERT OR IGNORE INTO " + SqlTemplates.quote(SHADOW_TABLE) + " (" + columnList() + ")"
+                + " SELECT " + convertedList("") + " FROM " + SqlTemplates.quote(TABLE)
+                + " WHERE " + SqlTemplates.quote(SCHEMA.getIdColumn()) + " > ?"
+                + " ORDER BY " + SqlTemplates.quote(SCHEMA.getIdColumn()) + " LIMIT ?";
+    }
+
+    /**
+     * @return The statement finding the ID of the last row of the next batch, after an ID.
+     */
+    static String batchEndSql() {
+        String id = SqlTemplates.quote(SCHEMA.getIdColumn());
+        return "SELECT max(" + id + ") FROM (SELECT " + id + " FROM " + SqlTemplates.quote(TABLE)
+                + " WHERE " + id + " > ? ORDER BY " + id + " LIMIT ?)";
+    }
+
+    /**
+     * This method copies the next batch of rows into the shadow table. Rows
+     * the triggers have copied already are kept as they are.
+     *
+     * @param connection    The writer connection.
+     * @param afterId       ID of the last row of the previous batch, 0 for the first one.
+     * @param batchSize     Number of rows in a batch.
+     * @return              The batch.
+     * @throws SQLException If the rows cannot be copied.
+     */
+    static Batch copyBatch(Connection connection, int afterId, int batchSize) throws SQLException {
+        int lastId;
+        try (PreparedStatement end = connection.prepareStatement(batchEndSql())) {
+            end.setInt(1, afterId);
+            end.setInt(2, batchSize);
+            try (ResultSet resultSet = end.executeQuery()) {
+                lastId = resultSet.getInt(1);
+                if (resultSet.wasNull()) {
+                    return new Batch(-1, 0);
+                }
+            }
+        }
+        try (PreparedStatement copy = connection.prepareStatement(copyBatchSql())) {
+            copy.setInt(1, afterId);
+            copy.setInt(2, batchSize);
+            return new Batch(lastId, copy.executeUpdate());
+        }
+    }
+
+    /**
+     * This method checks that the shadow table holds every row, then swaps
+     * the tables, carries the last ID given out and recreates the indexes.
+     *
+     * @param connection    The writer connection.
+     * @throws SQLException If a row is missing or the tables cannot be swapped.
+     */
+    static void swap(Connection connection) throws SQLException {
+        inTransaction(connection, statement -> {
+            long rows = count(statement, TABLE);
+            long copied = count(statement, SHADOW_TABLE);
+            if (rows != copied) {
+                throw new SQLException(SHADOW_TABLE + " holds " + copied + " of the " + rows + " rows of " + TABLE);
+            }
+            for (String trigger : TRIGGERS) {
+                statement.execute("DROP TRIGGER IF EXISTS " + trigger);
+            }
+            // the text table is only kept as a backup; the shadow table has its own indexes
+            for (SchemaIndexes.Index index : SchemaIndexes.INDEXES) {
+                if (index.schema() == SCHEMA) {
+                    statement.execute("DROP INDEX IF EXISTS " + SqlTemplates.quote(index.name()));
+                }
+            }
+            statement.execute("ALTER TABLE " + SqlTemplates.quote(TABLE) + " RENAME TO " + SqlTemplates.quote(BACKUP_TABLE));
+            statement.execute("ALTER TABLE " + SqlTemplates.quote(SHADOW_TABLE) + " RENAME TO " + SqlTemplates.quote(TABLE));
+            // IDs of deleted rows must not be given out again
+            statement.execute("DELETE FROM sqlite_sequence WHERE name = '" + TABLE + "'");
+            statement.execute("INSERT INTO sqlite_sequence (name, seq) VALUES ('" + TABLE + "', max("
+                    + "coalesce((SELECT seq FROM sqlite_sequence WHERE name = '" + BACKUP_TABLE + "'), 0), "
+                    + "coalesce((SELECT max(" + SqlTemplates.quote(SCHEMA.getIdColumn()) + ") FROM "
+                    + SqlTemplates.quote(TABLE) + "), 0)))");
+            SchemaIndexes.ensure(statement.getConnection());
+        });
+    }
+
+    /**
+     * This method drops the shadow table and its triggers, leaving 'odds' as it was.
+     *
+     * @param connection    The writer connection.
+     * @throws SQLException If they cannot be dropped.
+     */
+    static void abort(Connection connection) throws SQLException {
+        inTransaction(connection, OddsMigration::dropShadow);
+    }
+
+    /**
+     * @param statement     A statement of the writer connection.
+     * @throws SQLException If the triggers or the table cannot be dropped.
+     */
+    private static void dropShadow(Statement statement) throws SQLException {
+        for (String trigger : TRIGGERS) {
+            statement.execute("DROP TRIGGER IF EXISTS " + trigger);
+        }
+        statement.execute("DROP TABLE IF EXISTS " + SqlTemplates.quote(SHADOW_TABLE));
+    }
+
+    /**
+     * @param connection    The writer connection, in auto-commit mode.
+     * @param step          The step to run in a transaction.
+     * @throws SQLException If the step fails; it is then rolled back.
+     */
+    private static void inTransaction(Connection connection, Step step) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            step.run(statement);
+            connection.commit();
+        } catch (SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @param connection    A connection to the database.
+     * @param table         Name of a table.
+     * @return              True if the table exists.
+     * @throws SQLException If the schema cannot be read.
+     */
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * @param statement     A statement.
+     * @param table         Name of a table.
+     * @return              Number of rows of the table.
+     * @throws SQLException If they cannot be counted.
+     */
+    private static long count(Statement statement, String table) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM " + SqlTemplates.quote(table))) {
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * @param prefix    Prefix of every column, like "NEW.".
+     * @return          The ID and editable columns of 'odds', those of prices converted from text.
+     */
+    private static String convertedList(String prefix) {
+        StringJoiner values = new StringJoiner(", ");
+        values.add(prefix + SqlTemplates.quote(SCHEMA.getIdColumn()));
+        for (Column column : SCHEMA.getEditableColumns()) {
+            String value = prefix + SqlTemplates.quote(column.name());
+            values.add(column.type() == ColumnType.REAL ? FUNCTION + "(" + value + ")" : value);
+        }
+        return values.toString();
+    }
+
+    /**
+     * @return The ID and editable columns of 'odds'.
+     */
+    private static String columnList() {
+        StringJoiner columns = new StringJoiner(", ");
+        columns.add(SqlTemplates.quote(SCHEMA.getIdColumn()));
+        for (Column column : SCHEMA.getEditableColumns()) {
+            columns.add(SqlTemplates.quote(column.name()));
+        }
+        return columns.toString();
+    }
+}
@@ -0,0 +1,236 @@
+package server;
+
+import both.TableSchema;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * This class holds the bytes waiting to be written to a single Admin.
+ * <p>
+ * The queue is bounded by the number of bytes it holds, so an Admin that reads
+ * slowly cannot make the server buffer without limit. What happens to a
+ * message that does not fit depends on its {@link Kind} and on the
+ * {@link Policy} set by {@code server.outboundPolicy}:
+ * <ul>
+ *     <li>COALESCE drops datetime broadcasts and replaces the queued snapshots
+ *     and changes of a table by a single new snapshot of it.</li>
+ *     <li>DROP_BROADCASTS drops datetime broadcasts.</li>
+ *     <li>DISCONNECT drops nothing.</li>
+ * </ul>
+ * Whatever still does not fit closes the connection.
+ * <p>
+ * A file queued for Admin, see {@link FileRegion}, is sent from the disk and
+ * takes no room in the queue.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class OutboundQueue {
+
+    private static final long DEFAULT_CAPACITY = Long.getLong("server.outboundBytes", 4L * 1024 * 1024);
+    private static final Policy DEFAULT_POLICY = Policy.fromName(System.getProperty("server.outboundPolicy", "coalesce"));
+
+    /**
+     * What to do with a message that does not fit.
+     */
+    enum Policy {
+        COALESCE,
+        DROP_BROADCASTS,
+        DISCONNECT;
+
+        /**
+         * @param name  Name of the policy, case and dashes do not matter.
+         * @return      The matching policy.
+         * @throws IllegalArgumentException If there is none.
+         */
+        static Policy fromName(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    /**
+     * What a message is, which decides whether it may be dropped or replaced.
+     */
+    enum Kind {
+        /** Replies, pages and everything else that must arrive. */
+        DATA,
+        /** A whole table, replaced by a newer one when coalescing. */
+        SNAPSHOT,
+        /** A change of a table, replaced by a snapshot when coalescing. */
+        DELTA,
+        /** The datetime broadcast, the next one makes it stale anyway. */
+        BROADCAST,
+        /** A file sent from the disk, which must arrive. */
+        FILE
+    }
+
+    /**
+     * What became of an offered message.
+     */
+    enum Result {
+        QUEUED,
+        DROPPED,
+        FULL
+    }
+
+    /**
+     * A message waiting to be written.
+     *
+     * @param bytes The bytes, owned by the queue, or null for a file.
+     * @param file  The file, owned by the queue, or null for bytes.
+     * @param kind  What the message is.
+     * @param table The table of a snapshot or change, null otherwise.
+     */
+    record Message(ByteBuffer bytes, FileRegion file, Kind kind, TableSchema table) {
+    }
+
+    private final ArrayDeque<Message> messages = new ArrayDeque<>();
+    private final long capacity;
+    private final Policy policy;
+    private long queuedBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor uses the capacity and policy given by the system properties.
+     */
+    OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    /**
+     * @param capacity  Number of bytes the queue may hold.
+     * @param policy    What to do with a message that does not fit.
+     */
+    OutboundQueue(long capacity, Policy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * @return What to do with a message that does not fit.
+     */
+    Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Add a message to the end of the queue if it fits, after making room as the policy allows.
+     * A message larger than the whole queue is accepted into an empty queue.
+     *
+     * @param bytes The bytes, which are not copied and must not be changed afterwards.
+     * @param kind  What the message is.
+     * @param table The table of a snapshot or change, null otherwise.
+     * @return      QUEUED, DROPPED if the message was dropped by the policy,
+     *              or FULL if it does not fit and the connection should be closed.
+     */
+    synchronized Result offer(ByteBuffer bytes, Kind kind, TableSchema table) {
+        if (closed) {
+            return Result.DROPPED;
+        }
+        int size = bytes.remaining();
+        if (queuedBytes > 0 && queuedBytes + size > capacity) {
+            if (kind == Kind.BROADCAST && policy != Policy.DISCONNECT) {
+                ServerMetrics.INSTANCE.outboundDropped();
+                return Result.DROPPED;
+            }
+            if (kind == Kind.SNAPSHOT && policy == Policy.COALESCE) {
+                removeTable(table);
+            }
+            if (queuedBytes > 0 && queuedBytes + size > capacity) {
+                return Result.FULL;
+            }
+        }
+        messages.add(new Message(bytes, null, kind, table));
+        queuedBytes += size;
+        ServerMetrics.INSTANCE.recordOutboundDepth(queuedBytes);
+        notifyAll();
+        return Result.QUEUED;
+    }
+
+    /**
+     * Add a file to the end of the queue. It is read from the disk as it is
+     * written, so it always fits.
+     *
+     * @param file  The file, closed by the queue once it has been written or dropped.
+     * @return      QUEUED, or DROPPED if the queue has been closed.
+     */
+    synchronized Result offerFile(FileRegion file) {
+        if (closed) {
+            file.close();
+            return Result.DROPPED;
+        }
+        messages.add(new Message(null, file, Kind.FILE, null));
+        notifyAll();
+        return Result.QUEUED;
+    }
+
+    /**
+     * Remove the queued snapshots and changes of a table, which a newer snapshot makes stale.
+     *
+     * @param table The table.
+     */
+    private void removeTable(TableSchema table) {
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.table() == table && (message.kind() == Kind.SNAPSHOT || message.kind() == Kind.DELTA)) {
+                iterator.remove();
+                queuedBytes -= message.bytes().remaining();
+                ServerMetrics.INSTANCE.outboundCoalesced();
+            }
+        }
+    }
+
+    /**
+     * @return The first message, or null if the queue is empty.
+     */
+    synchronized Message poll() {
+        Message message = messages.poll();
+        if (message != null && message.bytes() != null) {
+            queuedBytes -= message.bytes().remaining();
+        }
+        return message;
+    }
+
+    /**
+     * Wait for the first message.
+     *
+     * @return                      The first message, or null once the queue has been closed.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    synchronized Message take() throws InterruptedException {
+        while (messages.isEmpty() && !closed) {
+            wait();
+        }
+        return closed ? null : poll();
+    }
+
+    /**
+     * @return True if nothing is waiting to be written.
+     */
+    synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * @return Number of bytes waiting to be written.
+     */
+    synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Drop everything queued and refuse further messages.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Message message : messages) {
+            if (message.file() != null) message.file().close();
+        }
+        messages.clear();
+        queuedBytes = 0;
+        notifyAll();
+    }
+}
@@ -0,0 +1,239 @@
+package server;
+
+import both.Column;
+import both.ColumnType;
+import both.OddsFormat;
+import both.Query;
+import both.TableSchema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class turns the {@link Query} of a QUERY into a SELECT of the table.
+ * <p>
+ * Only names of columns the table has make it into the SQL, quoted, and every
+ * value is bound to a {@code ?} placeholder as the type of its column, so a
+ * query can neither inject SQL nor compare numbers as text. Datetime is text
+ * too, dd/MM/yyyy HH:mm, so it is compared and ordered through
+ * {@link SqlTemplates#datetimeKey(String)}, which sorts as time does.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class QueryCompiler {
+
+    private static final int MAX_VALUES = 1000;
+    private static final String DATETIME = "Datetime";
+
+    /**
+     * A SELECT ready to be prepared.
+     * <p>
+     * The migration of the odds may swap their prices from text to REAL
+     * between compiling a query and running it, so the statement is compiled
+     * for both and the one to run is picked when the query runs.
+     *
+     * @param sql           The statement, with a placeholder for every parameter.
+     * @param textPricesSql The same statement for while the columns declared REAL are still kept as text.
+     * @param parameters    Values of the placeholders in order, as Integer, String or null, the same for both.
+     * @param limit         Number of rows asked for; the statement selects one more to tell if there are others.
+     */
+    record CompiledQuery(String sql, String textPricesSql, List<Object> parameters, int limit) {
+
+        /**
+         * @param textPrices    True while the columns declared REAL are still kept as text.
+         * @return              The statement to run.
+         */
+        String sql(boolean textPrices) {
+            return textPrices ? textPricesSql : sql;
+        }
+    }
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * @param schema    The table.
+     * @param query     The query of Admin.
+     * @param maxRows   The most rows a query may send.
+     * @return          The SELECT, ordered by the ID column, newest first, unless the query orders it.
+     * @throws IllegalArgumentException If the query names a column the table does not have,
+     *                                  or a value does not fit its column.
+     */
+    static CompiledQuery compile(TableSchema schema, Query query, int maxRows) {
+        CompiledQuery typed = compile(schema, query, maxRows, false);
+        return new CompiledQuery(typed.sql(), compile(schema, query, maxRows, true).sql(), typed.parameters(),
+                typed.limit());
+    }
+
+    /**
+     * @param schema    The table.
+     * @param query     The query of Admin.
+     * @param maxRows   The most rows a query may send.
+     * @param textPrices True while the columns declared REAL are still kept as text; they are then
+     *                  compared and ordered through {@link OddsMigration#FUNCTION}, as the prices they hold.
+     * @return          The SELECT for the prices as they are kept, the same in both fields.
+     * @throws IllegalArgumentException If the query names a column the table does not have,
+     *                                  or a value does not fit its column.
+     */
+    private static CompiledQuery compile(TableSchema schema, Query query, int maxRows, boolean textPrices) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(SqlTemplates.quote(schema.getTableName()));
+        List<Object> parameters = new ArrayList<>();
+
+        String separator = " WHERE ";
+        for (Query.Predicate predicate : query.getPredicates()) {
+            sql.append(separator);
+            separator = " AND ";
+            if (predicate.columns().isEmpty()) {
+                throw new IllegalArgumentException("A predicate needs a column");
+            }
+            checkValueCount(predicate);
+            if (predicate.columns().size() > 1) sql.append('(');
+            for (int i = 0; i < predicate.columns().size(); i++) {
+                if (i > 0) sql.append(" OR ");
+                Column column = column(schema, predicate.columns().get(i));
+                appendComparison(sql, parameters, column, predicate, textPrices);
+            }
+            if (predicate.columns().size() > 1) sql.append(')');
+        }
+
+        Column order = column(schema, query.getOrderBy() == null ? schema.getIdColumn() : query.getOrderBy());
+        boolean descending = query.getOrderBy() == null || query.isDescending();
+        sql.append(" ORDER BY ").append(expression(order, textPrices)).append(descending ? " DESC" : " ASC");
+        if (!order.name().equals(schema.getIdColumn())) {
+            // rows with the same value always come in the same order
+            sql.append(", ").append(SqlTemplates.quote(schema.getIdColumn())).append(descending ? " DESC" : " ASC");
+        }
+
+        int limit = query.getLimit() <= 0 ? maxRows : Math.min(query.getLimit(), maxRows);
+        sql.append(" LIMIT ?");
+        parameters.add(limit + 1);
+        return new CompiledQuery(sql.toString(), sql.toString(), parameters, limit);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param name      Name of a column as given by Admin.
+     * @return          The column.
+     * @throws IllegalArgumentException If the table has no such column.
+     */
+    private static Column column(TableSchema schema, String name) {
+        Column column = name == null ? null : schema.getColumn(name.trim());
+        if (column == null) {
+            throw new IllegalArgumentException("'" + schema.getTableName() + "' has no column " + name);
+        }
+        return column;
+    }
+
+    /**
+     * @param column        A column.
+     * @param textPrices    True while the columns declared REAL are still kept as text.
+     * @return              The column quoted, the price it holds if it is a price kept as text,
+     *                      or its key if it is Datetime.
+     */
+    private static String expression(Column column, boolean textPrices) {
+        if (column.name().equals(DATETIME)) {
+            return SqlTemplates.datetimeKey(column.name());
+        }
+        String name = SqlTemplates.quote(column.name());
+        return textPrices && column.type() == ColumnType.REAL ? OddsMigration.FUNCTION + "(" + name + ")" : name;
+    }
+
+    /**
+     * @param predicate A predicate.
+     * @throws IllegalArgumentException If the predicate has the wrong number of values for its operator.
+     */
+    private static void checkValueCount(Query.Predicate predicate) {
+        int count = predicate.values().size();
+        boolean valid = switch (predicate.operator()) {
+            case BETWEEN -> count == 2;
+            case IN -> count >= 1 && count <= MAX_VALUES;
+            default -> count == 1;
+        };
+        if (!valid) {
+            throw new IllegalArgumentException(predicate.operator() + " cannot take " + count + " values");
+        }
+        if (predicate.operator() != Query.Operator.EQ && predicate.operator() != Query.Operator.NE
+                && predicate.values().contains(null)) {
+            throw new IllegalArgumentException(predicate.operator() + " cannot compare with null");
+        }
+    }
+
+    /**
+     * Append the comparison of one column and add its values to the parameters.
+     *
+     * @param sql           The statement being built.
+     * @param parameters    The parameters of the statement.
+     * @param column        The column.
+     * @param predicate     The predicate.
+     * @param textPrices    True while the columns declared REAL are still kept as text.
+     */
+    private static void appendComparison(StringBuilder sql, List<Object> parameters, Column column,
+                                         Query.Predicate predicate, boolean textPrices) {
+        String name = expression(column, textPrices);
+        List<String> values = predicate.values();
+        switch (predicate.operator()) {
+            case BETWEEN -> {
+                sql.append(name).append(" BETWEEN ? AND ?");
+                parameters.add(convert(column, values.get(0), false));
+                parameters.add(convert(column, values.get(1), true));
+            }
+            case IN -> {
+                sql.append(name).append(" IN (");
+                for (int i = 0; i < values.size(); i++) {
+                    sql.append(i == 0 ? "?" : ",?");
+                    parameters.add(convert(column, values.get(i), false));
+                }
+                sql.append(')');
+            }
+            case LT, LE, GT, GE -> {
+                sql.append(name).append(' ').append(predicate.operator().getSymbol()).append(" ?");
+                // a day alone is over once its last minute is, so it ends the range of <= and starts that of >
+                boolean end = predicate.operator() == Query.Operator.LE || predicate.operator() == Query.Operator.GT;
+                parameters.add(convert(column, values.get(0), end));
+            }
+            default -> {
+                if (values.get(0) == null) {
+                    sql.append(name).append(predicate.operator() == Query.Operator.EQ ? " IS NULL" : " IS NOT NULL");
+                } else {
+                    sql.append(name).append(' ').append(predicate.operator().getSymbol()).append(" ?");
+                    parameters.add(convert(column, values.get(0), false));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param column    The column a value is compared with.
+     * @param value     The value given by Admin.
+     * @param end       True if the value is the upper end of a range, or what a range starts after.
+     * @return          The value as the type of the column, a Datetime as its key.
+     * @throws IllegalArgumentException If an integer or price column is compared with something else,
+     *                                  or Datetime with something that is not a date.
+     */
+    private static Object convert(Column column, String value, boolean end) {
+        if (column.name().equals(DATETIME)) {
+            try {
+                return SqlTemplates.datetimeKey(value, end);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Column " + column.name() + ": " + ex.getMessage());
+            }
+        }
+        return switch (column.type()) {
+            case INTEGER -> {
+                try {
+                    yield Integer.valueOf(value.trim());
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Column " + column.name() + " needs an integer, got '" + value + "'");
+                }
+            }
+            case REAL -> {
+                try {
+                    yield OddsFormat.parse(value);
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Column " + column.name() + ": " + ex.getMessage());
+                }
+            }
+            case TEXT -> value;
+        };
+    }
+}
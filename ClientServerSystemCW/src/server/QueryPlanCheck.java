@@ -0,0 +1,208 @@
+package server;
+
+import both.Query;
+import both.TableSchema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class asks SQLite how it plans every statement the server issues on a
+ * table, and fails if a hot one would read a whole table, or sort rows it
+ * could have read in order, to find a few rows.
+ * <p>
+ * It runs on a copy of the database, after {@link SchemaIndexes} has created
+ * the indexes the server creates at startup, and is run by {@code mvn test}:
+ * <pre>
+ *     java -cp target/classes:sqlite-jdbc.jar server.QueryPlanCheck FootballBetting-SQL/football-match-data.sqlite
+ * </pre>
+ * Statements that touch no table, like SAVEPOINT and last_insert_rowid(), have
+ * no plan and are not listed. The QUERY command builds its SELECT from what
+ * Admin asks for, so the filters Admin offers are checked in their place.
+ * While the odds are still text, the shadow table of {@link OddsMigration} is
+ * created on the copy so that the batches of the migration can be checked.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class QueryPlanCheck {
+
+    /**
+     * How a statement may read its table.
+     */
+    enum Access {
+        /**
+         * Only the rows asked for are looked up, through the primary key or an index.
+         */
+        SEARCH,
+        /**
+         * The table may be read from one end, in the order of its primary key or
+         * an index, as far as a LIMIT needs; it is never sorted.
+         */
+        IN_ORDER
+    }
+
+    /**
+     * A statement and how it must read its table.
+     *
+     * @param name          What the statement is for.
+     * @param sql           The statement.
+     * @param parameters    Values of its placeholders, if it has any worth binding.
+     * @param access        How it may read its table.
+     */
+    record Statement(String name, String sql, List<Object> parameters, Access access) {
+    }
+
+    private QueryPlanCheck() {
+    }
+
+    /**
+     * @param args              Path of the database to check a copy of.
+     * @throws IOException      If the database cannot be copied.
+     * @throws SQLException     If a statement cannot be planned.
+     */
+    public static void main(String[] args) throws IOException, SQLException {
+        Path source = Path.of(args.length > 0 ? args[0] : "FootballBetting-SQL/football-match-data.sqlite");
+        Path copy = Files.createTempFile("query-plan-check", ".sqlite");
+        try {
+            Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+            List<String> failures;
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + copy)) {
+                List<String> created = SchemaIndexes.ensure(connection);
+                System.out.println("Created indexes " + created);
+                if (!OddsMigration.isTyped(connection)) {
+                    OddsMigration.registerFunction(connection);
+                    OddsMigration.prepare(connection);
+                    System.out.println("Created " + OddsMigration.SHADOW_TABLE + " to check the migration of the odds");
+                }
+                failures = check(connection, statements());
+            }
+            if (!failures.isEmpty()) {
+                failures.forEach(System.err::println);
+                System.err.println(failures.size() + " statements would scan or sort a table");
+                System.exit(1);
+            }
+            System.out.println("All statements use an index or read their table in order");
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    /**
+     * @return Every statement the server issues on a table, with filters of QUERY Admin offers.
+     */
+    static List<Statement> statements() {
+        List<Statement> statements = new ArrayList<>();
+        for (TableSchema schema : TableSchema.values()) {
+            String table = schema.getTableName();
+            statements.add(new Statement(table + " all rows", SqlTemplates.selectAll(schema), List.of(), Access.IN_ORDER));
+            statements.add(new Statement(table + " export", SqlTemplates.export(schema), List.of(), Access.IN_ORDER));
+            statements.add(new Statement(table + " snapshot", SqlTemplates.snapshot(schema), List.of(), Access.IN_ORDER));
+            statements.add(new Statement(table + " first page", SqlTemplates.page(schema, false), List.of(), Access.IN_ORDER));
+            statements.add(new Statement(table + " next page", SqlTemplates.page(schema, true), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " by id", SqlTemplates.selectById(schema), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " id range", SqlTemplates.selectRange(schema), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " max id", SqlTemplates.maxId(schema), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " insert", SqlTemplates.insert(schema), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " update", SqlTemplates.update(schema), List.of(), Access.SEARCH));
+            statements.add(new Statement(table + " delete", SqlTemplates.delete(schema), List.of(), Access.SEARCH));
+        }
+        addQuery(statements, TableSchema.MATCHES, "Season = '2020'", Access.SEARCH);
+        addQuery(statements, TableSchema.MATCHES, "HomeTeam|AwayTeam = 'Arsenal'", Access.SEARCH);
+        addQuery(statements, TableSchema.MATCHES,
+                "Season = '2020' AND HomeTeam|AwayTeam = 'Arsenal' ORDER BY Datetime DESC", Access.SEARCH);
+        // ranges and orders of Datetime go through its key, which idx_matches_datetime_key holds
+        addQuery(statements, TableSchema.MATCHES,
+                "Datetime BETWEEN '01/07/2020' AND '31/07/2020' ORDER BY Datetime", Access.SEARCH);
+        addQuery(statements, TableSchema.MATCHES, "Datetime >= '2020-07-20 15:00' ORDER BY Datetime", Access.SEARCH);
+        addQuery(statements, TableSchema.MATCHES, "ORDER BY Datetime DESC LIMIT 50", Access.IN_ORDER);
+        addQuery(statements, TableSchema.MATCHES, "Datetime = '24/07/2020 03:30'", Access.SEARCH);
+        addQuery(statements, TableSchema.MATCHES, "match_id BETWEEN 100 AND 200", Access.SEARCH);
+        addQuery(statements, TableSchema.ODDS, "match_id = 5", Access.SEARCH);
+        addQuery(statements, TableSchema.ODDS, "match_id IN (5, 6, 7)", Access.SEARCH);
+        addQuery(statements, TableSchema.ODDS, "match_id = 5 AND bookie_id = 2", Access.SEARCH);
+        statements.add(new Statement("odds migration batch end", OddsMigration.batchEndSql(),
+                List.of(0, 1000), Access.SEARCH));
+        statements.add(new Statement("odds migration copy", OddsMigration.copyBatchSql(),
+                List.of(0, 1000), Access.SEARCH));
+        return statements;
+    }
+
+    /**
+     * @param statements    The statements to add the SELECT of a QUERY to.
+     * @param schema        The table.
+     * @param query         The query, as typed into Admin.
+     * @param access        How it may read its table.
+     */
+    private static void addQuery(List<Statement> statements, TableSchema schema, String query, Access access) {
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(schema, Query.parse(query),
+                AdminConnection.MAX_PAGE_SIZE);
+        statements.add(new Statement("QUERY " + schema.getTableName() + " " + query, compiled.sql(),
+                compiled.parameters(), access));
+    }
+
+    /**
+     * This method prints the plan of every statement.
+     *
+     * @param connection    A connection to the database, with its indexes.
+     * @param statements    The statements to plan.
+     * @return              A line for every statement that reads its table in a way it must not.
+     * @throws SQLException If a statement cannot be planned.
+     */
+    static List<String> check(Connection connection, List<Statement> statements) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        for (Statement statement : statements) {
+            List<String> plan = plan(connection, statement);
+            System.out.println(statement.name() + ": " + statement.sql());
+            plan.forEach(step -> System.out.println("    " + step));
+            for (String step : plan) {
+                if (isViolation(step, statement.access())) {
+                    failures.add(statement.name() + ": " + step + " in " + statement.sql());
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @param connection    A connection to the database.
+     * @param statement     A statement.
+     * @return              The steps of its plan, as SQLite describes them.
+     * @throws SQLException If the statement cannot be planned.
+     */
+    private static List<String> plan(Connection connection, Statement statement) throws SQLException {
+        List<String> steps = new ArrayList<>();
+        try (PreparedStatement explain = connection.prepareStatement("EXPLAIN QUERY PLAN " + statement.sql())) {
+            for (int i = 0; i < statement.parameters().size(); i++) {
+                explain.setObject(i + 1, statement.parameters().get(i));
+            }
+            try (ResultSet rows = explain.executeQuery()) {
+                while (rows.next()) {
+                    steps.add(rows.getString("detail"));
+                }
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * @param step      A step of a plan.
+     * @param access    How the statement may read its table.
+     * @return          True if the step reads the table in a way the statement must not.
+     */
+    private static boolean isViolation(String step, Access access) {
+        if (step.startsWith("USE TEMP B-TREE")) {
+            return access == Access.IN_ORDER;
+        }
+        // older SQLite writes "SCAN TABLE x", newer "SCAN x"; a constant row is no table
+        return access == Access.SEARCH && step.startsWith("SCAN ") && !step.startsWith("SCAN CONSTANT ROW");
+    }
+}
@@ -1,9 +1,15 @@
 package server;
 
 import both.*;
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,153 +18,630 @@ import java.util.logging.Logger;
  * This class is a link between the server and the SQLite database.
  * <p>
  * It is responsible for carrying out SQL commands and extracting the tables.
+ * <p>
+ * Reads run concurrently, each on its own pooled connection, which WAL
+ * journaling lets see a consistent snapshot while a write is going on.
+ * SQLite allows only one writer at a time, so ADD, EDIT and DELETE are queued
+ * to a single writer thread with its own connection, and the caller gets a
+ * future that completes once the write has been committed. A BATCH of writes
+ * is executed the same way, in a single transaction, and so is every batch
+ * of rows of an IMPORT, see {@link CsvImporter}.
+ * <p>
+ * Whole tables are kept as immutable versioned snapshots in a {@link TableCache},
+ * so repeated GETs of an unchanged table never reach SQLite. Every match is
+ * also kept in a columnar {@link MatchStore}, from which the {@link Standings}
+ * of the leagues are counted once, and the best prices of every match are kept
+ * in an {@link OddsBook}; the writer thread updates them with every committed
+ * change of their table.
+ * <p>
+ * The prices of the 'odds' table used to be kept as fractional odds text.
+ * {@link #migrateOdds(int, long)} converts them to REAL columns while the
+ * server keeps running; until it has, prices are written as text.
  *
  * @author Maksymilian Ćwirzeń
  */
 class SQLiteDatabase {
 
-    List<OddsTable> oddsTableList;
-    List<BookiesTable> bookiesTableList;
-    List<MatchTable> matchTableList;
+    private static final int WRITE_QUEUE_CAPACITY = Integer.getInteger("db.writeQueue", 1024);
+    private static final int CHANGE_LOG_CAPACITY = 256;
+
+    private static final long CACHE_MAX_BYTES = Long.getLong("cache.maxBytes", 64L * 1024 * 1024);
+
+    private final TableCache cache = new TableCache(CACHE_MAX_BYTES);
+
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY), runnable -> {
+        Thread thread = new Thread(runnable, "sqlite-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private StatementCache writeStatements = null; // only used by the writer thread
+    private volatile boolean oddsTyped = false; // written by the writer thread only
+
+    private final Map<TableSchema, AtomicLong> versions = new EnumMap<>(TableSchema.class);
+    private final Map<TableSchema, TableChangeLog> changeLogs = new EnumMap<>(TableSchema.class);
+    private volatile MatchStore matchStore = null; // changed only by the writer thread
+    private volatile Standings standings = null; // changed only by the writer thread
+    private volatile OddsBook oddsBook = null; // changed only by the writer thread
 
     /**
-     * Constructor, containing all database tables.
+     * Work that has to run on the writer thread but changes no row.
      *
-     * @param oddsTableList     Odds table.
-     * @param bookiesTableList  Bookies table.
-     * @param matchTableList    Match data table.
+     * @param <T> Type of the result.
+     */
+    @FunctionalInterface
+    private interface WriterTask<T> {
+        /**
+         * @param statements    The statement cache of the writer connection.
+         * @return              The result.
+         * @throws SQLException If the work fails.
+         */
+        T run(StatementCache statements) throws SQLException;
+    }
+
+    /**
+     * A write to be executed on the writer thread.
+     */
+    @FunctionalInterface
+    protected interface SqlWrite {
+        /**
+         * @param statements    The statement cache of the writer connection.
+         * @return              The change made, without its version, or null if nothing changed.
+         * @throws SQLException If the write fails.
+         */
+        TableChange execute(StatementCache statements) throws SQLException;
+    }
+
+    /**
+     * Constructor, preparing the version and the change log of every table.
      */
-    protected SQLiteDatabase(List<OddsTable> oddsTableList, List<BookiesTable> bookiesTableList,
-                             List<MatchTable> matchTableList) {
-        this.oddsTableList = oddsTableList;
-        this.bookiesTableList = bookiesTableList;
-        this.matchTableList = matchTableList;
+    protected SQLiteDatabase() {
+        for (TableSchema schema : TableSchema.values()) {
+            versions.put(schema, new AtomicLong());
+            changeLogs.put(schema, new TableChangeLog(CHANGE_LOG_CAPACITY));
+        }
     }
 
     /**
-     * This method updates the table, which then can be
+     * This method gets the current contents of the table, which then can be
      * extracted and sent further.
+     * <p>
+     * It is served from the in-memory snapshot unless a write has been committed
+     * to the table since the snapshot was taken.
      *
      * @param table Table to synchronise.
+     * @return      The snapshot of the table, or null if the table is unknown or cannot be read.
+     */
+    protected TableSnapshot commandSync(String table) {
+        TableSchema schema = TableSchema.fromName(table);
+        if (schema == null) {
+            return null;
+        }
+        try {
+            return cache.get(schema, getVersion(schema), this::loadTable);
+        } catch (SQLException ex) {
+            Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * This method reads a table from the database into a new snapshot.
+     *
+     * @param schema        The table.
+     * @param version       Version of the table read before the query.
+     * @return              The snapshot.
+     * @throws SQLException If the query fails.
+     */
+    protected TableSnapshot loadTable(TableSchema schema, long version) throws SQLException {
+        String getSQL = SqlTemplates.snapshot(schema);
+        ArrayList<TableRow> rows = new ArrayList<>();
+
+        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
+             PreparedStatement prep = conn.prepareStatement(getSQL);
+             ResultSet resultSet = prep.executeQuery()) {
+
+            while (resultSet.next()) {
+                rows.add(schema.readRow(resultSet));
+            }
+        }
+        return TableSnapshot.of(schema, version, rows);
+    }
+
+    /**
+     * @return The cache of table snapshots, for its counters.
+     */
+    protected TableCache getCache() {
+        return cache;
+    }
+
+    /**
+     * This method reads one page of a table, newest rows first, and hands each row
+     * to the consumer as soon as it comes off the result set, so the page is never
+     * held in memory as a whole.
+     * <p>
+     * Pages are found by the last ID seen rather than by an offset, so the ID index
+     * takes the query straight to the start of the page however deep it is.
+     *
+     * @param schema        The table.
+     * @param cursor        ID of the last row of the previous page, or null for the first page.
+     * @param pageSize      Maximum number of rows in the page.
+     * @param rows          Receiver of the rows.
+     * @return              True if there are more rows after this page.
+     * @throws SQLException If the query fails.
      */
-    protected synchronized void commandSync(String table) {
-        switch (table) {
-            case "odds" -> {
-                String getSQL = "SELECT * FROM \"odds\" ORDER BY odd_id DESC";
-                ArrayList<OddsTable> oddsTables = new ArrayList<>();
+    protected boolean streamPage(TableSchema schema, Integer cursor, int pageSize,
+                                 Consumer<TableRow> rows) throws SQLException {
+        String pageSQL = SqlTemplates.page(schema, cursor != null);
 
-                try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-                     PreparedStatement prep = conn.prepareStatement(getSQL)) {
+        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
+             PreparedStatement prep = conn.prepareStatement(pageSQL)) {
 
-                    prep.executeQuery();
-                    ResultSet resultSet = prep.executeQuery();
+            int parameter = 1;
+            if (cursor != null) prep.setInt(parameter++, cursor);
+            prep.setInt(parameter, pageSize + 1); // one more row tells if there is another page
+            prep.setFetchSize(256);
 
-                    while (resultSet.next()) {
-                        oddsTables.add(OddsTable.newOddsFromResultSet(resultSet));
+            try (ResultSet resultSet = prep.executeQuery()) {
+                int count = 0;
+                while (resultSet.next()) {
+                    if (++count > pageSize) {
+                        return true;
                     }
-                } catch (SQLException ex) {
-                    Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+                    rows.accept(schema.readRow(resultSet));
                 }
-                this.oddsTableList = oddsTables;
+                return false;
             }
-            case "bookies" -> {
-                String getSQL = "SELECT * FROM \"bookies\" ORDER BY bookie_id DESC";
-                ArrayList<BookiesTable> bookiesTables = new ArrayList<>();
+        }
+    }
 
-                try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-                     PreparedStatement prep = conn.prepareStatement(getSQL)) {
+    /**
+     * Reads the current row of a result set.
+     */
+    @FunctionalInterface
+    protected interface ResultSetReader {
+        /**
+         * @param row           Result set positioned at a row.
+         * @throws SQLException If the row cannot be read.
+         * @throws IOException  If the row cannot be written out.
+         */
+        void read(ResultSet row) throws SQLException, IOException;
+    }
 
-                    prep.executeQuery();
-                    ResultSet resultSet = prep.executeQuery();
+    /**
+     * This method reads every row of a table, in the order of their IDs, and
+     * hands the result set to the reader at each row as it is stepped, so the
+     * table is never held in memory, however large it is.
+     *
+     * @param schema        The table.
+     * @param rows          Reader of every row.
+     * @throws SQLException If the query fails.
+     * @throws IOException  If the reader cannot write a row out.
+     */
+    protected void streamTable(TableSchema schema, ResultSetReader rows) throws SQLException, IOException {
+        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
+             PreparedStatement prep = conn.prepareStatement(SqlTemplates.export(schema))) {
 
-                    while (resultSet.next()) {
-                        bookiesTables.add(BookiesTable.newBookiesFromResultSet(resultSet));
-                    }
-                } catch (SQLException ex) {
-                    Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            prep.setFetchSize(256);
+            try (ResultSet resultSet = prep.executeQuery()) {
+                while (resultSet.next()) {
+                    rows.read(resultSet);
                 }
-                this.bookiesTableList = bookiesTables;
             }
-            case "football-match-data" -> {
-                String getSQL = "SELECT * FROM \"football-match-data\" ORDER BY match_id DESC LIMIT 50;";
-                ArrayList<MatchTable> matchTables = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Stream the rows a QUERY selects, as they are read.
+     *
+     * @param schema        The table.
+     * @param query         The compiled SELECT.
+     * @param rows          Receives every row.
+     * @return              True if more rows match than the query asked for.
+     * @throws SQLException If the query fails.
+     */
+    protected boolean streamQuery(TableSchema schema, QueryCompiler.CompiledQuery query,
+                                  Consumer<TableRow> rows) throws SQLException {
+        try (Connection conn = ConnectionFactory.getConnection()) { // auto close the connection object after try
+            boolean textPrices = !oddsTyped;
+            if (query.sql(true).equals(query.sql(false))) {
+                return streamQuery(conn, schema, query, textPrices, false, rows);
+            }
+            // the migration may have swapped the prices since the flag was read, the rows are
+            // read in a transaction so that what it finds on the connection holds for them
+            conn.setAutoCommit(false);
+            try {
+                Boolean more = streamQuery(conn, schema, query, textPrices, true, rows);
+                return more != null ? more : streamQuery(conn, schema, query, !textPrices, false, rows);
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+    }
 
-                try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-                     PreparedStatement prep = conn.prepareStatement(getSQL)) {
+    /**
+     * @param conn          A connection.
+     * @param schema        The table.
+     * @param query         The compiled SELECT.
+     * @param textPrices    True if the prices are thought to be kept as text.
+     * @param verify        True to check on the connection, once the query runs, that they are.
+     * @param rows          Receives every row.
+     * @return              True if more rows match than the query asked for, null if the prices
+     *                      are not kept as thought; no row was received then.
+     * @throws SQLException If the query fails.
+     */
+    private static Boolean streamQuery(Connection conn, TableSchema schema, QueryCompiler.CompiledQuery query,
+                                       boolean textPrices, boolean verify, Consumer<TableRow> rows)
+            throws SQLException {
+        try (PreparedStatement prep = conn.prepareStatement(query.sql(textPrices))) {
 
-                    prep.executeQuery();
-                    ResultSet resultSet = prep.executeQuery();
+            for (int i = 0; i < query.parameters().size(); i++) {
+                prep.setObject(i + 1, query.parameters().get(i));
+            }
+            prep.setFetchSize(256);
 
-                    while (resultSet.next()) {
-                        matchTables.add(MatchTable.newMatchFromResultSet(resultSet));
+            try (ResultSet resultSet = prep.executeQuery()) {
+                // running the query began the transaction, the schema is now that of its rows
+                if (verify && OddsMigration.isTyped(conn) == textPrices) {
+                    return null;
+                }
+                int count = 0;
+                while (resultSet.next()) {
+                    if (++count > query.limit()) {
+                        return true;
                     }
-                } catch (SQLException ex) {
+                    rows.accept(schema.readRow(resultSet));
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Get the version of a table. Every committed change of the table
+     * increases its version by one.
+     *
+     * @param schema    The table.
+     * @return          The current version.
+     */
+    protected long getVersion(TableSchema schema) {
+        return versions.get(schema).get();
+    }
+
+    /**
+     * Get the remembered changes of a table between two versions.
+     *
+     * @param schema        The table.
+     * @param fromVersion   The version a client has, exclusive.
+     * @param toVersion     The version the client should reach, inclusive.
+     * @return              The changes in order, or null if some are no longer remembered.
+     */
+    protected List<TableChange> changesBetween(TableSchema schema, long fromVersion, long toVersion) {
+        return changeLogs.get(schema).between(fromVersion, toVersion);
+    }
+
+    /**
+     * @return Number of writes waiting for the writer thread.
+     */
+    protected int getWriteQueueDepth() {
+        return writer.getQueue().size();
+    }
+
+    /**
+     * Queue a write for the writer thread.
+     * Once committed, the change gets the next version of its table and is remembered.
+     *
+     * @param write The write to execute.
+     * @return      A future completed with the change once the write has been committed,
+     *              or with null if nothing changed. It is completed exceptionally if the
+     *              write failed or the queue of writes is full.
+     */
+    protected CompletableFuture<TableChange> submitWrite(SqlWrite write) {
+        CompletableFuture<TableChange> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    future.complete(recordChange(write.execute(getWriteStatements())));
+                } catch (SQLException | RuntimeException ex) {
                     Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+                    dropBrokenWriteConnection();
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * This method creates the indexes of {@link SchemaIndexes} the database is
+     * missing, on the writer thread, and waits for it.
+     *
+     * @return Names of the indexes created.
+     * @throws SQLException If an index cannot be created.
+     */
+    protected List<String> ensureIndexes() throws SQLException {
+        return callOnWriter(statements -> SchemaIndexes.ensure(statements.getConnection()));
+    }
+
+    /**
+     * This method reads every match into the {@link MatchStore} and counts the
+     * standings of all leagues from it, on the writer thread so that no change
+     * of the matches is committed in between, and waits for it. From then on
+     * every committed change updates both.
+     *
+     * @return The standings.
+     * @throws SQLException If the matches cannot be read.
+     */
+    protected Standings loadMatches() throws SQLException {
+        return callOnWriter(statements -> {
+            MatchStore matches = new MatchStore();
+            try (ResultSet resultSet = statements.prepare(SqlTemplates.selectAll(TableSchema.MATCHES)).executeQuery()) {
+                while (resultSet.next()) {
+                    matches.put(MatchTable.newMatchFromResultSet(resultSet));
+                }
+            }
+            standings = Standings.build(matches, getVersion(TableSchema.MATCHES));
+            matchStore = matches;
+            return standings;
+        });
+    }
+
+    /**
+     * This method reads every odds row and finds the best prices of every
+     * match from them, on the writer thread so that no change of the odds is
+     * committed in between, and waits for it. From then on every committed
+     * change of the odds updates them.
+     *
+     * @return The best prices.
+     * @throws SQLException If the odds cannot be read.
+     */
+    protected OddsBook loadOdds() throws SQLException {
+        return callOnWriter(statements -> {
+            List<OddsTable> odds = new ArrayList<>();
+            try (ResultSet resultSet = statements.prepare(SqlTemplates.selectAll(TableSchema.ODDS)).executeQuery()) {
+                while (resultSet.next()) {
+                    odds.add(OddsTable.newOddsFromResultSet(resultSet));
                 }
-                this.matchTableList = matchTables;
             }
+            oddsBook = OddsBook.build(odds, getVersion(TableSchema.ODDS));
+            return oddsBook;
+        });
+    }
+
+    /**
+     * @return Every match, or null if they have not been loaded.
+     */
+    protected MatchStore getMatchStore() {
+        return matchStore;
+    }
+
+    /**
+     * @return The standings of the leagues, or null if they have not been counted.
+     */
+    protected Standings getStandings() {
+        return standings;
+    }
+
+    /**
+     * @return The best prices of every match, or null if they have not been found.
+     */
+    protected OddsBook getOddsBook() {
+        return oddsBook;
+    }
+
+    /**
+     * This method converts the prices of 'odds' from text to REAL columns, see
+     * {@link OddsMigration}, and waits for it. Every step runs on the writer
+     * thread in a transaction of its own, so the writes queued meanwhile are
+     * executed between the batches; the caller pauses between them. If a
+     * step fails, the shadow table is dropped and 'odds' is left as it was.
+     *
+     * @param batchSize     Number of rows copied in a transaction.
+     * @param pauseMillis   Pause between two batches.
+     * @return              Number of rows copied, or -1 if the prices were already REAL.
+     * @throws SQLException         If the migration fails.
+     * @throws InterruptedException If the thread is interrupted during a pause.
+     */
+    protected int migrateOdds(int batchSize, long pauseMillis) throws SQLException, InterruptedException {
+        if (callOnWriter(statements -> oddsTyped)) {
+            return -1;
+        }
+        callOnWriter(statements -> {
+            OddsMigration.prepare(statements.getConnection());
+            return null;
+        });
+        try {
+            int copied = 0;
+            int lastId = 0;
+            while (true) {
+                int afterId = lastId;
+                OddsMigration.Batch batch = callOnWriter(statements ->
+                        OddsMigration.copyBatch(statements.getConnection(), afterId, batchSize));
+                if (batch.lastId() < 0) {
+                    break;
+                }
+                copied += batch.copied();
+                lastId = batch.lastId();
+                Thread.sleep(pauseMillis);
+            }
+            callOnWriter(statements -> {
+                OddsMigration.swap(statements.getConnection());
+                oddsTyped = true;
+                return null;
+            });
+            return copied;
+        } catch (SQLException | InterruptedException | RuntimeException ex) {
+            try {
+                callOnWriter(statements -> {
+                    OddsMigration.abort(statements.getConnection());
+                    return null;
+                });
+            } catch (SQLException abortEx) {
+                ex.addSuppressed(abortEx);
+            }
+            throw ex;
         }
     }
 
     /**
-     * This method executes the 'ADD' command on the SQL table.
-     * <p>
-     * It adds another row of data to a given table.
+     * Run a task on the writer thread, after the writes queued before it, and wait for it.
      *
-     * @param table         Table to modify.
-     * @param insertData    Data to insert to the table.
+     * @param task          The task.
+     * @param <T>           Type of the result.
+     * @return              The result of the task.
+     * @throws SQLException If the task fails or cannot be queued.
      */
-    protected synchronized void commandAdd(String table, String insertData) {
-        String headers = null;
-        switch (table) {
-            case "odds" -> headers = OddsTable.getHeaders();
-            case "bookies" -> headers = BookiesTable.getHeaders();
-            case "football-match-data" -> headers = MatchTable.getHeaders();
-            default -> System.out.println("Table Header Error");
+    private <T> T callOnWriter(WriterTask<T> task) throws SQLException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submitWrite(statements -> {
+            result.complete(task.run(statements));
+            return null;
+        }).whenComplete((change, ex) -> {
+            if (ex != null) result.completeExceptionally(ex);
+        });
+        try {
+            return result.join();
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof SQLException sqlException ? sqlException : new SQLException(ex.getCause());
         }
-        String insertSQL = "INSERT INTO \"" + table + "\" " + headers +
-                " VALUES (" + insertData + ");";
+    }
 
-        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-             PreparedStatement prep = conn.prepareStatement(insertSQL)) {
+    /**
+     * Give a committed change the next version of its table and remember it.
+     * Only called on the writer thread.
+     *
+     * @param change    The committed change, or null if nothing changed.
+     * @return          The change with its version, or null.
+     */
+    private TableChange recordChange(TableChange change) {
+        if (change == null) {
+            return null;
+        }
+        change = change.withVersion(versions.get(change.schema()).incrementAndGet());
+        changeLogs.get(change.schema()).record(change);
+        if (matchStore != null) {
+            standings.apply(change, matchStore.apply(change));
+        }
+        if (oddsBook != null) {
+            oddsBook.apply(change);
+        }
+        return change;
+    }
 
-            prep.execute();
+    /**
+     * @return The statement cache of the writer thread, whose connection is opened on first use.
+     * @throws SQLException If the database cannot be opened.
+     */
+    private StatementCache getWriteStatements() throws SQLException {
+        if (writeStatements == null) {
+            Connection connection = ConnectionFactory.getWriteConnection();
+            try {
+                oddsTyped = OddsMigration.isTyped(connection);
+            } catch (SQLException ex) {
+                connection.close();
+                throw ex;
+            }
+            writeStatements = new StatementCache(connection);
+        }
+        return writeStatements;
+    }
 
+    /**
+     * Close the connection of the writer thread if it can no longer be used,
+     * so the next write opens a new one.
+     */
+    private void dropBrokenWriteConnection() {
+        try {
+            if (writeStatements != null && !writeStatements.getConnection().isValid(1)) {
+                writeStatements.close();
+                writeStatements = null;
+            }
         } catch (SQLException ex) {
-            Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            writeStatements = null;
         }
     }
 
     /**
-     * This method executes the 'DELETE' command on the SQL table.
-     * <p>
-     * It deletes a row of data in a given table.
+     * Find the ID of the row selected by Admin.
      *
-     * @param table         Table to modify.
-     * @param selectData    Row to delete.
+     * @param statements    Statement cache of the writer.
+     * @param schema        The table.
+     * @param selectData    Row ID, or 'LAST' for the row with the highest ID.
+     * @return              The ID, or null if the table is empty.
+     * @throws SQLException If the selection is not valid.
      */
-    protected synchronized void commandDelete(String table, String selectData) {
-        String id = null;
-        switch (table) {
-            case "odds" -> id = OddsTable.getID();
-            case "bookies" -> id = BookiesTable.getID();
-            case "football-match-data" -> id = MatchTable.getID();
-            default -> System.out.println("Table ID Error");
+    private Integer resolveId(StatementCache statements, TableSchema schema, String selectData)
+            throws SQLException {
+        if (selectData == null) {
+            throw new SQLException("No row selected");
+        }
+        if (!selectData.equals("LAST")) {
+            try {
+                return Integer.parseInt(selectData.trim());
+            } catch (NumberFormatException ex) {
+                throw new SQLException("Invalid row selection '" + selectData + "'");
+            }
         }
-        String deleteSQL = "DELETE FROM \"" + table + "\" WHERE \"" + id + "\" =" + selectData;
-        if (selectData.equals("LAST")) {
-            // DELETE FROM odds WHERE odd_id=(SELECT MAX(odd_id) FROM odds)
-            deleteSQL = "DELETE FROM \"" + table + "\" WHERE \"" + id + "\"=(SELECT MAX(\"" + id + "\") FROM \"" + table + "\")";
+        try (ResultSet resultSet = statements.prepare(SqlTemplates.maxId(schema)).executeQuery()) {
+            int id = resultSet.getInt(1);
+            return resultSet.wasNull() ? null : id;
         }
+    }
 
-        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-             PreparedStatement prep = conn.prepareStatement(deleteSQL)) {
+    /**
+     * Read a single row by its ID.
+     *
+     * @param statements    Statement cache of the writer.
+     * @param schema        The table.
+     * @param id            ID of the row.
+     * @return              The row, or null if there is none.
+     * @throws SQLException If the query fails.
+     */
+    private TableRow readRow(StatementCache statements, TableSchema schema, int id) throws SQLException {
+        PreparedStatement prep = statements.prepare(SqlTemplates.selectById(schema));
+        prep.setInt(1, id);
+        try (ResultSet resultSet = prep.executeQuery()) {
+            return resultSet.next() ? schema.readRow(resultSet) : null;
+        }
+    }
 
-            prep.execute();
+    /**
+     * This method executes the 'ADD' command on the SQL table.
+     * <p>
+     * It adds another row of data to a given table.
+     *
+     * @param table         Table to modify.
+     * @param insertData    Data to insert to the table.
+     * @return              A future completed with the insert once the row has been added.
+     */
+    protected CompletableFuture<TableChange> commandAdd(String table, String insertData) {
+        TableSchema schema = TableSchema.fromName(table);
+        if (schema == null) {
+            System.out.println("Table Header Error");
+            return CompletableFuture.failedFuture(new SQLException("Unknown table " + table));
+        }
+        return submitWrite(addWrite(schema, insertData));
+    }
 
-        } catch (SQLException ex) {
-            Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * This method executes the 'DELETE' command on the SQL table.
+     * <p>
+     * It deletes a row of data in a given table.
+     *
+     * @param table         Table to modify.
+     * @param selectData    Row to delete.
+     * @return              A future completed with the delete once the row has been deleted.
+     */
+    protected CompletableFuture<TableChange> commandDelete(String table, String selectData) {
+        TableSchema schema = TableSchema.fromName(table);
+        if (schema == null) {
+            System.out.println("Table ID Error");
+            return CompletableFuture.failedFuture(new SQLException("Unknown table " + table));
         }
+        return submitWrite(deleteWrite(schema, selectData));
     }
 
     /**
@@ -169,53 +652,254 @@ class SQLiteDatabase {
      * @param table         Table to modify.
      * @param insertData    Data to insert to the table.
      * @param selectData    Row to edit.
+     * @return              A future completed with the update once the row has been edited.
      */
-    protected synchronized void commandEdit(String table, String insertData, String selectData) {
-        String id = null;
-        String updateSQL = null;
-        String[] setData = insertData.split(",");
-
-        switch (table) {
-            case "odds" -> {
-                id = OddsTable.getID();
-                updateSQL = "UPDATE \"" + table + "\"" +
-                        " SET bookie_id=" + setData[0] + ", match_id=" + setData[1] +
-                        ", odds_home_to_win=" + setData[2] + ", odd_draw=" + setData[3] +
-                        ", odds_away_to_win=" + setData[4];
-            }
-            case "bookies" -> {
-                id = BookiesTable.getID();
-                updateSQL = "UPDATE \"" + table + "\"" +
-                        " SET name=" + setData[0] + ", website=" + setData[1];
-            }
-            case "football-match-data" -> {
-                id = MatchTable.getID();
-                updateSQL = "UPDATE \"" + table + "\"" +
-                        " SET Season=" + setData[0] + ", Datetime=" + setData[1] +
-                        ", Div=" + setData[2] + ", Country=" + setData[3] +
-                        ", League=" + setData[4] + ", Referee=" + setData[5] +
-                        ", HomeTeam=" + setData[6] + ", AwayTeam=" + setData[7] +
-                        ", FTHG=" + setData[8] + ", FTAG=" + setData[9] +
-                        ", FTR=" + setData[10] + ", HTHG=" + setData[11] +
-                        ", HTAG=" + setData[12];
-            }
-            default -> System.out.println("Table ID Error");
-        }
-        if (selectData.equals("LAST")) {
-            updateSQL = updateSQL + " WHERE " + id + "=(SELECT MAX(\"" + id + "\") FROM \"" + table + "\")";
-        }
-        else {
-            updateSQL = updateSQL + " WHERE " + id + "=" + selectData;
-        }
-//        System.out.println(updateSQL);
+    protected CompletableFuture<TableChange> commandEdit(String table, String insertData, String selectData) {
+        TableSchema schema = TableSchema.fromName(table);
+        if (schema == null) {
+            System.out.println("Table ID Error");
+            return CompletableFuture.failedFuture(new SQLException("Unknown table " + table));
+        }
+        return submitWrite(editWrite(schema, insertData, selectData));
+    }
 
-        try (Connection conn = ConnectionFactory.getConnection(); // auto close the connection object after try
-             PreparedStatement prep = conn.prepareStatement(updateSQL)) {
+    /**
+     * This method executes the 'BATCH' command on the SQL tables.
+     * <p>
+     * All operations of the batch run in one transaction on the writer thread,
+     * so the batch costs a single commit. Each operation runs inside its own
+     * savepoint: an operation that fails is rolled back on its own and reported
+     * in the result, while the others are still committed.
+     *
+     * @param operations    ADD, EDIT and DELETE parcels, in the order to execute them.
+     * @return              A future completed with the result of every operation once
+     *                      the batch has been committed. It is completed exceptionally
+     *                      if the transaction as a whole failed.
+     */
+    protected CompletableFuture<BatchResult> commandBatch(List<Parcel> operations) {
+        CompletableFuture<BatchResult> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    future.complete(executeBatch(getWriteStatements(), operations));
+                } catch (SQLException | RuntimeException ex) {
+                    Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+                    dropBrokenWriteConnection();
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Run the operations of a batch in one transaction. Only called on the writer thread.
+     *
+     * @param statements    Statement cache of the writer.
+     * @param operations    Operations of the batch.
+     * @return              The result of every operation, with versioned changes.
+     * @throws SQLException If the transaction cannot be started or committed.
+     */
+    private BatchResult executeBatch(StatementCache statements, List<Parcel> operations) throws SQLException {
+        List<TableChange> changes = new ArrayList<>(operations.size());
+        List<String> errors = new ArrayList<>(operations.size());
+        Connection conn = statements.getConnection();
 
-            prep.execute();
+        conn.setAutoCommit(false);
+        try {
+            for (Parcel operation : operations) {
+                statements.prepare("SAVEPOINT batch_operation").execute();
+                try {
+                    changes.add(operationWrite(operation).execute(statements));
+                    errors.add(null);
+                } catch (SQLException | RuntimeException ex) {
+                    statements.prepare("ROLLBACK TO batch_operation").execute();
+                    changes.add(null);
+                    errors.add(ex.getMessage());
+                }
+                statements.prepare("RELEASE batch_operation").execute();
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
 
-        } catch (SQLException ex) {
-            Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+        changes.replaceAll(this::recordChange);
+        return new BatchResult(changes, errors);
+    }
+
+    /**
+     * This method inserts rows of an IMPORT into a table in one transaction
+     * on the writer thread, through one prepared statement executed as a JDBC
+     * batch. The rows inserted are read back by their IDs and recorded as
+     * changes, but not published; the importer publishes once at the end.
+     *
+     * @param schema    Table to insert into.
+     * @param rows      Values of the editable columns of every row, as {@link ValueParser#convert} made them.
+     * @return          A future completed with the change of the last row once the
+     *                  rows have been committed, or with null if there were none. It
+     *                  is completed exceptionally if the transaction failed.
+     */
+    protected CompletableFuture<TableChange> commandImport(TableSchema schema, List<Object[]> rows) {
+        CompletableFuture<TableChange> future = new CompletableFuture<>();
+        try {
+            writer.execute(() -> {
+                try {
+                    future.complete(insertRows(getWriteStatements(), schema, rows));
+                } catch (SQLException | RuntimeException ex) {
+                    Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
+                    dropBrokenWriteConnection();
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Insert the rows of an IMPORT in one transaction. Only called on the writer thread.
+     * <p>
+     * No ID is given, so SQLite gives the rows of the transaction consecutive
+     * IDs after the highest one; they are read back by that range, and the
+     * transaction is rolled back if the range does not hold every row.
+     *
+     * @param statements    Statement cache of the writer.
+     * @param schema        Table to insert into.
+     * @param rows          Values of the editable columns of every row.
+     * @return              The change of the last row, or null if there were no rows.
+     * @throws SQLException If the transaction fails.
+     */
+    private TableChange insertRows(StatementCache statements, TableSchema schema, List<Object[]> rows)
+            throws SQLException {
+        if (rows.isEmpty()) {
+            return null;
         }
+        Column[] columns = schema.getEditableColumns();
+        boolean textPrices = !oddsTyped;
+        List<TableRow> inserted = new ArrayList<>(rows.size());
+        Connection conn = statements.getConnection();
+
+        conn.setAutoCommit(false);
+        try {
+            PreparedStatement insert = statements.prepare(SqlTemplates.insert(schema));
+            for (Object[] row : rows) {
+                ValueParser.bind(insert, columns, row, textPrices);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            int lastId;
+            try (ResultSet resultSet = statements.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                lastId = resultSet.getInt(1);
+            }
+            PreparedStatement range = statements.prepare(SqlTemplates.selectRange(schema));
+            range.setInt(1, lastId - rows.size() + 1);
+            range.setInt(2, lastId);
+            try (ResultSet resultSet = range.executeQuery()) {
+                while (resultSet.next()) {
+                    inserted.add(schema.readRow(resultSet));
+                }
+            }
+            if (inserted.size() != rows.size()) {
+                throw new SQLException("Inserted " + rows.size() + " rows but found " + inserted.size()
+                        + " up to ID " + lastId);
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException ex) {
+            conn.rollback();
+            throw ex;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        TableChange last = null;
+        for (TableRow row : inserted) {
+            last = recordChange(new TableChange(schema, ChangeType.INSERT, 0, row.id(), row));
+        }
+        return last;
+    }
+
+    /**
+     * @param operation     A single operation of a batch.
+     * @return              The write carrying out the operation.
+     * @throws SQLException If the table or the command cannot be written.
+     */
+    private SqlWrite operationWrite(Parcel operation) throws SQLException {
+        TableSchema schema = TableSchema.fromName(operation.getTable());
+        if (schema == null) {
+            throw new SQLException("Unknown table " + operation.getTable());
+        }
+        return switch (operation.getCommand()) {
+            case ADD -> addWrite(schema, operation.getData());
+            case DELETE -> deleteWrite(schema, operation.getSelect());
+            case EDIT -> editWrite(schema, operation.getData(), operation.getSelect());
+            default -> throw new SQLException(operation.getCommand() + " cannot be part of a batch");
+        };
+    }
+
+    /**
+     * @param schema        Table to modify.
+     * @param insertData    Data to insert to the table.
+     * @return              The write adding the row.
+     */
+    private SqlWrite addWrite(TableSchema schema, String insertData) {
+        return statements -> {
+            PreparedStatement prep = statements.prepare(SqlTemplates.insert(schema));
+            ValueParser.bind(prep, schema.getEditableColumns(), insertData, !oddsTyped);
+            prep.executeUpdate();
+            int id;
+            try (ResultSet resultSet = statements.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                id = resultSet.getInt(1);
+            }
+            return new TableChange(schema, ChangeType.INSERT, 0, id, readRow(statements, schema, id));
+        };
+    }
+
+    /**
+     * @param schema        Table to modify.
+     * @param selectData    Row to delete.
+     * @return              The write deleting the row.
+     */
+    private SqlWrite deleteWrite(TableSchema schema, String selectData) {
+        return statements -> {
+            Integer id = resolveId(statements, schema, selectData);
+            TableRow deleted = id == null ? null : readRow(statements, schema, id);
+            if (deleted == null) {
+                return null;
+            }
+            PreparedStatement prep = statements.prepare(SqlTemplates.delete(schema));
+            prep.setInt(1, id);
+            prep.executeUpdate();
+            return new TableChange(schema, ChangeType.DELETE, 0, id, deleted);
+        };
+    }
+
+    /**
+     * @param schema        Table to modify.
+     * @param insertData    Data to insert to the table.
+     * @param selectData    Row to edit.
+     * @return              The write editing the row.
+     */
+    private SqlWrite editWrite(TableSchema schema, String insertData, String selectData) {
+        return statements -> {
+            Integer id = resolveId(statements, schema, selectData);
+            TableRow previous = id == null ? null : readRow(statements, schema, id);
+            if (previous == null) {
+                return null;
+            }
+            PreparedStatement prep = statements.prepare(SqlTemplates.update(schema));
+            int idParameter = ValueParser.bind(prep, schema.getEditableColumns(), insertData, !oddsTyped);
+            prep.setInt(idParameter, id);
+            if (prep.executeUpdate() == 0) {
+                return null;
+            }
+            return new TableChange(schema, ChangeType.UPDATE, 0, id, readRow(statements, schema, id), previous);
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+package server;
+
+import both.TableSchema;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds the indexes the statements of the server rely on, and
+ * creates those the database does not have yet.
+ * <p>
+ * The bundled database only comes with its primary keys, so anything looking
+ * up the odds of a match, or the matches of a season, team or date, has to
+ * read the whole table without them. {@link QueryPlanCheck} verifies that the
+ * hot statements are planned to use them.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class SchemaIndexes {
+
+    /**
+     * An index of the server.
+     *
+     * @param name          Name of the index.
+     * @param schema        The table it is on.
+     * @param columns       Its columns, in order, or the single column its expression reads.
+     * @param expression    The expression it indexes instead of its columns, null for none.
+     */
+    record Index(String name, TableSchema schema, List<String> columns, String expression) {
+
+        /**
+         * @param name      Name of the index.
+         * @param schema    The table it is on.
+         * @param columns   Its columns, in order.
+         */
+        Index(String name, TableSchema schema, List<String> columns) {
+            this(name, schema, columns, null);
+        }
+
+        /**
+         * @return CREATE INDEX of the index, doing nothing if it exists.
+         */
+        String createSql() {
+            return createSql(name, schema.getTableName());
+        }
+
+        /**
+         * @param indexName Name to give the index.
+         * @param table     Table to create it on, with the columns of its schema.
+         * @return          CREATE INDEX of the same columns on the table, doing nothing if it exists.
+         */
+        String createSql(String indexName, String table) {
+            StringBuilder sql = new StringBuilder("CREATE INDEX IF NOT EXISTS ").append(SqlTemplates.quote(indexName))
+                    .append(" ON ").append(SqlTemplates.quote(table)).append(" (");
+            if (expression != null) {
+                return sql.append(expression).append(')').toString();
+            }
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(SqlTemplates.quote(columns.get(i)));
+            }
+            return sql.append(')').toString();
+        }
+    }
+
+    static final List<Index> INDEXES = List.of(
+            new Index("idx_matches_match_id", TableSchema.MATCHES, List.of("match_id")),
+            new Index("idx_matches_season", TableSchema.MATCHES, List.of("Season")),
+            new Index("idx_matches_home_team", TableSchema.MATCHES, List.of("HomeTeam")),
+            new Index("idx_matches_away_team", TableSchema.MATCHES, List.of("AwayTeam")),
+            new Index("idx_matches_datetime_key", TableSchema.MATCHES, List.of("Datetime"),
+                    SqlTemplates.datetimeKey("Datetime")),
+            new Index("idx_odds_match_bookie", TableSchema.ODDS, List.of("match_id", "bookie_id"))
+    );
+
+    // indexes of earlier versions no statement can use any more
+    private static final List<String> DROPPED = List.of("idx_matches_datetime");
+
+    private SchemaIndexes() {
+    }
+
+    /**
+     * This method creates the indexes the database is missing.
+     * <p>
+     * ANALYZE is deliberately not run: statistics gathered while a table holds
+     * a handful of rows would have SQLite keep scanning it once it has grown,
+     * without them the planner assumes tables are large and uses the indexes.
+     * An index on the integer primary key of a table is skipped, the rows are
+     * already stored in its order, and so is an index the table already has on
+     * the same columns under another name, like the one {@link OddsMigration}
+     * builds on its shadow table. Indexes of earlier versions that no
+     * statement uses any more are dropped, they would only slow down writes.
+     *
+     * @param connection    A connection that may write.
+     * @return              Names of the indexes created.
+     * @throws SQLException If an index cannot be created.
+     */
+    static List<String> ensure(Connection connection) throws SQLException {
+        List<String> created = new ArrayList<>();
+        try (Statement statement = connection.createStatement()) {
+            for (String name : DROPPED) {
+                statement.executeUpdate("DROP INDEX IF EXISTS " + SqlTemplates.quote(name));
+            }
+            for (Index index : INDEXES) {
+                if (isRowId(connection, index) || exists(connection, index)) {
+                    continue;
+                }
+                statement.executeUpdate(index.createSql());
+                created.add(index.name());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * @param connection    A connection.
+     * @param index         An index.
+     * @return              True if the index would only hold the integer primary key of its table.
+     * @throws SQLException If the table cannot be described.
+     */
+    static boolean isRowId(Connection connection, Index index) throws SQLException {
+        if (index.expression() != null || index.columns().size() != 1) {
+            return false;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet columns = statement.executeQuery(
+                     "PRAGMA table_info(" + SqlTemplates.quote(index.schema().getTableName()) + ")")) {
+            int keys = 0;
+            boolean rowId = false;
+            while (columns.next()) {
+                if (columns.getInt("pk") > 0) {
+                    keys++;
+                    rowId = columns.getString("name").equals(index.columns().get(0))
+                            && columns.getString("type").equalsIgnoreCase("INTEGER");
+                }
+            }
+            return keys == 1 && rowId;
+        }
+    }
+
+    /**
+     * @param connection    A connection.
+     * @param index         An index.
+     * @return              True if the table of the index has an index on its columns, in order,
+     *                      or one of its name if it indexes an expression.
+     * @throws SQLException If the schema cannot be read.
+     */
+    private static boolean exists(Connection connection, Index index) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(
+                     "PRAGMA index_list(" + SqlTemplates.quote(index.schema().getTableName()) + ")")) {
+            while (rows.next()) {
+                names.add(rows.getString("name"));
+            }
+        }
+        for (String name : names) {
+            if (name.equals(index.name())
+                    || index.expression() == null && columnsOf(connection, name).equals(index.columns())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param connection    A connection.
+     * @param name          Name of an index.
+     * @return              Its columns, in order.
+     * @throws SQLException If the index cannot be described.
+     */
+    private static List<String> columnsOf(Connection connection, String name) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("PRAGMA index_info(" + SqlTemplates.quote(name) + ")")) {
+            while (rows.next()) {
+                columns.add(rows.getString("name"));
+            }
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,364 @@
+package server;
+
+import both.Commands;
+import both.LatencyHistogram;
+import both.TableSchema;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class collects the metrics of the server: the latency of every command
+ * and table, where the time of a request goes (database, encoding rows,
+ * writing to sockets), the number of connections and requests in flight,
+ * and the bytes written to the admins.
+ * <p>
+ * Recording takes no lock. The metrics can be read through JMX or by sending
+ * the STATS command.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class ServerMetrics implements ServerMetricsMBean {
+
+    static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final Map<Commands, LatencyHistogram> commandLatencies = new EnumMap<>(Commands.class);
+    private final Map<TableSchema, LatencyHistogram> tableLatencies = new EnumMap<>(TableSchema.class);
+    private final AtomicLongArray commandErrors = new AtomicLongArray(Commands.values().length);
+    private final LatencyHistogram databaseTime = new LatencyHistogram();
+    private final LatencyHistogram serializationTime = new LatencyHistogram();
+    private final LatencyHistogram socketWriteTime = new LatencyHistogram();
+    private final LatencyHistogram broadcastBytes = new LatencyHistogram();
+    private final LatencyHistogram outboundDepth = new LatencyHistogram();
+    private final AtomicLong outboundDropped = new AtomicLong();
+    private final AtomicLong outboundCoalesced = new AtomicLong();
+    private final AtomicLong slowConsumerDisconnects = new AtomicLong();
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final LatencyHistogram compressionTime = new LatencyHistogram();
+    private final AtomicLong compressionNanos = new AtomicLong();
+    private final AtomicLong compressionBytesIn = new AtomicLong();
+    private final AtomicLong compressionBytesOut = new AtomicLong();
+
+    /**
+     * Constructor creates a histogram for every command and table.
+     */
+    private ServerMetrics() {
+        for (Commands command : Commands.values()) {
+            commandLatencies.put(command, new LatencyHistogram());
+        }
+        for (TableSchema schema : TableSchema.values()) {
+            tableLatencies.put(schema, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Make the metrics visible through JMX.
+     */
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("server:type=ServerMetrics"));
+        } catch (JMException ex) {
+            Logger.getLogger(ServerMetrics.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Called once a request has been read from an admin.
+     */
+    void requestReceived() {
+        requestsInFlight.incrementAndGet();
+    }
+
+    /**
+     * Called once a request has been executed and answered.
+     *
+     * @param command   The command of the request.
+     * @param table     The table of the request, null if it has none.
+     * @param nanos     Time from reading the request until the reply was written.
+     * @param error     True if the request was answered with an error.
+     */
+    void requestDone(Commands command, TableSchema table, long nanos, boolean error) {
+        requestsInFlight.decrementAndGet();
+        commandLatencies.get(command).record(nanos);
+        if (table != null) {
+            tableLatencies.get(table).record(nanos);
+        }
+        if (error) {
+            commandErrors.incrementAndGet(command.ordinal());
+        }
+    }
+
+    /**
+     * @param nanos Time spent waiting for the database.
+     */
+    void recordDatabase(long nanos) {
+        databaseTime.record(nanos);
+    }
+
+    /**
+     * @param nanos Time spent encoding rows for an admin.
+     */
+    void recordSerialization(long nanos) {
+        serializationTime.record(nanos);
+    }
+
+    /**
+     * @param bytesIn   Length of a frame compressed for an admin.
+     * @param bytesOut  Length of the frame sent instead, the same if it did not get smaller.
+     * @param nanos     Time spent compressing.
+     */
+    void recordCompression(int bytesIn, int bytesOut, long nanos) {
+        compressionTime.record(nanos);
+        compressionNanos.addAndGet(nanos);
+        compressionBytesIn.addAndGet(bytesIn);
+        compressionBytesOut.addAndGet(bytesOut);
+    }
+
+    /**
+     * @param nanos Time spent writing to the socket of an admin.
+     */
+    void recordSocketWrite(long nanos) {
+        socketWriteTime.record(nanos);
+    }
+
+    /**
+     * @param bytes Number of bytes handed to the connection of an admin.
+     */
+    void addBytesSent(long bytes) {
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * @param bytes Number of bytes written to all admins for a single change or datetime broadcast.
+     */
+    void recordBroadcast(long bytes) {
+        broadcastBytes.record(bytes);
+    }
+
+    /**
+     * @param bytes Number of bytes in an outbound queue after something was queued.
+     */
+    void recordOutboundDepth(long bytes) {
+        outboundDepth.record(bytes);
+    }
+
+    /**
+     * Called when a datetime broadcast is dropped because an outbound queue is full.
+     */
+    void outboundDropped() {
+        outboundDropped.incrementAndGet();
+    }
+
+    /**
+     * Called when a queued snapshot or change is replaced by a newer snapshot.
+     */
+    void outboundCoalesced() {
+        outboundCoalesced.incrementAndGet();
+    }
+
+    /**
+     * Called when an admin is disconnected because its outbound queue is full.
+     */
+    void slowConsumerDisconnected() {
+        slowConsumerDisconnects.incrementAndGet();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return ThreadedServer.getConnectionCount();
+    }
+
+    @Override
+    public String[] getSubscribers() {
+        TableSchema[] tables = TableSchema.values();
+        String[] subscribers = new String[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            subscribers[i] = tables[i].getTableName() + "=" + ThreadedServer.subscriptions().get(tables[i]).size();
+        }
+        return subscribers;
+    }
+
+    @Override
+    public int getRequestsInFlight() {
+        return requestsInFlight.get();
+    }
+
+    @Override
+    public int getWriteQueueDepth() {
+        return ThreadedServer.getWriteQueueDepth();
+    }
+
+    @Override
+    public long getOutboundBytes() {
+        return ThreadedServer.getOutboundBytes();
+    }
+
+    @Override
+    public long getOutboundDropped() {
+        return outboundDropped.get();
+    }
+
+    @Override
+    public long getOutboundCoalesced() {
+        return outboundCoalesced.get();
+    }
+
+    @Override
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.get();
+    }
+
+    @Override
+    public long getRequestCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : commandLatencies.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getErrorCount() {
+        long count = 0;
+        for (int i = 0; i < commandErrors.length(); i++) {
+            count += commandErrors.get(i);
+        }
+        return count;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBroadcastCount() {
+        return broadcastBytes.getCount();
+    }
+
+    @Override
+    public double getMeanBroadcastBytes() {
+        return broadcastBytes.getMean();
+    }
+
+    @Override
+    public double getDatabaseTimeP99() {
+        return databaseTime.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSerializationTimeP99() {
+        return serializationTime.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSocketWriteTimeP99() {
+        return socketWriteTime.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long bytesOut = compressionBytesOut.get();
+        return bytesOut == 0 ? 1.0 : (double) compressionBytesIn.get() / bytesOut;
+    }
+
+    @Override
+    public long getCompressionSavedBytes() {
+        return compressionBytesIn.get() - compressionBytesOut.get();
+    }
+
+    @Override
+    public double getCompressionTimeMillis() {
+        return compressionNanos.get() / 1e6;
+    }
+
+    @Override
+    public String[] getLatencies() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Commands, LatencyHistogram> entry : commandLatencies.entrySet()) {
+            if (entry.getValue().getCount() == 0) continue;
+            lines.add(entry.getKey() + " errors=" + commandErrors.get(entry.getKey().ordinal())
+                    + " " + entry.getValue().summary(1000, "us"));
+        }
+        for (Map.Entry<TableSchema, LatencyHistogram> entry : tableLatencies.entrySet()) {
+            if (entry.getValue().getCount() == 0) continue;
+            lines.add("'" + entry.getKey().getTableName() + "' " + entry.getValue().summary(1000, "us"));
+        }
+        lines.add("database " + databaseTime.summary(1000, "us"));
+        lines.add("serialization " + serializationTime.summary(1000, "us"));
+        lines.add("socket write " + socketWriteTime.summary(1000, "us"));
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public String report() {
+        return report("\n");
+    }
+
+    /**
+     * @param separator Separator of the lines, a line of the text protocol cannot hold a line break.
+     * @return          All metrics as text.
+     */
+    String report(String separator) {
+        StringBuilder report = new StringBuilder()
+                .append("connections=").append(getActiveConnections())
+                .append(" inFlight=").append(getRequestsInFlight())
+                .append(" writeQueue=").append(getWriteQueueDepth())
+                .append(" requests=").append(getRequestCount())
+                .append(" errors=").append(getErrorCount())
+                .append(" bytesSent=").append(getBytesSent());
+        for (String line : getLatencies()) {
+            report.append(separator).append(line);
+        }
+        report.append(separator).append("subscribers ").append(String.join(" ", getSubscribers()));
+        report.append(separator).append("broadcast ").append(broadcastBytes.summary(1, "B"));
+        report.append(separator).append("outbound queued=").append(getOutboundBytes()).append("B")
+                .append(" dropped=").append(getOutboundDropped())
+                .append(" coalesced=").append(getOutboundCoalesced())
+                .append(" disconnects=").append(getSlowConsumerDisconnects())
+                .append(" depth ").append(outboundDepth.summary(1, "B"));
+        report.append(separator).append("compression in=").append(compressionBytesIn.get()).append("B")
+                .append(" out=").append(compressionBytesOut.get()).append("B")
+                .append(String.format(" ratio=%.2f cpu=%.1fms ", getCompressionRatio(), getCompressionTimeMillis()))
+                .append(compressionTime.summary(1000, "us"));
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : commandLatencies.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : tableLatencies.values()) {
+            histogram.reset();
+        }
+        for (int i = 0; i < commandErrors.length(); i++) {
+            commandErrors.set(i, 0);
+        }
+        databaseTime.reset();
+        serializationTime.reset();
+        socketWriteTime.reset();
+        broadcastBytes.reset();
+        outboundDepth.reset();
+        outboundDropped.set(0);
+        outboundCoalesced.set(0);
+        slowConsumerDisconnects.set(0);
+        bytesSent.set(0);
+        compressionTime.reset();
+        compressionNanos.set(0);
+        compressionBytesIn.set(0);
+        compressionBytesOut.set(0);
+    }
+}
@@ -0,0 +1,121 @@
+package server;
+
+/**
+ * This is the management interface of {@link ServerMetrics}, as seen through JMX
+ * under the name {@code server:type=ServerMetrics}.
+ * Latencies are given in microseconds.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+public interface ServerMetricsMBean {
+
+    /**
+     * @return Number of admins connected.
+     */
+    int getActiveConnections();
+
+    /**
+     * @return Number of admins subscribed to each table, as 'table=count'.
+     */
+    String[] getSubscribers();
+
+    /**
+     * @return Number of requests being executed or waiting for a worker.
+     */
+    int getRequestsInFlight();
+
+    /**
+     * @return Number of writes waiting for the writer thread.
+     */
+    int getWriteQueueDepth();
+
+    /**
+     * @return Number of bytes waiting in the outbound queues of all admins.
+     */
+    long getOutboundBytes();
+
+    /**
+     * @return Number of datetime broadcasts dropped because an outbound queue was full.
+     */
+    long getOutboundDropped();
+
+    /**
+     * @return Number of queued snapshots and changes replaced by a newer snapshot.
+     */
+    long getOutboundCoalesced();
+
+    /**
+     * @return Number of admins disconnected because their outbound queue was full.
+     */
+    long getSlowConsumerDisconnects();
+
+    /**
+     * @return Number of requests executed.
+     */
+    long getRequestCount();
+
+    /**
+     * @return Number of requests answered with an error.
+     */
+    long getErrorCount();
+
+    /**
+     * @return Number of bytes written to all admins.
+     */
+    long getBytesSent();
+
+    /**
+     * @return Number of changes and datetime broadcasts published to all admins.
+     */
+    long getBroadcastCount();
+
+    /**
+     * @return Mean number of bytes written to all admins for a single broadcast.
+     */
+    double getMeanBroadcastBytes();
+
+    /**
+     * @return The 99th percentile of the time spent in the database.
+     */
+    double getDatabaseTimeP99();
+
+    /**
+     * @return The 99th percentile of the time spent encoding rows.
+     */
+    double getSerializationTimeP99();
+
+    /**
+     * @return The 99th percentile of the time spent writing to a socket.
+     */
+    double getSocketWriteTimeP99();
+
+    /**
+     * @return Bytes of the frames compressed for admins per byte sent instead.
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return Number of bytes compression saved.
+     */
+    long getCompressionSavedBytes();
+
+    /**
+     * @return Total time spent compressing frames, in milliseconds.
+     */
+    double getCompressionTimeMillis();
+
+    /**
+     * @return Latency of every command and table on a line each.
+     */
+    String[] getLatencies();
+
+    /**
+     * @return All metrics as text, as sent in reply to STATS.
+     */
+    String report();
+
+    /**
+     * Forget all counts and latencies recorded so far.
+     */
+    void reset();
+}
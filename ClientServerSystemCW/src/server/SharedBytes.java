@@ -0,0 +1,91 @@
+package server;
+
+import both.FrameDeflater;
+
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+/**
+ * This class holds bytes that are encoded once, on first use, and then
+ * handed to any number of connections without being copied.
+ * <p>
+ * Every caller gets its own view of the same bytes, so each connection
+ * can write them at its own pace. Nobody may change the bytes.
+ * <p>
+ * A frame long enough to be worth it is also compressed once, by the
+ * deflater of the first connection that asks for it compressed.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class SharedBytes {
+
+    private final Supplier<ByteBuffer> encoder;
+    private volatile ByteBuffer bytes = null;
+    private volatile ByteBuffer deflated = null;
+
+    /**
+     * @param encoder Encodes the bytes, called at most once.
+     */
+    SharedBytes(Supplier<ByteBuffer> encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * @return A view of the bytes with its own position, encoding them if this is the first call.
+     */
+    ByteBuffer get() {
+        ByteBuffer encoded = bytes;
+        if (encoded == null) {
+            synchronized (this) {
+                encoded = bytes;
+                if (encoded == null) {
+                    long start = System.nanoTime();
+                    encoded = encoder.get();
+                    ServerMetrics.INSTANCE.recordSerialization(System.nanoTime() - start);
+                    bytes = encoded;
+                }
+            }
+        }
+        return encoded.duplicate();
+    }
+
+    /**
+     * @param deflater  Deflater of the connection asking, null if it does not compress.
+     * @return          A view of the compressed frame, or of the frame itself if it is not worth compressing.
+     */
+    ByteBuffer get(FrameDeflater deflater) {
+        ByteBuffer plain = get();
+        if (deflater == null || !deflater.isWorthCompressing(plain)) {
+            return plain;
+        }
+        ByteBuffer compressed = deflated;
+        if (compressed == null) {
+            synchronized (this) {
+                compressed = deflated;
+                if (compressed == null) {
+                    compressed = deflate(deflater, plain);
+                    if (compressed != plain) {
+                        // not kept otherwise, the deflater may have been ended with its connection
+                        deflated = compressed;
+                    }
+                }
+            }
+        }
+        return compressed.duplicate();
+    }
+
+    /**
+     * Compress a frame, recording the time and the bytes saved in the {@link ServerMetrics}.
+     *
+     * @param deflater  Deflater of a connection.
+     * @param frame     The frame.
+     * @return          The COMPRESSED frame, or the frame itself if it is not compressed.
+     */
+    static ByteBuffer deflate(FrameDeflater deflater, ByteBuffer frame) {
+        long start = System.nanoTime();
+        ByteBuffer compressed = deflater.deflate(frame);
+        ServerMetrics.INSTANCE.recordCompression(frame.remaining(), compressed.remaining(),
+                System.nanoTime() - start);
+        return compressed;
+    }
+}
@@ -0,0 +1,199 @@
+package server;
+
+import both.Column;
+import both.TableSchema;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds the SQL of every statement the server issues for a table.
+ * <p>
+ * Values are always bound to {@code ?} placeholders, so the text of a statement
+ * never changes and SQLite only has to parse and plan it once per connection.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class SqlTemplates {
+
+    private static final Map<TableSchema, String> INSERT = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> UPDATE = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> DELETE = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> SELECT_BY_ID = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> SELECT_RANGE = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> MAX_ID = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> SELECT_ALL = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> EXPORT = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> SNAPSHOT = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> FIRST_PAGE = new EnumMap<>(TableSchema.class);
+    private static final Map<TableSchema, String> NEXT_PAGE = new EnumMap<>(TableSchema.class);
+
+    // matches are too many to send at once, Admin pages through the older ones
+    private static final int MATCHES_SNAPSHOT_ROWS = 50;
+
+    private static final Pattern DATETIME = Pattern.compile(
+            "(?:(\\d{2})/(\\d{2})/(\\d{4})|(\\d{4})-(\\d{2})-(\\d{2}))(?: (\\d{2}:\\d{2})(?::\\d{2})?)?");
+
+    static {
+        for (TableSchema schema : TableSchema.values()) {
+            String table = quote(schema.getTableName());
+            String id = quote(schema.getIdColumn());
+            StringBuilder columns = new StringBuilder();
+            StringBuilder placeholders = new StringBuilder();
+            StringBuilder assignments = new StringBuilder();
+            for (Column column : schema.getEditableColumns()) {
+                if (columns.length() > 0) {
+                    columns.append(',');
+                    placeholders.append(',');
+                    assignments.append(", ");
+                }
+                columns.append(quote(column.name()));
+                placeholders.append('?');
+                assignments.append(quote(column.name())).append("=?");
+            }
+            INSERT.put(schema, "INSERT INTO " + table + " (" + columns + ") VALUES (" + placeholders + ")");
+            UPDATE.put(schema, "UPDATE " + table + " SET " + assignments + " WHERE " + id + "=?");
+            DELETE.put(schema, "DELETE FROM " + table + " WHERE " + id + "=?");
+            SELECT_BY_ID.put(schema, "SELECT * FROM " + table + " WHERE " + id + "=?");
+            SELECT_RANGE.put(schema, "SELECT * FROM " + table + " WHERE " + id + " BETWEEN ? AND ? ORDER BY " + id);
+            MAX_ID.put(schema, "SELECT MAX(" + id + ") FROM " + table);
+            SELECT_ALL.put(schema, "SELECT * FROM " + table);
+            EXPORT.put(schema, "SELECT * FROM " + table + " ORDER BY " + id);
+            SNAPSHOT.put(schema, "SELECT * FROM " + table + " ORDER BY " + id + " DESC"
+                    + (schema == TableSchema.MATCHES ? " LIMIT " + MATCHES_SNAPSHOT_ROWS : ""));
+            FIRST_PAGE.put(schema, "SELECT * FROM " + table + " ORDER BY " + id + " DESC LIMIT ?");
+            NEXT_PAGE.put(schema, "SELECT * FROM " + table + " WHERE " + id + "<? ORDER BY " + id + " DESC LIMIT ?");
+        }
+    }
+
+    private SqlTemplates() {
+    }
+
+    /**
+     * @param identifier    Name of a table or column.
+     * @return              The name quoted for SQL.
+     */
+    protected static String quote(String identifier) {
+        return "\"" + identifier + "\"";
+    }
+
+    /**
+     * This method gives the key a Datetime is compared and ordered by.
+     * <p>
+     * Datetime is kept as text, dd/MM/yyyy HH:mm, or yyyy-MM-dd HH:mm[:ss] if
+     * Admin edited it so, and text compares character by character: 31/07/2019
+     * would come after 01/08/2020. The key rearranges either to yyyyMMddHH:mm,
+     * which sorts in the order of time. {@link SchemaIndexes} indexes the very
+     * same expression, SQLite only uses it for a query written alike.
+     *
+     * @param column    Name of a column holding a Datetime.
+     * @return          The key of the column.
+     */
+    protected static String datetimeKey(String column) {
+        String name = quote(column);
+        return "(CASE WHEN substr(" + name + ",5,1)='-'"
+                + " THEN substr(" + name + ",1,4)||substr(" + name + ",6,2)||substr(" + name + ",9,2)"
+                + " ELSE substr(" + name + ",7,4)||substr(" + name + ",4,2)||substr(" + name + ",1,2) END"
+                + "||substr(" + name + ",12,5))";
+    }
+
+    /**
+     * @param value A Datetime given by Admin, dd/MM/yyyy or yyyy-MM-dd, with HH:mm or without.
+     * @param end   True if a date without a time stands for the end of its day rather than its start.
+     * @return      The value as {@link #datetimeKey(String)} gives it.
+     * @throws IllegalArgumentException If the value is written otherwise.
+     */
+    protected static String datetimeKey(String value, boolean end) {
+        Matcher matcher = DATETIME.matcher(value.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("'" + value + "' is not a date written as dd/MM/yyyy [HH:mm]");
+        }
+        String date = matcher.group(1) != null
+                ? matcher.group(3) + matcher.group(2) + matcher.group(1)
+                : matcher.group(4) + matcher.group(5) + matcher.group(6);
+        return date + (matcher.group(7) != null ? matcher.group(7) : end ? "23:59" : "");
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          INSERT of all editable columns.
+     */
+    protected static String insert(TableSchema schema) {
+        return INSERT.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          UPDATE of all editable columns, the ID bound last.
+     */
+    protected static String update(TableSchema schema) {
+        return UPDATE.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          DELETE of one row by its ID.
+     */
+    protected static String delete(TableSchema schema) {
+        return DELETE.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of one row by its ID.
+     */
+    protected static String selectById(TableSchema schema) {
+        return SELECT_BY_ID.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of the rows whose ID is between the two bound, in the order of their IDs.
+     */
+    protected static String selectRange(TableSchema schema) {
+        return SELECT_RANGE.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of the highest ID.
+     */
+    protected static String maxId(TableSchema schema) {
+        return MAX_ID.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of every row, in no particular order.
+     */
+    protected static String selectAll(TableSchema schema) {
+        return SELECT_ALL.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of every row, in the order of their IDs.
+     */
+    protected static String export(TableSchema schema) {
+        return EXPORT.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          SELECT of the rows a snapshot of the table holds, newest first.
+     */
+    protected static String snapshot(TableSchema schema) {
+        return SNAPSHOT.get(schema);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param cursor    True if the page follows a previous one, whose last ID is bound first.
+     * @return          SELECT of a page of rows, newest first, the page size bound last.
+     */
+    protected static String page(TableSchema schema, boolean cursor) {
+        return (cursor ? NEXT_PAGE : FIRST_PAGE).get(schema);
+    }
+}
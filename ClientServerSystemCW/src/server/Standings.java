@@ -0,0 +1,240 @@
+package server;
+
+import both.ChangeType;
+import both.MatchTable;
+import both.StandingsRow;
+import both.TableSchema;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * This class holds the standings of every league in every season of
+ * 'football-match-data', kept up to date with every change of the table.
+ * <p>
+ * They are counted once from all the matches, in parallel, and afterwards
+ * every committed ADD, EDIT or DELETE of a match is applied by the writer
+ * thread of {@link SQLiteDatabase}: the match is counted out of the standings
+ * it was in and counted into those it is in now. As an EDIT only carries the
+ * new row, the match as it was is taken from the {@link MatchStore}.
+ * Only matches with a full time result of 'H', 'D' or 'A' are counted.
+ * <p>
+ * Changes are applied by one thread at a time, the standings can be read by
+ * any thread.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class Standings {
+
+    private static final DateTimeFormatter[] DATETIME_FORMATS = {
+            DateTimeFormatter.ofPattern("d/M/yyyy H:mm"),
+            DateTimeFormatter.ofPattern("yyyy-M-d H:mm:ss"),
+            DateTimeFormatter.ofPattern("yyyy-M-d H:mm")
+    };
+
+    /**
+     * A league in a season.
+     *
+     * @param league    Name of the league.
+     * @param season    The season.
+     */
+    record Key(String league, String season) {
+    }
+
+    /**
+     * What a match adds to the standings of its league.
+     *
+     * @param matchId   ID of the match.
+     * @param key       League and season of the match.
+     * @param kickOff   When the match was played, in seconds, 0 if unknown; orders the form.
+     * @param homeTeam  The home team.
+     * @param awayTeam  The away team.
+     * @param homeGoals Full time goals of the home team.
+     * @param awayGoals Full time goals of the away team.
+     * @param result    Full time result, 'H', 'D' or 'A'.
+     */
+    record MatchResult(int matchId, Key key, long kickOff, String homeTeam, String awayTeam,
+                       int homeGoals, int awayGoals, char result) {
+
+        static final Comparator<MatchResult> KICK_OFF_ORDER =
+                Comparator.comparingLong(MatchResult::kickOff).thenComparingInt(MatchResult::matchId);
+
+        /**
+         * @param match A row of 'football-match-data'.
+         * @return      What the match adds to the standings, or null if it does not count.
+         */
+        static MatchResult of(MatchTable match) {
+            if (isBlank(match.league()) || isBlank(match.season())
+                    || isBlank(match.home_team()) || isBlank(match.away_team())
+                    || match.full_time_home_goals() < 0 || match.full_time_away_goals() < 0
+                    || match.full_time_result() == null || !match.full_time_result().trim().matches("[HDA]")) {
+                return null;
+            }
+            return new MatchResult(match.match_id(), new Key(match.league().trim(), match.season().trim()),
+                    parseKickOff(match.datetime()), match.home_team().trim(), match.away_team().trim(),
+                    match.full_time_home_goals(), match.full_time_away_goals(),
+                    match.full_time_result().trim().charAt(0));
+        }
+
+        /**
+         * @return Both teams, the home team first.
+         */
+        List<String> teams() {
+            return homeTeam.equals(awayTeam) ? List.of(homeTeam) : List.of(homeTeam, awayTeam);
+        }
+
+        /**
+         * @param team  One of the teams.
+         * @return      'W', 'D' or 'L', as the team saw the match.
+         */
+        char outcomeFor(String team) {
+            if (result == 'D') {
+                return 'D';
+            }
+            return (result == 'H') == team.equals(homeTeam) ? 'W' : 'L';
+        }
+
+        /**
+         * @param team  One of the teams.
+         * @return      Goals the team scored.
+         */
+        int goalsFor(String team) {
+            return team.equals(homeTeam) ? homeGoals : awayGoals;
+        }
+
+        /**
+         * @param team  One of the teams.
+         * @return      Goals the team conceded.
+         */
+        int goalsAgainst(String team) {
+            return team.equals(homeTeam) ? awayGoals : homeGoals;
+        }
+    }
+
+    private final Map<Key, LeagueTable> leagues;
+    private volatile long version;
+
+    /**
+     * @param leagues   Standings of every league and season.
+     * @param version   Version of 'football-match-data' the standings were counted at.
+     */
+    private Standings(Map<Key, LeagueTable> leagues, long version) {
+        this.leagues = leagues;
+        this.version = version;
+    }
+
+    /**
+     * This method counts the standings of all leagues from their matches. The
+     * matches with a result are selected from the store and grouped by league in
+     * parallel, then the standings of the leagues are counted in parallel.
+     *
+     * @param matches   All rows of 'football-match-data'.
+     * @param version   Version of the table the rows were read at.
+     * @return          The standings.
+     */
+    static Standings build(MatchStore matches, long version) {
+        IntPredicate hasResult = matches.equalTo(MatchStore.TextColumn.RESULT, "H")
+                .or(matches.equalTo(MatchStore.TextColumn.RESULT, "D"))
+                .or(matches.equalTo(MatchStore.TextColumn.RESULT, "A"));
+        Map<Key, LeagueTable> leagues = new ConcurrentHashMap<>();
+        matches.select(hasResult).parallelStream()
+                .map(MatchResult::of)
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingByConcurrent(MatchResult::key))
+                .entrySet().parallelStream()
+                .forEach(entry -> {
+                    LeagueTable table = new LeagueTable();
+                    entry.getValue().forEach(table::add);
+                    leagues.put(entry.getKey(), table);
+                });
+        return new Standings(leagues, version);
+    }
+
+    /**
+     * This method applies a committed change of 'football-match-data' to the standings.
+     * Changes of other tables are ignored.
+     *
+     * @param change    The change, with its version.
+     * @param previous  The match as it was before the change, null if it is new.
+     */
+    void apply(TableChange change, MatchTable previous) {
+        if (change.schema() != TableSchema.MATCHES) {
+            return;
+        }
+        MatchResult before = previous == null ? null : MatchResult.of(previous);
+        if (before != null) {
+            LeagueTable table = leagues.get(before.key());
+            if (table != null) {
+                table.remove(before);
+                if (table.isEmpty()) {
+                    leagues.remove(before.key());
+                }
+            }
+        }
+        if (change.type() != ChangeType.DELETE && change.row() instanceof MatchTable match) {
+            MatchResult after = MatchResult.of(match);
+            if (after != null) {
+                leagues.computeIfAbsent(after.key(), key -> new LeagueTable()).add(after);
+            }
+        }
+        version = change.version();
+    }
+
+    /**
+     * @param league    Name of the league.
+     * @param season    The season.
+     * @return          The lines of the teams, best first, or null if no match of the league in the season counts.
+     */
+    List<StandingsRow> get(String league, String season) {
+        LeagueTable table = leagues.get(new Key(league.trim(), season.trim()));
+        return table == null ? null : table.rows();
+    }
+
+    /**
+     * @return Version of 'football-match-data' the standings are up to date with.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Number of leagues and seasons with standings.
+     */
+    int getLeagueCount() {
+        return leagues.size();
+    }
+
+    /**
+     * @param datetime  The Datetime of a match.
+     * @return          The time in seconds, or 0 if it cannot be read.
+     */
+    private static long parseKickOff(String datetime) {
+        if (datetime != null) {
+            for (DateTimeFormatter format : DATETIME_FORMATS) {
+                try {
+                    return LocalDateTime.parse(datetime.trim(), format).toEpochSecond(ZoneOffset.UTC);
+                } catch (DateTimeParseException ignored) {
+                    // try the next format
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param value A text value.
+     * @return      True if it is null or blank.
+     */
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class keeps the prepared statements of one connection open, so that
+ * a statement is parsed and planned by SQLite only the first time it is used.
+ * <p>
+ * It is not thread safe, it belongs to the thread that owns the connection.
+ * Statements handed out must not be closed by the caller.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class StatementCache implements AutoCloseable {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * @param connection The connection the statements are prepared on.
+     */
+    protected StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @return The connection the statements are prepared on.
+     */
+    protected Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the prepared statement for the SQL, preparing it on first use.
+     *
+     * @param sql           SQL of the statement.
+     * @return              The statement, with its parameters cleared.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    protected PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Close all statements and the connection.
+     */
+    @Override
+    public void close() {
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+            connection.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(StatementCache.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package server;
+
+import both.Column;
+import both.TableSchema;
+
+/**
+ * This class is the interest of an Admin in the changes of a table,
+ * either all of them or only those of the rows whose column has a value,
+ * such as {@code match_id=12} on 'odds' or {@code Season=2019/2020} on
+ * 'football-match-data'.
+ *
+ * @param schema    The table.
+ * @param cell      Index of the filtered column in the cells of a row, -1 for every row.
+ * @param value     Value the column must have, null for every row.
+ * @author Maksymilian Ćwirzeń
+ */
+record Subscription(TableSchema schema, int cell, String value) {
+
+    /**
+     * @param schema    The table.
+     * @return          A subscription to every change of the table.
+     */
+    protected static Subscription all(TableSchema schema) {
+        return new Subscription(schema, -1, null);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param filter    'column=value', or null for every row.
+     * @return          The subscription.
+     * @throws IllegalArgumentException If the filter is malformed or the table has no such column.
+     */
+    protected static Subscription parse(TableSchema schema, String filter) {
+        if (filter == null || filter.isBlank()) {
+            return all(schema);
+        }
+        int equals = filter.indexOf('=');
+        if (equals < 1) {
+            throw new IllegalArgumentException("A filter must look like column=value, got '" + filter + "'");
+        }
+        String column = filter.substring(0, equals).trim();
+        String value = filter.substring(equals + 1).trim();
+        if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            value = value.substring(1, value.length() - 1);
+        }
+
+        if (column.equalsIgnoreCase(schema.getIdColumn())) {
+            return new Subscription(schema, 0, value);
+        }
+        Column[] columns = schema.getEditableColumns();
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].name().equalsIgnoreCase(column)) {
+                return new Subscription(schema, i + 1, value);
+            }
+        }
+        throw new IllegalArgumentException("'" + schema.getTableName() + "' has no column " + column);
+    }
+
+    /**
+     * @return True if every change of the table is of interest.
+     */
+    protected boolean isWholeTable() {
+        return cell < 0;
+    }
+
+    /**
+     * @param change    A change of the table.
+     * @return          True if the row changed, or deleted, passes the filter.
+     */
+    protected boolean matches(TableChange change) {
+        return isWholeTable() || change.row() != null && value.equals(change.row().toCells()[cell]);
+    }
+
+    /**
+     * @param change    A change of the table.
+     * @return          True if the change is an update that took the row out of the filter,
+     *                  so Admin has to be told the row is gone.
+     */
+    protected boolean leaves(TableChange change) {
+        return !isWholeTable() && change.previous() != null
+                && value.equals(change.previous().toCells()[cell]) && !matches(change);
+    }
+}
@@ -0,0 +1,62 @@
+package server;
+
+import both.TableSchema;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps, for every table, the connections that want its changes,
+ * so a change is only offered to those and not to every connected Admin.
+ * <p>
+ * The sets are concurrent, so a change can be published while connections
+ * subscribe and unsubscribe. What exactly a connection wants to receive is
+ * up to the connection itself.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class SubscriptionIndex {
+
+    private final Map<TableSchema, Set<AdminConnection>> subscribers = new EnumMap<>(TableSchema.class);
+
+    /**
+     * Constructor creates an empty set for every table.
+     */
+    SubscriptionIndex() {
+        for (TableSchema schema : TableSchema.values()) {
+            subscribers.put(schema, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * @param connection    The connection.
+     * @param schema        The table.
+     * @param subscribed    True if the connection wants the changes of the table from now on.
+     */
+    void update(AdminConnection connection, TableSchema schema, boolean subscribed) {
+        if (subscribed) {
+            subscribers.get(schema).add(connection);
+        } else {
+            subscribers.get(schema).remove(connection);
+        }
+    }
+
+    /**
+     * @param connection A connection that has been closed.
+     */
+    void removeAll(AdminConnection connection) {
+        for (Set<AdminConnection> connections : subscribers.values()) {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * @param schema    The table.
+     * @return          The connections that want the changes of the table.
+     */
+    Set<AdminConnection> get(TableSchema schema) {
+        return subscribers.get(schema);
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import both.TableSchema;
+
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the latest snapshot of every table in memory, so that a GET
+ * only touches SQLite when the table has changed since it was last read.
+ * <p>
+ * A snapshot is valid while the version of its table has not moved on. Reading
+ * a valid snapshot takes no lock; only a reload is done under the lock of its
+ * table, so concurrent misses run the query once. Snapshots that would take
+ * the cache over its memory cap are served but not kept.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class TableCache {
+
+    /**
+     * Reads a table from the database.
+     */
+    @FunctionalInterface
+    protected interface Loader {
+        /**
+         * @param schema        The table.
+         * @param version       Version of the table read before the query.
+         * @return              The table as a snapshot.
+         * @throws SQLException If the query fails.
+         */
+        TableSnapshot load(TableSchema schema, long version) throws SQLException;
+    }
+
+    private final Map<TableSchema, AtomicReference<TableSnapshot>> snapshots = new EnumMap<>(TableSchema.class);
+    private final long maxBytes;
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxBytes Estimated heap all cached snapshots together may take.
+     */
+    protected TableCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (TableSchema schema : TableSchema.values()) {
+            snapshots.put(schema, new AtomicReference<>());
+        }
+    }
+
+    /**
+     * Get the snapshot of a table at its current version.
+     *
+     * @param schema        The table.
+     * @param version       The current version of the table.
+     * @param loader        Reads the table if the cached snapshot is missing or out of date.
+     * @return              The snapshot.
+     * @throws SQLException If the table has to be read and the query fails.
+     */
+    protected TableSnapshot get(TableSchema schema, long version, Loader loader) throws SQLException {
+        AtomicReference<TableSnapshot> reference = snapshots.get(schema);
+        TableSnapshot snapshot = reference.get();
+        if (snapshot != null && snapshot.version() == version) {
+            hits.increment();
+            return snapshot;
+        }
+        synchronized (reference) {
+            snapshot = reference.get();
+            if (snapshot != null && snapshot.version() == version) {
+                hits.increment();
+                return snapshot;
+            }
+            misses.increment();
+            TableSnapshot loaded = loader.load(schema, version);
+            long previousBytes = snapshot == null ? 0 : snapshot.estimatedBytes();
+            if (cachedBytes.get() - previousBytes + loaded.estimatedBytes() <= maxBytes) {
+                reference.set(loaded);
+                cachedBytes.addAndGet(loaded.estimatedBytes() - previousBytes);
+            } else if (snapshot != null) {
+                // too big to keep, drop the stale one as well
+                reference.set(null);
+                cachedBytes.addAndGet(-previousBytes);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * @return Number of reads served from memory.
+     */
+    protected long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of reads that had to query the database.
+     */
+    protected long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Estimated heap taken by the cached snapshots.
+     */
+    protected long getCachedBytes() {
+        return cachedBytes.get();
+    }
+}
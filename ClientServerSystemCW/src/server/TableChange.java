@@ -0,0 +1,81 @@
+package server;
+
+import both.ChangeType;
+import both.FrameEncoder;
+import both.MessageType;
+import both.TableRow;
+import both.TableSchema;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class represents a single committed change of a row.
+ * <p>
+ * The version is the version of the table right after the change, versions
+ * of one table grow by one with every change. For an insert or an update the
+ * row holds the new values, for a delete it holds the values that were deleted.
+ * An update also holds the row as it was, so an Admin watching only some rows
+ * can be told when a row no longer is one of them.
+ * <p>
+ * The DELTA frame of the change is encoded once and shared by every connection
+ * it is sent to, as is the DELTA deleting the row for those it has left.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+record TableChange(TableSchema schema, ChangeType type, long version, int id, TableRow row, TableRow previous,
+                   SharedBytes frame, SharedBytes leaveFrame) {
+
+    /**
+     * @param schema    The table.
+     * @param type      The kind of change.
+     * @param version   Version of the table after the change, 0 until it is assigned.
+     * @param id        ID of the changed row.
+     * @param row       The new row, or the deleted one.
+     */
+    TableChange(TableSchema schema, ChangeType type, long version, int id, TableRow row) {
+        this(schema, type, version, id, row, null);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param type      The kind of change.
+     * @param version   Version of the table after the change, 0 until it is assigned.
+     * @param id        ID of the changed row.
+     * @param row       The new row, or the deleted one.
+     * @param previous  The row before an update, null otherwise.
+     */
+    TableChange(TableSchema schema, ChangeType type, long version, int id, TableRow row, TableRow previous) {
+        this(schema, type, version, id, row, previous,
+                new SharedBytes(() -> encodeFrame(schema, type, version, id, row)),
+                previous == null ? null : new SharedBytes(() -> encodeFrame(schema, ChangeType.DELETE, version, id, null)));
+    }
+
+    /**
+     * @param version   The version of the table after the change.
+     * @return          The same change with the version assigned.
+     */
+    protected TableChange withVersion(long version) {
+        return new TableChange(schema, type, version, id, row, previous);
+    }
+
+    /**
+     * @param schema    The table.
+     * @param type      The kind of change.
+     * @param version   Version of the table after the change.
+     * @param id        ID of the changed row.
+     * @param row       The new row, or the deleted one.
+     * @return          The DELTA frame of the binary protocol.
+     */
+    private static ByteBuffer encodeFrame(TableSchema schema, ChangeType type, long version, int id, TableRow row) {
+        FrameEncoder encoder = new FrameEncoder(128);
+        encoder.begin(MessageType.DELTA)
+                .putByte(schema.getCode())
+                .putByte((byte) type.ordinal())
+                .putLong(version)
+                .putInt(id);
+        if (type != ChangeType.DELETE) {
+            row.encode(encoder);
+        }
+        return encoder.finish();
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps the latest changes of one table, so that an Admin
+ * which missed a few changes can catch up without a full snapshot.
+ * <p>
+ * Changes are recorded by the writer thread only, in version order.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+class TableChangeLog {
+
+    private final TableChange[] changes;
+    private long latestVersion = 0;
+
+    /**
+     * @param capacity Number of changes remembered.
+     */
+    protected TableChangeLog(int capacity) {
+        this.changes = new TableChange[capacity];
+    }
+
+    /**
+     * @param change The next change of the table.
+     */
+    protected synchronized void record(TableChange change) {
+        changes[(int) (change.version() % changes.length)] = change;
+        latestVersion = change.version();
+    }
+
+    /**
+     * Get the changes a client needs to move between two versions.
+     *
+     * @param fromVersion   The version the client has, exclusive.
+     * @param toVersion     The version the client should reach, inclusive.
+     * @return              The changes in order, or null if some of them are no longer remembered.
+     */
+    protected synchronized List<TableChange> between(long fromVersion, long toVersion) {
+        if (toVersion > latestVersion || latestVersion - fromVersion > changes.length) {
+            return null;
+        }
+        List<TableChange> result = new ArrayList<>((int) Math.max(0, toVersion - fromVersion));
+        for (long version = fromVersion + 1; version <= toVersion; version++) {
+            TableChange change = changes[(int) (version % changes.length)];
+            if (change == null || change.version() != version) {
+                return null;
+            }
+            result.add(change);
+        }
+        return result;
+    }
+}
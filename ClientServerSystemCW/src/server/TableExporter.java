@@ -0,0 +1,232 @@
+package server;
+
+import both.Column;
+import both.ExportFormat;
+import both.FrameEncoder;
+import both.MessageType;
+import both.TableRow;
+import both.TableSchema;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class writes whole tables to files in the export directory,
+ * {@code export.dir}, as the EXPORT command.
+ * <p>
+ * The rows are written out as they come off the result set, through a
+ * buffer of a fixed size, so exporting a table takes the same memory however
+ * many rows it has; a GET of the same table builds it whole in the heap. A
+ * file is written next to its place and moved there once complete, so a file
+ * being sent is never changed. The file of a table is written again only
+ * once the table has changed since; until then it is sent as it is, see
+ * {@link FileRegion}. One file is written at a time.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class TableExporter {
+
+    private static final Path EXPORT_DIR = Path.of(System.getProperty("export.dir", "export")).toAbsolutePath().normalize();
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int CHUNK_ROWS = 256;
+
+    // the newest file of every table and format, written by this server
+    private static final Map<TableSchema, Map<ExportFormat, Export>> written = new EnumMap<>(TableSchema.class);
+
+    /**
+     * A file holding a table.
+     *
+     * @param schema    The table.
+     * @param format    Format of the file.
+     * @param version   Version of the table read before the rows were.
+     * @param path      The file.
+     * @param rows      Number of rows.
+     * @param bytes     Size of the file.
+     * @param nanos     Time it took to write the file, 0 if it had been written before.
+     */
+    record Export(TableSchema schema, ExportFormat format, long version, Path path, int rows, long bytes,
+                  long nanos) {
+    }
+
+    private TableExporter() {
+    }
+
+    /**
+     * This method writes a table to its file in the export directory, unless
+     * the file was written at the current version of the table.
+     *
+     * @param database      The link to the database.
+     * @param schema        The table.
+     * @param format        Format of the file.
+     * @return              The file.
+     * @throws SQLException If the table cannot be read.
+     * @throws IOException  If the file cannot be written.
+     */
+    static synchronized Export export(SQLiteDatabase database, TableSchema schema, ExportFormat format)
+            throws SQLException, IOException {
+        long version = database.getVersion(schema);
+        Export previous = written.computeIfAbsent(schema, table -> new EnumMap<>(ExportFormat.class)).get(format);
+        if (previous != null && previous.version() == version && Files.isRegularFile(previous.path())) {
+            return new Export(schema, format, version, previous.path(), previous.rows(), previous.bytes(), 0);
+        }
+
+        long start = System.nanoTime();
+        Files.createDirectories(EXPORT_DIR);
+        Path path = EXPORT_DIR.resolve(schema.getTableName() + "." + format.getExtension());
+        Path part = EXPORT_DIR.resolve(path.getFileName() + ".part");
+        int rows;
+        try {
+            rows = format == ExportFormat.CSV ? writeCsv(database, schema, part) : writeBinary(database, schema, part);
+            Files.move(part, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        Export export = new Export(schema, format, version, path, rows, Files.size(path), System.nanoTime() - start);
+        written.get(schema).put(format, export);
+        return export;
+    }
+
+    /**
+     * Write a table as CSV, its columns named as in the database on the first line.
+     *
+     * @param database      The link to the database.
+     * @param schema        The table.
+     * @param file          The file to write.
+     * @return              Number of rows written.
+     * @throws SQLException If the table cannot be read.
+     * @throws IOException  If the file cannot be written.
+     */
+    private static int writeCsv(SQLiteDatabase database, TableSchema schema, Path file)
+            throws SQLException, IOException {
+        Column[] columns = schema.getEditableColumns();
+        int[] rows = {0};
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), BUFFER_BYTES)) {
+            out.write(schema.getIdColumn());
+            for (Column column : columns) {
+                out.write(',');
+                writeCell(out, column.name());
+            }
+            out.write('\n');
+            database.streamTable(schema, row -> {
+                for (int i = 1; i <= columns.length + 1; i++) {
+                    if (i > 1) out.write(',');
+                    writeCell(out, row.getString(i));
+                }
+                out.write('\n');
+                rows[0]++;
+            });
+        }
+        return rows[0];
+    }
+
+    /**
+     * Write a table as PAGE_CHUNK frames of the binary protocol ended by a
+     * PAGE_END frame, a chunk of rows at a time.
+     *
+     * @param database      The link to the database.
+     * @param schema        The table.
+     * @param file          The file to write.
+     * @return              Number of rows written.
+     * @throws SQLException If the table cannot be read.
+     * @throws IOException  If the file cannot be written.
+     */
+    private static int writeBinary(SQLiteDatabase database, TableSchema schema, Path file)
+            throws SQLException, IOException {
+        FrameEncoder encoder = new FrameEncoder(BUFFER_BYTES);
+        List<TableRow> chunk = new ArrayList<>(CHUNK_ROWS);
+        int[] rows = {0};
+        int[] lastId = {-1};
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            database.streamTable(schema, (ResultSet row) -> {
+                TableRow read = schema.readRow(row);
+                chunk.add(read);
+                lastId[0] = read.id();
+                if (chunk.size() == CHUNK_ROWS) {
+                    writeChunk(out, encoder, schema, chunk, rows[0] == 0);
+                    rows[0] += chunk.size();
+                    chunk.clear();
+                }
+            });
+            if (!chunk.isEmpty() || rows[0] == 0) {
+                writeChunk(out, encoder, schema, chunk, rows[0] == 0);
+                rows[0] += chunk.size();
+            }
+            writeFully(out, encoder.begin(MessageType.PAGE_END)
+                    .putInt(0)
+                    .putByte(schema.getCode())
+                    .putInt(lastId[0])
+                    .putByte((byte) 0)
+                    .finish());
+        }
+        return rows[0];
+    }
+
+    /**
+     * @param out       The file.
+     * @param encoder   Encoder of the frames.
+     * @param schema    The table.
+     * @param chunk     Rows of the chunk.
+     * @param first     True for the first chunk.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeChunk(FileChannel out, FrameEncoder encoder, TableSchema schema, List<TableRow> chunk,
+                                   boolean first) throws IOException {
+        encoder.begin(MessageType.PAGE_CHUNK)
+                .putByte(schema.getCode())
+                .putByte((byte) (first ? 1 : 0))
+                .putInt(chunk.size());
+        for (TableRow row : chunk) {
+            row.encode(encoder);
+        }
+        writeFully(out, encoder.finish());
+    }
+
+    /**
+     * @param out       The file.
+     * @param bytes     Bytes to write.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Write a value as a cell of CSV, in double quotes if it holds a comma,
+     * a quote or a line break.
+     *
+     * @param out       The file.
+     * @param value     The value, null for an empty cell.
+     * @throws IOException If the file cannot be written.
+     */
+    private static void writeCell(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
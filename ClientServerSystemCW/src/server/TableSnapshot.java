@@ -0,0 +1,64 @@
+package server;
+
+import both.FrameEncoder;
+import both.MessageType;
+import both.TableRow;
+import both.TableSchema;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class is an immutable copy of a table as it was at a version.
+ * It can be shared by any number of threads without locking.
+ * <p>
+ * The snapshot also holds the table as it is sent to Admin, in either
+ * protocol. Each is encoded once, when first needed, and the same bytes
+ * go to every connection; they are not part of the estimated size.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+record TableSnapshot(TableSchema schema, long version, List<TableRow> rows, long estimatedBytes,
+                     SharedBytes frame, SharedBytes textLine) {
+
+    /**
+     * Create a snapshot, estimating how much heap its rows take.
+     *
+     * @param schema    The table.
+     * @param version   Version of the table the rows were read at.
+     * @param rows      The rows, which are copied into an unmodifiable list.
+     * @return          The snapshot.
+     */
+    protected static TableSnapshot of(TableSchema schema, long version, List<TableRow> rows) {
+        long bytes = 64;
+        for (TableRow row : rows) {
+            bytes += 24; // row object and list slot
+            for (String cell : row.toCells()) {
+                bytes += 8 + (cell == null ? 0 : 40 + cell.length());
+            }
+        }
+        List<TableRow> copy = List.copyOf(rows);
+        return new TableSnapshot(schema, version, copy, bytes,
+                new SharedBytes(() -> encodeFrame(schema, version, copy)),
+                new SharedBytes(() -> ByteBuffer.wrap(("SQL_TABLE" + copy + "\n").getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * @param schema    The table.
+     * @param version   Version of the table the rows were read at.
+     * @param rows      The rows.
+     * @return          The TABLE frame of the binary protocol.
+     */
+    private static ByteBuffer encodeFrame(TableSchema schema, long version, List<TableRow> rows) {
+        FrameEncoder encoder = new FrameEncoder(64 + rows.size() * 64);
+        encoder.begin(MessageType.TABLE)
+                .putByte(schema.getCode())
+                .putLong(version)
+                .putInt(rows.size());
+        for (TableRow row : rows) {
+            row.encode(encoder);
+        }
+        return encoder.finish();
+    }
+}
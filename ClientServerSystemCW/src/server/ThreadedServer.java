@@ -1,8 +1,15 @@
 package server;
 
+import both.TableSchema;
+
 import java.io.*;
 import java.util.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,13 +18,28 @@ import java.util.logging.Logger;
  * multi-threading. This class has the responsibility for connecting new admins
  * and starting a new thread for each new admin.
  * It is also responsible for synchronisation of the data across all admins.
+ * <p>
+ * The server runs in the blocking mode by default. Starting it with the
+ * {@code nio} argument (or {@code -Dserver.mode=nio}) runs the non-blocking
+ * {@link NioServer} instead.
  *
  * @author Chris Bass, modified by Maksymilian Ćwirzeń
  */
 class ThreadedServer {
 
-    private static final SQLiteDatabase database = new SQLiteDatabase(null, null, null);
-    private static final HashSet<AdminHandlerThread> ADMIN_HANDLER_THREADS = new HashSet<>();
+    private static final int PORT = 2000;
+    private static final boolean MIGRATE_ODDS = Boolean.parseBoolean(System.getProperty("odds.migrate", "true"));
+    private static final int ODDS_MIGRATION_BATCH = Integer.getInteger("odds.migrationBatch", 1000);
+    private static final long ODDS_MIGRATION_PAUSE_MS = Long.getLong("odds.migrationPauseMs", 20);
+    private static final SQLiteDatabase database = new SQLiteDatabase();
+    private static final Set<AdminConnection> ADMIN_HANDLER_THREADS = ConcurrentHashMap.newKeySet();
+    private static final SubscriptionIndex SUBSCRIPTIONS = new SubscriptionIndex();
+    private static final ExecutorService REQUEST_WORKERS = Executors.newFixedThreadPool(
+            Integer.getInteger("server.workerThreads", Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "request-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
 
 
     /**
@@ -27,18 +49,21 @@ class ThreadedServer {
     private static void connectToAdmin() {
         System.out.println("Server: Server starting.");
 
-        try (ServerSocket serverSocket = new ServerSocket(2000)) {
+        // a blocking channel rather than a plain ServerSocket, so every socket has a channel an EXPORT is sent through
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(PORT));
 
             //noinspection InfiniteLoopStatement
             while (true) {
                 System.out.println("Server: Waiting for connecting client...");
 
                 try {
-                    Socket socket = serverSocket.accept();
-                    AdminHandlerThread adminHandlerThread = new AdminHandlerThread(socket, database);
+                    Socket socket = serverChannel.accept().socket();
+                    socket.setTcpNoDelay(true); // a reply often follows a table, don't hold it back
+                    AdminHandlerThread adminHandlerThread = new AdminHandlerThread(socket, database, REQUEST_WORKERS);
                     Thread connectionThread = new Thread(adminHandlerThread);
-                    connectionThread.start();
                     ADMIN_HANDLER_THREADS.add(adminHandlerThread);
+                    connectionThread.start();
                 } catch (IOException ex) {
                     System.out.println("Server: Could not start connection to a client.");
                 }
@@ -50,21 +75,67 @@ class ThreadedServer {
     }
 
     /**
-     * Synchronise the tables for all admins.
+     * Synchronise the tables for the admins subscribed to the changed table
+     * by sending them a committed change.
+     *
+     * @param change The committed change.
+     */
+    protected static void publish(TableChange change) {
+        long bytes = 0;
+        for (AdminConnection handler : SUBSCRIPTIONS.get(change.schema())) {
+            // one broken connection must not keep the change from the admins after it
+            try {
+                bytes += handler.sendChange(change);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        ServerMetrics.INSTANCE.recordBroadcast(bytes);
+    }
+
+    /**
+     * Synchronise the tables for all admins after a batch of changes.
+     * Only the last change of each table is published; an admin catches up on
+     * the earlier ones from the change log, or gets the whole table once.
+     *
+     * @param changes The committed changes in commit order, null entries are skipped.
      */
-    protected static void synchronise() {
-        for (AdminHandlerThread handler : ADMIN_HANDLER_THREADS) {
-            handler.getUpdatedTable(handler.tableDisplayed);
+    protected static void publish(List<TableChange> changes) {
+        Map<TableSchema, TableChange> lastChanges = new EnumMap<>(TableSchema.class);
+        for (TableChange change : changes) {
+            if (change != null) {
+                lastChanges.put(change.schema(), change);
+            }
+        }
+        for (TableChange change : lastChanges.values()) {
+            publish(change);
         }
     }
 
+    /**
+     * Add a newly connected admin.
+     *
+     * @param threadToAdd Connection to be added
+     */
+    protected static void addThread(AdminConnection threadToAdd) {
+        ADMIN_HANDLER_THREADS.add(threadToAdd);
+    }
+
     /**
      * Remove the unused threads.
      *
      * @param threadToRemove Thread to be removed
      */
-    protected static void removeThread(AdminHandlerThread threadToRemove) {
+    protected static void removeThread(AdminConnection threadToRemove) {
         ADMIN_HANDLER_THREADS.remove(threadToRemove);
+        SUBSCRIPTIONS.removeAll(threadToRemove);
+    }
+
+    /**
+     * @return The admins subscribed to each table.
+     */
+    protected static SubscriptionIndex subscriptions() {
+        return SUBSCRIPTIONS;
     }
 
     /**
@@ -73,8 +144,60 @@ class ThreadedServer {
      * @throws IOException If Admin disconnects suddenly.
      */
     private static void broadcastToAdmins() throws IOException {
-        for (AdminHandlerThread handler : ADMIN_HANDLER_THREADS) {
-            handler.sendBroadcast();
+        long bytes = 0;
+        for (AdminConnection handler : ADMIN_HANDLER_THREADS) {
+            try {
+                bytes += handler.sendBroadcast();
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        ServerMetrics.INSTANCE.recordBroadcast(bytes);
+    }
+
+    /**
+     * @return Number of admins connected.
+     */
+    protected static int getConnectionCount() {
+        return ADMIN_HANDLER_THREADS.size();
+    }
+
+    /**
+     * @return Number of bytes waiting to be written to all admins.
+     */
+    protected static long getOutboundBytes() {
+        long bytes = 0;
+        for (AdminConnection handler : ADMIN_HANDLER_THREADS) {
+            bytes += handler.getOutboundBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Number of writes waiting for the writer thread of the database.
+     */
+    protected static int getWriteQueueDepth() {
+        return database.getWriteQueueDepth();
+    }
+
+    /**
+     * Convert the prices of 'odds' to REAL columns while the server is
+     * serving Admins, unless that has been done already.
+     */
+    private static void migrateOdds() {
+        try {
+            long start = System.nanoTime();
+            int copied = database.migrateOdds(ODDS_MIGRATION_BATCH, ODDS_MIGRATION_PAUSE_MS);
+            if (copied >= 0) {
+                Logger.getLogger(ThreadedServer.class.getName()).log(Level.INFO,
+                        "Migrated {0} odds rows to REAL prices in {1} ms",
+                        new Object[]{copied, (System.nanoTime() - start) / 1_000_000});
+            }
+        } catch (SQLException ex) {
+            // the odds stay text and the server keeps working with them
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -84,7 +207,44 @@ class ThreadedServer {
      * Then it initialises the server, allowing for the threads to
      * be generated and connected to admins.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        ServerMetrics.INSTANCE.register();
+        try {
+            List<String> created = database.ensureIndexes();
+            if (!created.isEmpty()) {
+                Logger.getLogger(ThreadedServer.class.getName()).log(Level.INFO, "Created indexes {0}", created);
+            }
+        } catch (SQLException ex) {
+            // the server still works without them, only slower
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        try {
+            long start = System.nanoTime();
+            Standings standings = database.loadMatches();
+            MatchStore matches = database.getMatchStore();
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.INFO,
+                    "Loaded {0} matches into about {1} KB and counted the standings of {2} leagues in {3} ms",
+                    new Object[]{matches.size(), matches.estimateBytes() / 1024, standings.getLeagueCount(),
+                            (System.nanoTime() - start) / 1_000_000});
+        } catch (SQLException ex) {
+            // STANDINGS is refused until the server is restarted
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        try {
+            long start = System.nanoTime();
+            OddsBook book = database.loadOdds();
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.INFO,
+                    "Found the best prices of {0} matches, {1} of them an arbitrage, in {2} ms",
+                    new Object[]{book.getMatchCount(), book.arbitrage().size(), (System.nanoTime() - start) / 1_000_000});
+        } catch (SQLException ex) {
+            // MARGINS and ARBITRAGE are refused until the server is restarted
+            Logger.getLogger(ThreadedServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        if (MIGRATE_ODDS) {
+            Thread migration = new Thread(ThreadedServer::migrateOdds, "odds-migration");
+            migration.setDaemon(true);
+            migration.start();
+        }
 
         final Timer timer = new Timer();
         timer.schedule(new TimerTask() {
@@ -97,7 +257,16 @@ class ThreadedServer {
                 }
             }
         }, 0, 1000);
-        // update the database for all admins everytime a command is being executed
-        ThreadedServer.connectToAdmin();
+
+        String mode = args.length > 0 ? args[0] : System.getProperty("server.mode", "blocking");
+        if (mode.equals("nio")) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int ioThreads = Integer.getInteger("server.ioThreads", Math.max(1, cores / 2));
+            int workerThreads = Integer.getInteger("server.workerThreads", cores);
+            new NioServer(PORT, database, ioThreads, workerThreads).connectToAdmin();
+        } else {
+            // update the database for all admins everytime a command is being executed
+            ThreadedServer.connectToAdmin();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+package server;
+
+import both.Column;
+import both.OddsFormat;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class turns the data field typed by Admin into typed statement parameters.
+ * <p>
+ * The data field is a comma separated list of values. Strings are surrounded
+ * by single quotes and may contain commas, a quote inside a string is written
+ * twice. An unquoted {@code null} stands for SQL NULL. A REAL column takes a
+ * price, written as a decimal or in the fractional odds it used to be kept in,
+ * see {@link OddsFormat}.
+ *
+ * @author Maksymilian Ćwirzeń
+ */
+final class ValueParser {
+
+    private ValueParser() {
+    }
+
+    /**
+     * Split the data field into its values, with the quotes removed.
+     *
+     * @param data          The data field.
+     * @return              The values, null for an unquoted null.
+     * @throws SQLException If a string is not closed.
+     */
+    protected static List<String> split(String data) throws SQLException {
+        List<String> values = new ArrayList<>();
+        if (data == null) {
+            return values;
+        }
+        int i = 0;
+        int length = data.length();
+        while (i <= length) {
+            while (i < length && data.charAt(i) == ' ') i++;
+            if (i < length && data.charAt(i) == '\'') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new SQLException("Unclosed string in '" + data + "'");
+                    }
+                    char c = data.charAt(i++);
+                    if (c == '\'') {
+                        if (i < length && data.charAt(i) == '\'') {
+                            value.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(c);
+                    }
+                }
+                values.add(value.toString());
+                while (i < length && data.charAt(i) != ',') i++;
+            } else {
+                int end = data.indexOf(',', i);
+                if (end < 0) end = length;
+                String value = data.substring(i, end).trim();
+                values.add(value.equalsIgnoreCase("null") ? null : value);
+                i = end;
+            }
+            i++; // skip the comma
+        }
+        return values;
+    }
+
+    /**
+     * Bind the values of the data field to the parameters of a statement,
+     * converting each value to the type of its column.
+     *
+     * @param statement     The statement.
+     * @param columns       The columns the values belong to, in order.
+     * @param data          The data field.
+     * @param textPrices    True while the columns declared REAL are still kept as text,
+     *                      so prices are bound as fractional odds text.
+     * @return              Index of the next unbound parameter.
+     * @throws SQLException If the number of values is wrong or a value does not fit its column.
+     */
+    protected static int bind(PreparedStatement statement, Column[] columns, String data, boolean textPrices)
+            throws SQLException {
+        List<String> values = split(data);
+        if (values.size() != columns.length) {
+            throw new SQLException("Expected " + columns.length + " values but got " + values.size());
+        }
+        Object[] converted = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            converted[i] = convert(columns[i], values.get(i));
+        }
+        return bind(statement, columns, converted, textPrices);
+    }
+
+    /**
+     * Bind values already converted by {@link #convert(Column, String)} to the
+     * parameters of a statement.
+     *
+     * @param statement     The statement.
+     * @param columns       The columns the values belong to, in order.
+     * @param values        The values, null for SQL NULL.
+     * @param textPrices    True while the columns declared REAL are still kept as text,
+     *                      so prices are bound as fractional odds text.
+     * @return              Index of the next unbound parameter.
+     * @throws SQLException If a value cannot be bound.
+     */
+    protected static int bind(PreparedStatement statement, Column[] columns, Object[] values, boolean textPrices)
+            throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            Object value = values[i];
+            int parameter = i + 1;
+            if (value == null) {
+                statement.setNull(parameter, Types.NULL);
+            } else if (value instanceof Integer number) {
+                statement.setInt(parameter, number);
+            } else if (value instanceof Double price) {
+                if (textPrices) {
+                    statement.setString(parameter, OddsFormat.toText(price));
+                } else {
+                    statement.setDouble(parameter, price);
+                }
+            } else {
+                statement.setString(parameter, value.toString());
+            }
+        }
+        return columns.length + 1;
+    }
+
+    /**
+     * Convert a single value to the type of its column.
+     *
+     * @param column        The column.
+     * @param value         The value as text, null for SQL NULL.
+     * @return              An Integer, a Double price or a String, or null.
+     * @throws SQLException If the value does not fit the column.
+     */
+    protected static Object convert(Column column, String value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        switch (column.type()) {
+            case INTEGER -> {
+                try {
+                    return Integer.parseInt(value);
+                } catch (NumberFormatException ex) {
+                    throw new SQLException("Column " + column.name() + " needs an integer, got '" + value + "'");
+                }
+            }
+            case REAL -> {
+                try {
+                    return OddsFormat.parse(value);
+                } catch (IllegalArgumentException ex) {
+                    throw new SQLException("Column " + column.name() + ": " + ex.getMessage());
+                }
+            }
+            default -> {
+                return value;
+            }
+        }
+    }
+}